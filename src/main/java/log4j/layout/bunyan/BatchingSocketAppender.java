@@ -0,0 +1,282 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package log4j.layout.bunyan;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.Appender;
+import org.apache.logging.log4j.core.Core;
+import org.apache.logging.log4j.core.Filter;
+import org.apache.logging.log4j.core.Layout;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.config.Property;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderAttribute;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderFactory;
+import org.apache.logging.log4j.core.layout.ByteBufferDestination;
+import org.apache.logging.log4j.core.net.Protocol;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appender that sends log records to a TCP or UDP socket in batches instead
+ * of writing each record with its own system call. It is intended to be used
+ * with {@link BunyanJsonLayout} to ship records to a local collector.
+ *
+ * @see BatchingSocketManager
+ */
+@Plugin(name = "BatchingSocket", category = Core.CATEGORY_NAME, elementType = Appender.ELEMENT_TYPE, printObject = true)
+public class BatchingSocketAppender extends AbstractAppender {
+    /**
+     * Default size in bytes of each batch for TCP.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 64 * 1024;
+    /**
+     * Default number of batches allocated.
+     */
+    public static final int DEFAULT_BATCH_COUNT = 4;
+    /**
+     * Default maximum time a record waits in a batch that isn't full.
+     */
+    public static final int DEFAULT_LINGER_MILLIS = 5;
+    /**
+     * Default maximum time an event that isn't droppable waits for a free batch.
+     */
+    public static final int DEFAULT_MAX_BLOCK_MILLIS = 5_000;
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 5_000;
+    public static final int DEFAULT_RECONNECT_DELAY_MILLIS = 1_000;
+
+    private final BatchingSocketManager manager;
+    /**
+     * Destination per thread that tags the records it receives with the level
+     * of the event that is being encoded.
+     */
+    private final ThreadLocal<RecordDestination> destinations;
+
+    @PluginBuilderFactory
+    public static <B extends Builder<B>> B newBuilder() {
+        return new Builder<B>().asBuilder();
+    }
+
+    public static class Builder<B extends Builder<B>> extends AbstractAppender.Builder<B>
+            implements org.apache.logging.log4j.core.util.Builder<BatchingSocketAppender> {
+        @PluginBuilderAttribute
+        private String host = "localhost";
+        @PluginBuilderAttribute
+        private int port;
+        @PluginBuilderAttribute
+        private Protocol protocol = Protocol.TCP;
+        @PluginBuilderAttribute
+        private int batchSize;
+        @PluginBuilderAttribute
+        private int batchCount = DEFAULT_BATCH_COUNT;
+        @PluginBuilderAttribute
+        private int lingerMillis = DEFAULT_LINGER_MILLIS;
+        @PluginBuilderAttribute
+        private Level dropLevel;
+        @PluginBuilderAttribute
+        private int maxBlockMillis = DEFAULT_MAX_BLOCK_MILLIS;
+        @PluginBuilderAttribute
+        private int connectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+        @PluginBuilderAttribute
+        private int reconnectDelayMillis = DEFAULT_RECONNECT_DELAY_MILLIS;
+
+        @Override
+        public BatchingSocketAppender build() {
+            final Layout<? extends Serializable> layout = getLayout();
+            if (layout == null) {
+                String msg = String.format("A layout must be set when using %s",
+                        BatchingSocketAppender.class.getSimpleName());
+                throw new IllegalArgumentException(msg);
+            }
+            if (port <= 0 || port > 65_535) {
+                String msg = String.format("Invalid port specified: %d", port);
+                throw new IllegalArgumentException(msg);
+            }
+            if (protocol == Protocol.SSL) {
+                String msg = String.format("Unsupported protocol specified: %s", protocol);
+                throw new IllegalArgumentException(msg);
+            }
+
+            final int maxBatchSize = protocol == Protocol.UDP
+                    ? BatchingSocketManager.MAX_DATAGRAM_SIZE : Integer.MAX_VALUE;
+            final int size = batchSize == 0 ? Math.min(DEFAULT_BATCH_SIZE, maxBatchSize) : batchSize;
+            if (size < 0 || size > maxBatchSize) {
+                String msg = String.format("Invalid batchSize specified for %s: %d", protocol, batchSize);
+                throw new IllegalArgumentException(msg);
+            }
+            if (batchCount < 2) {
+                String msg = String.format("batchCount must be at least 2: %d", batchCount);
+                throw new IllegalArgumentException(msg);
+            }
+            if (lingerMillis < 0 || maxBlockMillis < 0 || connectTimeoutMillis < 0 || reconnectDelayMillis < 0) {
+                throw new IllegalArgumentException("Times must not be negative");
+            }
+
+            final BatchingSocketManager.FactoryData data = new BatchingSocketManager.FactoryData(
+                    host, port, protocol, size, batchCount, lingerMillis, dropLevel, maxBlockMillis,
+                    connectTimeoutMillis, reconnectDelayMillis);
+
+            return new BatchingSocketAppender(getName(), getFilter(), layout, isIgnoreExceptions(),
+                    getPropertyArray(), BatchingSocketManager.getManager(data));
+        }
+
+        public B setHost(final String host) {
+            this.host = host;
+            return asBuilder();
+        }
+
+        public B setPort(final int port) {
+            this.port = port;
+            return asBuilder();
+        }
+
+        public B setProtocol(final Protocol protocol) {
+            this.protocol = protocol;
+            return asBuilder();
+        }
+
+        /**
+         * @param batchSize size in bytes of each batch, zero for the protocol default
+         * @return this builder
+         */
+        public B setBatchSize(final int batchSize) {
+            this.batchSize = batchSize;
+            return asBuilder();
+        }
+
+        public B setBatchCount(final int batchCount) {
+            this.batchCount = batchCount;
+            return asBuilder();
+        }
+
+        public B setLingerMillis(final int lingerMillis) {
+            this.lingerMillis = lingerMillis;
+            return asBuilder();
+        }
+
+        /**
+         * @param dropLevel events at this level or less severe are dropped immediately
+         *                  when all batches are in use, null to never drop by level
+         * @return this builder
+         */
+        public B setDropLevel(final Level dropLevel) {
+            this.dropLevel = dropLevel;
+            return asBuilder();
+        }
+
+        public B setMaxBlockMillis(final int maxBlockMillis) {
+            this.maxBlockMillis = maxBlockMillis;
+            return asBuilder();
+        }
+
+        public B setConnectTimeoutMillis(final int connectTimeoutMillis) {
+            this.connectTimeoutMillis = connectTimeoutMillis;
+            return asBuilder();
+        }
+
+        public B setReconnectDelayMillis(final int reconnectDelayMillis) {
+            this.reconnectDelayMillis = reconnectDelayMillis;
+            return asBuilder();
+        }
+    }
+
+    protected BatchingSocketAppender(final String name, final Filter filter,
+                                     final Layout<? extends Serializable> layout,
+                                     final boolean ignoreExceptions, final Property[] properties,
+                                     final BatchingSocketManager manager) {
+        super(name, filter, layout, ignoreExceptions, properties);
+        this.manager = manager;
+        this.destinations = ThreadLocal.withInitial(() -> new RecordDestination(manager));
+    }
+
+    public BatchingSocketManager getManager() {
+        return manager;
+    }
+
+    @Override
+    public void append(final LogEvent event) {
+        final RecordDestination destination = destinations.get();
+        destination.level = event.getLevel();
+        getLayout().encode(event, destination);
+        destination.flushStaged();
+    }
+
+    @Override
+    public boolean stop(final long timeout, final TimeUnit timeUnit) {
+        setStopping();
+        boolean stopped = super.stop(timeout, timeUnit, false);
+        stopped &= manager.stop(timeout, timeUnit);
+        setStopped();
+        return stopped;
+    }
+
+    /**
+     * Passes the records written by a layout to the manager. Layouts such as
+     * {@link BunyanJsonLayout} write each record with a single call. Layouts
+     * that write into {@link #getByteBuffer()} instead are staged in a heap
+     * buffer that grows as needed, so that records are never split between
+     * batches.
+     */
+    static final class RecordDestination implements ByteBufferDestination {
+        private static final int INITIAL_STAGING_SIZE = 8 * 1024;
+
+        private final BatchingSocketManager manager;
+        private ByteBuffer staging;
+        Level level;
+
+        RecordDestination(final BatchingSocketManager manager) {
+            this.manager = manager;
+        }
+
+        @Override
+        public ByteBuffer getByteBuffer() {
+            if (staging == null) {
+                staging = ByteBuffer.allocate(INITIAL_STAGING_SIZE);
+            }
+            return staging;
+        }
+
+        @Override
+        public ByteBuffer drain(final ByteBuffer buf) {
+            final ByteBuffer grown = ByteBuffer.allocate(buf.capacity() * 2);
+            buf.flip();
+            grown.put(buf);
+            staging = grown;
+            return grown;
+        }
+
+        @Override
+        public void writeBytes(final ByteBuffer data) {
+            flushStaged();
+            manager.write(level, data);
+        }
+
+        @Override
+        public void writeBytes(final byte[] data, final int offset, final int length) {
+            flushStaged();
+            manager.write(level, data, offset, length);
+        }
+
+        void flushStaged() {
+            if (staging != null && staging.position() > 0) {
+                staging.flip();
+                manager.write(level, staging);
+                staging.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,472 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package log4j.layout.bunyan;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.appender.AbstractManager;
+import org.apache.logging.log4j.core.appender.ManagerFactory;
+import org.apache.logging.log4j.core.net.Protocol;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Manager that accumulates encoded log records in direct buffers and sends
+ * them to a socket in batches from a background thread.
+ *
+ * <p>A fixed number of batch buffers are allocated up front. Producers copy
+ * records into the current batch, which is handed to the flusher thread once
+ * it is full or once the oldest record in it has waited for the linger time.
+ * The flusher writes all pending batches with a single gathering write and
+ * returns them to the free list. Connecting and reconnecting are only done by
+ * the flusher thread, so producers never wait for the network directly; they
+ * only wait for a free batch when all batches are in use. While the last
+ * connection attempt has failed, the batches can't be freed, so producers
+ * drop events instead of waiting.</p>
+ */
+public class BatchingSocketManager extends AbstractManager {
+    /**
+     * Maximum payload of a UDP datagram over IPv4.
+     */
+    public static final int MAX_DATAGRAM_SIZE = 65_507;
+
+    private static final ManagerFactory<BatchingSocketManager, FactoryData> FACTORY =
+            new BatchingSocketManagerFactory();
+
+    private final FactoryData settings;
+    private final InetSocketAddress address;
+    private final long lingerNanos;
+    private final long maxBlockNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    /**
+     * Signalled when a batch has been returned to the free list.
+     */
+    private final Condition spaceAvailable = lock.newCondition();
+    /**
+     * Signalled when a batch is ready to be sent or the manager is stopped.
+     */
+    private final Condition batchReady = lock.newCondition();
+    private final ArrayDeque<ByteBuffer> free;
+    private final ArrayDeque<ByteBuffer> filled;
+    private ByteBuffer current;
+    private long currentStartNanos;
+    private boolean running = true;
+    /**
+     * True from a failed connection attempt until the next successful one.
+     */
+    private boolean disconnected;
+
+    private final AtomicLong droppedEvents = new AtomicLong();
+    private final AtomicLong lostBatches = new AtomicLong();
+    private final Thread flusher;
+    /**
+     * Only accessed by the flusher thread.
+     */
+    private ByteChannel channel;
+
+    /**
+     * Settings used to create a manager.
+     */
+    static final class FactoryData {
+        final String host;
+        final int port;
+        final Protocol protocol;
+        final int batchSize;
+        final int batchCount;
+        final int lingerMillis;
+        final Level dropLevel;
+        final int maxBlockMillis;
+        final int connectTimeoutMillis;
+        final int reconnectDelayMillis;
+
+        FactoryData(final String host, final int port, final Protocol protocol, final int batchSize,
+                    final int batchCount, final int lingerMillis, final Level dropLevel,
+                    final int maxBlockMillis, final int connectTimeoutMillis, final int reconnectDelayMillis) {
+            this.host = host;
+            this.port = port;
+            this.protocol = protocol;
+            this.batchSize = batchSize;
+            this.batchCount = batchCount;
+            this.lingerMillis = lingerMillis;
+            this.dropLevel = dropLevel;
+            this.maxBlockMillis = maxBlockMillis;
+            this.connectTimeoutMillis = connectTimeoutMillis;
+            this.reconnectDelayMillis = reconnectDelayMillis;
+        }
+    }
+
+    private static final class BatchingSocketManagerFactory
+            implements ManagerFactory<BatchingSocketManager, FactoryData> {
+        @Override
+        public BatchingSocketManager createManager(final String name, final FactoryData data) {
+            return new BatchingSocketManager(name, data);
+        }
+    }
+
+    static BatchingSocketManager getManager(final FactoryData data) {
+        final String name = String.format("%s:%s:%d", data.protocol, data.host, data.port);
+        return getManager(name, FACTORY, data);
+    }
+
+    protected BatchingSocketManager(final String name, final FactoryData settings) {
+        super(null, name);
+        this.settings = settings;
+        this.address = new InetSocketAddress(settings.host, settings.port);
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(settings.lingerMillis);
+        this.maxBlockNanos = TimeUnit.MILLISECONDS.toNanos(settings.maxBlockMillis);
+        this.free = new ArrayDeque<>(settings.batchCount);
+        this.filled = new ArrayDeque<>(settings.batchCount);
+
+        for (int i = 0; i < settings.batchCount; i++) {
+            free.add(ByteBuffer.allocateDirect(settings.batchSize));
+        }
+        this.current = free.poll();
+
+        this.flusher = new Thread(this::flushLoop, "BatchingSocketManager-" + name);
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * @return number of events dropped because no batch had room for them
+     */
+    public long getDroppedEventCount() {
+        return droppedEvents.get();
+    }
+
+    /**
+     * @return number of batches that could not be sent because the connection failed
+     */
+    public long getLostBatchCount() {
+        return lostBatches.get();
+    }
+
+    /**
+     * Copies an encoded record into the current batch.
+     *
+     * @param level level of the event that the record was encoded from
+     * @param bytes buffer containing the record
+     * @param offset offset of the record in the buffer
+     * @param length length of the record in bytes
+     */
+    public void write(final Level level, final byte[] bytes, final int offset, final int length) {
+        lock.lock();
+        try {
+            if (reserve(level, length)) {
+                current.put(bytes, offset, length);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Copies the remaining bytes of an encoded record into the current batch.
+     *
+     * @param level level of the event that the record was encoded from
+     * @param record buffer containing the record between its position and limit
+     */
+    public void write(final Level level, final ByteBuffer record) {
+        lock.lock();
+        try {
+            if (reserve(level, record.remaining())) {
+                current.put(record);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Makes sure that the current batch has room for a record, handing full
+     * batches to the flusher. When all batches are in use, events at or below
+     * the drop level, and all events while the peer is unreachable, are dropped
+     * immediately. Other events wait up to the maximum block time for a batch
+     * to be freed. Must be called with the lock held.
+     *
+     * @return true if there is room for the record, false if it has been dropped
+     */
+    private boolean reserve(final Level level, final int length) {
+        if (!running) {
+            droppedEvents.incrementAndGet();
+            return false;
+        }
+        if (length > settings.batchSize) {
+            droppedEvents.incrementAndGet();
+            LOGGER.error("Record is larger than the batch size and has been dropped "
+                    + "[recordSize={},batchSize={}]", length, settings.batchSize);
+            return false;
+        }
+
+        long remainingNanos = isDroppable(level) ? 0L : maxBlockNanos;
+
+        while (current.remaining() < length) {
+            final ByteBuffer next = free.poll();
+            if (next != null) {
+                handOff(next);
+                break;
+            }
+            if (remainingNanos <= 0L || !running || disconnected) {
+                droppedEvents.incrementAndGet();
+                return false;
+            }
+            try {
+                remainingNanos = spaceAvailable.awaitNanos(remainingNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                droppedEvents.incrementAndGet();
+                return false;
+            }
+        }
+
+        if (current.position() == 0) {
+            currentStartNanos = System.nanoTime();
+            batchReady.signal();
+        }
+
+        return true;
+    }
+
+    private boolean isDroppable(final Level level) {
+        return settings.dropLevel != null && level != null && level.isLessSpecificThan(settings.dropLevel);
+    }
+
+    /**
+     * Queues the current batch for sending and replaces it. Must be called
+     * with the lock held.
+     */
+    private void handOff(final ByteBuffer next) {
+        current.flip();
+        filled.add(current);
+        current = next;
+        batchReady.signal();
+    }
+
+    private void flushLoop() {
+        final ByteBuffer[] pending = new ByteBuffer[settings.batchCount];
+
+        while (true) {
+            final int count;
+            lock.lock();
+            try {
+                count = awaitBatches(pending);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } finally {
+                lock.unlock();
+            }
+
+            if (count == 0) {
+                break;
+            }
+
+            send(pending, count);
+
+            lock.lock();
+            try {
+                for (int i = 0; i < count; i++) {
+                    pending[i].clear();
+                    free.add(pending[i]);
+                    pending[i] = null;
+                }
+                spaceAvailable.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        closeChannel();
+    }
+
+    /**
+     * Waits until batches are ready to be sent, handing off the current batch
+     * once its linger time has passed. Must be called with the lock held.
+     *
+     * @return number of batches moved to the pending array, zero when stopped
+     *         and no batches remain
+     */
+    private int awaitBatches(final ByteBuffer[] pending) throws InterruptedException {
+        while (true) {
+            if (current.position() > 0 && !free.isEmpty()
+                    && (!running || System.nanoTime() - currentStartNanos >= lingerNanos)) {
+                handOff(free.poll());
+            }
+
+            if (!filled.isEmpty()) {
+                int count = 0;
+                while (!filled.isEmpty()) {
+                    pending[count++] = filled.poll();
+                }
+                return count;
+            }
+
+            if (!running) {
+                return 0;
+            }
+
+            if (current.position() > 0) {
+                final long waitNanos = lingerNanos - (System.nanoTime() - currentStartNanos);
+                if (waitNanos > 0L) {
+                    batchReady.awaitNanos(waitNanos);
+                }
+            } else {
+                batchReady.await();
+            }
+        }
+    }
+
+    /**
+     * Sends batches to the socket, connecting first if needed. TCP batches are
+     * written with a single gathering write and UDP batches are each sent as
+     * one datagram. Batches are dropped when the write fails, so that records
+     * that were partially delivered are not sent twice.
+     */
+    private void send(final ByteBuffer[] batches, final int count) {
+        while (channel == null) {
+            channel = connect();
+            setDisconnected(channel == null);
+            if (channel != null) {
+                break;
+            }
+            if (!isRunning()) {
+                lostBatches.addAndGet(count);
+                return;
+            }
+            try {
+                Thread.sleep(settings.reconnectDelayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                lostBatches.addAndGet(count);
+                return;
+            }
+        }
+
+        try {
+            if (channel instanceof SocketChannel) {
+                final SocketChannel socketChannel = (SocketChannel) channel;
+                while (batches[count - 1].hasRemaining()) {
+                    socketChannel.write(batches, 0, count);
+                }
+            } else {
+                for (int i = 0; i < count; i++) {
+                    channel.write(batches[i]);
+                }
+            }
+        } catch (IOException e) {
+            lostBatches.addAndGet(count);
+            LOGGER.error("Unable to send log records to {}, reconnecting", address, e);
+            closeChannel();
+        }
+    }
+
+    private ByteChannel connect() {
+        try {
+            if (settings.protocol == Protocol.UDP) {
+                final DatagramChannel datagramChannel = DatagramChannel.open();
+                datagramChannel.connect(address);
+                return datagramChannel;
+            }
+
+            final SocketChannel socketChannel = SocketChannel.open();
+            try {
+                socketChannel.socket().setTcpNoDelay(true);
+                socketChannel.socket().connect(address, settings.connectTimeoutMillis);
+            } catch (IOException e) {
+                socketChannel.close();
+                throw e;
+            }
+            return socketChannel;
+        } catch (IOException e) {
+            LOGGER.warn("Unable to connect to {} [protocol={}]: {}", address, settings.protocol, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Records whether the last connection attempt failed and wakes producers
+     * waiting for a batch so that they drop their events instead.
+     */
+    private void setDisconnected(final boolean disconnected) {
+        lock.lock();
+        try {
+            this.disconnected = disconnected;
+            if (disconnected) {
+                spaceAvailable.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void closeChannel() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOGGER.warn("Unable to close connection to {}", address, e);
+        }
+        channel = null;
+    }
+
+    private boolean isRunning() {
+        lock.lock();
+        try {
+            return running;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    protected boolean releaseSub(final long timeout, final TimeUnit timeUnit) {
+        lock.lock();
+        try {
+            running = false;
+            batchReady.signalAll();
+            spaceAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            if (timeout > 0) {
+                timeUnit.timedJoin(flusher, timeout);
+            } else {
+                flusher.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (flusher.isAlive()) {
+            flusher.interrupt();
+            return false;
+        }
+
+        return true;
+    }
+}
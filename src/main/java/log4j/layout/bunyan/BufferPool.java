@@ -0,0 +1,73 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package log4j.layout.bunyan;
+
+import java.util.Locale;
+
+/**
+ * Source of the {@link EncodeBuffers} used by {@link BunyanJsonLayout}. Buffers
+ * are acquired before an event is encoded and released once the encoded bytes
+ * have been copied to their destination.
+ */
+public interface BufferPool {
+    /**
+     * Name of the mode that keeps one set of buffers per thread.
+     */
+    String THREAD_LOCAL = "threadLocal";
+    /**
+     * Name of the mode that shares a bounded pool of buffers between threads.
+     */
+    String POOLED = "pooled";
+
+    /**
+     * @return buffers that are exclusively owned by the caller until released
+     */
+    EncodeBuffers acquire();
+
+    /**
+     * Returns buffers to the pool. The writer must have been reset and the
+     * scratch builder emptied before calling this method.
+     *
+     * @param buffers buffers previously returned by {@link #acquire()}
+     */
+    void release(EncodeBuffers buffers);
+
+    /**
+     * @return number of times buffers were shrunk because they exceeded the
+     *         maximum retained size
+     */
+    long getShrinkCount();
+
+    /**
+     * Creates a buffer pool for the given mode.
+     *
+     * @param mode {@value #THREAD_LOCAL} or {@value #POOLED}, null selects {@value #THREAD_LOCAL}
+     * @param poolSize maximum number of buffers retained by the {@value #POOLED} mode
+     * @param maxRetainedBufferSize size above which buffers are shrunk after use,
+     *                              zero or less to never shrink buffers
+     * @return new buffer pool
+     */
+    static BufferPool create(final String mode, final int poolSize, final int maxRetainedBufferSize) {
+        final BufferShrinkPolicy shrinkPolicy = new BufferShrinkPolicy(maxRetainedBufferSize);
+        if (mode == null || mode.equalsIgnoreCase(THREAD_LOCAL)) {
+            return new ThreadLocalBufferPool(shrinkPolicy);
+        }
+        if (mode.toLowerCase(Locale.ROOT).equals(POOLED)) {
+            return new StripedBufferPool(poolSize, shrinkPolicy);
+        }
+
+        String msg = String.format("Unknown writer pool mode specified: %s", mode);
+        throw new IllegalArgumentException(msg);
+    }
+}
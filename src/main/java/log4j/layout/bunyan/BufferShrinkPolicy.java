@@ -0,0 +1,93 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package log4j.layout.bunyan;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Policy that bounds the memory retained by reused {@link EncodeBuffers}.
+ * Buffers that grew past the configured high-water mark while encoding an
+ * unusually large event are reset to a baseline capacity once the event has
+ * been written, so that a single large event doesn't inflate the steady-state
+ * heap for the lifetime of the buffers.
+ */
+public class BufferShrinkPolicy {
+    /**
+     * Smallest maximum retained size in bytes. Writers are reset to the
+     * default capacity of a new writer, which is below this size.
+     */
+    public static final int BASELINE_WRITER_SIZE = 1024;
+    /**
+     * Capacity in characters that scratch builders are reset to.
+     */
+    public static final int BASELINE_SCRATCH_SIZE = 256;
+
+    private final int maxRetainedSize;
+    private final AtomicLong shrinkCount = new AtomicLong();
+
+    /**
+     * @param maxRetainedSize maximum size in bytes (or characters for scratch
+     *                        builders) that a buffer may retain between events,
+     *                        zero or less to never shrink buffers
+     */
+    public BufferShrinkPolicy(final int maxRetainedSize) {
+        if (maxRetainedSize > 0 && maxRetainedSize < BASELINE_WRITER_SIZE) {
+            String msg = String.format("Maximum retained buffer size must be at least %d bytes",
+                    BASELINE_WRITER_SIZE);
+            throw new IllegalArgumentException(msg);
+        }
+        this.maxRetainedSize = maxRetainedSize;
+    }
+
+    /**
+     * Shrinks the given buffers if they exceed the high-water mark. The buffers
+     * must have been reset before calling this method.
+     *
+     * @param buffers buffers that are about to be returned to their pool
+     * @return the buffers to retain, which are either the given buffers or
+     *         replacements with baseline capacity
+     */
+    public EncodeBuffers shrink(final EncodeBuffers buffers) {
+        if (maxRetainedSize <= 0) {
+            return buffers;
+        }
+
+        final boolean writerTooLarge = buffers.writer.getByteBuffer().length > maxRetainedSize;
+        final boolean scratchTooLarge = buffers.scratch.capacity() > maxRetainedSize;
+        if (!writerTooLarge && !scratchTooLarge) {
+            return buffers;
+        }
+
+        shrinkCount.incrementAndGet();
+
+        if (scratchTooLarge) {
+            // Trimming an empty builder releases its array, so capacity is restored afterwards
+            buffers.scratch.trimToSize();
+            buffers.scratch.ensureCapacity(BASELINE_SCRATCH_SIZE);
+        }
+        if (writerTooLarge) {
+            // Writers can't release their buffer, so they are replaced instead
+            return new EncodeBuffers(EncodeBuffers.newWriter(), buffers.scratch);
+        }
+
+        return buffers;
+    }
+
+    /**
+     * @return number of times buffers have been shrunk
+     */
+    public long getShrinkCount() {
+        return shrinkCount.get();
+    }
+}
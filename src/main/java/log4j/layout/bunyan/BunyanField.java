@@ -0,0 +1,135 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package log4j.layout.bunyan;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Enum class of the top-level fields that can be selected, ordered and
+ * renamed with the <code>fields</code> attribute of the layout.
+ */
+public enum BunyanField {
+    V("v", true),
+    LEVEL("level", true),
+    NAME("name", true),
+    COMPONENT("component", true),
+    HOSTNAME("hostname", true),
+    PID("pid", true),
+    TIME("time", true),
+    MSG("msg", true),
+    ERR("err", true),
+    MARKER("marker", true),
+    SRC("src", true),
+    CONTEXT_STACK("context_stack", true),
+    /**
+     * Fields configured with <code>KeyValuePair</code> elements.
+     */
+    ADDITIONAL("additional", false),
+    /**
+     * All context properties when the <code>properties</code> attribute is enabled.
+     */
+    PROPERTIES("properties", false),
+    THREAD("thread", true),
+    /**
+     * Sequence number of the event, not selected by default.
+     */
+    SEQ("seq", true),
+    /**
+     * Sequence number of the event within its logging thread, not selected by default.
+     */
+    THREAD_SEQ("thread_seq", true);
+
+    /**
+     * Default field selection which outputs all fields in the standard order.
+     */
+    public static final String DEFAULT_FIELDS = "v,level,name,component,hostname,pid,time,msg,err,"
+            + "marker,src,context_stack,additional,properties,thread";
+
+    private static final char RENAME_SEPARATOR = ':';
+
+    public final String fieldName;
+    public final boolean renameable;
+
+    BunyanField(final String fieldName, final boolean renameable) {
+        this.fieldName = fieldName;
+        this.renameable = renameable;
+    }
+
+    /**
+     * Finds the field with the given name.
+     * @param fieldName name of field as used in field selections
+     * @return matching field
+     * @throws IllegalArgumentException when there is no matching field
+     */
+    public static BunyanField fromFieldName(final String fieldName) {
+        for (BunyanField field : values()) {
+            if (field.fieldName.equals(fieldName)) {
+                return field;
+            }
+        }
+
+        String msg = String.format("Unknown field specified: %s", fieldName);
+        throw new IllegalArgumentException(msg);
+    }
+
+    /**
+     * Parses a comma delimited field selection such as
+     * <code>v,level,name,component:logger,time,msg</code> where each
+     * entry may optionally be renamed using a colon followed by the key to
+     * output the field as.
+     *
+     * @param fields comma delimited field selection or null for the default selection
+     * @return ordered list of fields paired with the keys to output them as
+     */
+    public static List<Map.Entry<BunyanField, String>> parse(final String fields) {
+        final String selection = fields == null || fields.trim().isEmpty() ? DEFAULT_FIELDS : fields;
+        final List<Map.Entry<BunyanField, String>> parsed = new LinkedList<>();
+        final Set<BunyanField> seen = EnumSet.noneOf(BunyanField.class);
+
+        for (String entry : selection.split(",")) {
+            final String trimmed = entry.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+
+            final int separator = trimmed.indexOf(RENAME_SEPARATOR);
+            final String fieldName = separator < 0 ? trimmed : trimmed.substring(0, separator).trim();
+            final BunyanField field = fromFieldName(fieldName);
+            final String key = separator < 0 ? field.fieldName : trimmed.substring(separator + 1).trim();
+
+            if (!seen.add(field)) {
+                String msg = String.format("Duplicate field (%s) specified in fields", fieldName);
+                throw new IllegalArgumentException(msg);
+            }
+            if (key.isEmpty()) {
+                String msg = String.format("Empty name specified for field (%s)", fieldName);
+                throw new IllegalArgumentException(msg);
+            }
+            if (!field.renameable && !key.equals(field.fieldName)) {
+                String msg = String.format("Field (%s) can't be renamed", fieldName);
+                throw new IllegalArgumentException(msg);
+            }
+
+            parsed.add(new AbstractMap.SimpleImmutableEntry<>(field, key));
+        }
+
+        return Collections.unmodifiableList(parsed);
+    }
+}
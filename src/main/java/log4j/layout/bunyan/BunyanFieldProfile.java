@@ -0,0 +1,113 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package log4j.layout.bunyan;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.config.Node;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderAttribute;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderFactory;
+import org.apache.logging.log4j.core.config.plugins.PluginElement;
+
+/**
+ * Selection of fields, and optionally the stack trace format, that is used
+ * for events at a level or more severe, so that costly fields can be limited
+ * to the levels where they are useful.
+ */
+@Plugin(name = "FieldProfile", category = Node.CATEGORY, printObject = true)
+public class BunyanFieldProfile {
+    private final Level level;
+    private final String fields;
+    private final BunyanThrowableFormat throwableFormat;
+
+    @PluginBuilderFactory
+    public static BunyanFieldProfile.Builder newBuilder() {
+        return new BunyanFieldProfile.Builder();
+    }
+
+    public static class Builder implements org.apache.logging.log4j.core.util.Builder<BunyanFieldProfile> {
+        @PluginBuilderAttribute
+        private Level level;
+        @PluginBuilderAttribute
+        private String fields;
+        @PluginElement("ThrowableFormat")
+        private BunyanThrowableFormat throwableFormat;
+
+        @Override
+        public BunyanFieldProfile build() {
+            if (level == null) {
+                throw new IllegalArgumentException("level attribute must be set when using FieldProfile");
+            }
+            if (fields == null || fields.trim().isEmpty()) {
+                String msg = String.format("fields attribute must be set for FieldProfile [level=%s]", level);
+                throw new IllegalArgumentException(msg);
+            }
+            if (throwableFormat != null && throwableFormat.getBackReferenceWindow() != null) {
+                String msg = String.format("Back-references can only be configured on the ThrowableFormat "
+                        + "of the layout [level=%s]", level);
+                throw new IllegalArgumentException(msg);
+            }
+
+            return new BunyanFieldProfile(level, fields, throwableFormat);
+        }
+
+        /**
+         * @param level the profile is used for events at this level or more severe
+         * @return this builder
+         */
+        public Builder setLevel(final Level level) {
+            this.level = level;
+            return this;
+        }
+
+        /**
+         * @param fields comma delimited list of fields in the same format as the
+         *               <code>fields</code> attribute of the layout
+         * @return this builder
+         */
+        public Builder setFields(final String fields) {
+            this.fields = fields;
+            return this;
+        }
+
+        /**
+         * @param throwableFormat format of stack traces for the profile, null to
+         *                        use the format of the layout
+         * @return this builder
+         */
+        public Builder setThrowableFormat(final BunyanThrowableFormat throwableFormat) {
+            this.throwableFormat = throwableFormat;
+            return this;
+        }
+    }
+
+    protected BunyanFieldProfile(final Level level, final String fields,
+                                 final BunyanThrowableFormat throwableFormat) {
+        this.level = level;
+        this.fields = fields;
+        this.throwableFormat = throwableFormat;
+    }
+
+    public Level getLevel() {
+        return level;
+    }
+
+    public String getFields() {
+        return fields;
+    }
+
+    public BunyanThrowableFormat getThrowableFormat() {
+        return throwableFormat;
+    }
+}
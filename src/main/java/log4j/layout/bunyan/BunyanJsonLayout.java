@@ -13,7 +13,6 @@
  */
 package log4j.layout.bunyan;
 
-import com.dslplatform.json.DslJson;
 import com.dslplatform.json.JsonWriter;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.core.Layout;
@@ -21,20 +20,22 @@ import org.apache.logging.log4j.core.LogEvent;
 import org.apache.logging.log4j.core.config.Configuration;
 import org.apache.logging.log4j.core.config.Node;
 import org.apache.logging.log4j.core.config.plugins.Plugin;
-import org.apache.logging.log4j.core.config.plugins.PluginAttribute;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderAttribute;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderFactory;
 import org.apache.logging.log4j.core.config.plugins.PluginConfiguration;
 import org.apache.logging.log4j.core.config.plugins.PluginElement;
-import org.apache.logging.log4j.core.config.plugins.PluginFactory;
+import org.apache.logging.log4j.core.impl.LocationAware;
 import org.apache.logging.log4j.core.layout.ByteBufferDestination;
 import org.apache.logging.log4j.core.lookup.StrSubstitutor;
 import org.apache.logging.log4j.core.pattern.ThrowablePatternConverter;
 import org.apache.logging.log4j.core.util.KeyValuePair;
 import org.apache.logging.log4j.status.StatusLogger;
 
-import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This class implements the Bunyan format JSON logging layout as a
@@ -43,7 +44,7 @@ import java.util.Map;
  * @see <a href="https://github.com/trentm/node-bunyan">https://github.com/trentm/node-bunyan</a>
  */
 @Plugin(name = "BunyanJsonLayout", category = Node.CATEGORY, elementType = Layout.ELEMENT_TYPE, printObject = true)
-public class BunyanJsonLayout implements Layout<String> {
+public class BunyanJsonLayout implements Layout<String>, LocationAware {
     /**
      * Maximum size of log message (32,768 characters).
      */
@@ -57,56 +58,361 @@ public class BunyanJsonLayout implements Layout<String> {
      */
     private static final String CONTENT_TYPE = "application/json; charset=utf8";
     /**
-     * Thread local that supplies instances of {@link ByteBufferDestinationOutputStream}
-     * so that we can have a unique instance of the class for each thread.
+     * Default maximum number of buffers retained when writers are pooled.
      */
-    private static final ThreadLocal<ByteBufferDestinationOutputStream> outputStreamThreadLocal =
-            ThreadLocal.withInitial(ByteBufferDestinationOutputStream.SUPPLIER);
+    public static final int DEFAULT_WRITER_POOL_SIZE = 4 * Runtime.getRuntime().availableProcessors();
     /**
-     * JSON serialization library.
+     * Placeholder written in front of a record to reserve space for its frame prefix.
      */
-    protected static final DslJson<LogEvent> DSL_JSON = new DslJson<>();
+    private static final byte[] FRAME_PLACEHOLDER = new byte[Framing.OCTET_COUNTING.reservedBytes];
+
+    /**
+     * Serializer that writes log events in the Bunyan format.
+     */
+    protected final LogEventJsonWriter jsonWriter;
     /**
-     * JSON serialization writer as ThreadLocal to allow for one writer per thread.
+     * Source of the writers and scratch buffers used to encode log events.
      */
-    protected final ThreadLocal<JsonWriter> writerThreadLocal = ThreadLocal.withInitial(DSL_JSON::newWriter);
+    protected final BufferPool bufferPool;
+    /**
+     * Delimits encoded records from each other.
+     */
+    protected final Framing framing;
 
-    @PluginFactory
-    public static BunyanJsonLayout createLayout(
-            @PluginElement("AdditionalField") final KeyValuePair[] additionalFields,
-            @PluginElement("ThrowableFormat") final BunyanThrowableFormat throwableFormat,
-            @PluginAttribute("appName") final String appName,
-            @PluginAttribute("endOfLine") final String lineSeparator,
-            @PluginAttribute("properties") final boolean includeAllContextProperties,
-            @PluginAttribute(value = "maxMessageLength", defaultInt = DEFAULT_MAX_MESSAGE_LENGTH) final int maxMessageLength,
-            @PluginConfiguration Configuration configuration) {
-        if (appName == null || appName.isEmpty()) {
-            String msg = String.format("appName attribute must be set when using %s",
-                    BunyanJsonLayout.class.getSimpleName());
-            throw new IllegalArgumentException(msg);
+    @PluginBuilderFactory
+    public static BunyanJsonLayout.Builder newBuilder() {
+        return new BunyanJsonLayout.Builder();
+    }
+
+    public static class Builder implements org.apache.logging.log4j.core.util.Builder<BunyanJsonLayout> {
+        @PluginElement("AdditionalField")
+        private KeyValuePair[] additionalFields;
+        @PluginElement("ThrowableFormat")
+        private BunyanThrowableFormat throwableFormat;
+        @PluginElement("Redaction")
+        private BunyanRedaction redaction;
+        @PluginElement("Spill")
+        private BunyanSpill spill;
+        @PluginElement("FieldProfile")
+        private BunyanFieldProfile[] fieldProfiles;
+        @PluginElement("LevelMapping")
+        private BunyanLevelMapping[] levelMappings;
+        @PluginBuilderAttribute
+        private String appName;
+        @PluginBuilderAttribute("endOfLine")
+        private String lineSeparator;
+        @PluginBuilderAttribute("properties")
+        private boolean includeAllContextProperties;
+        @PluginBuilderAttribute
+        private int maxMessageLength = DEFAULT_MAX_MESSAGE_LENGTH;
+        @PluginBuilderAttribute
+        private String fields;
+        @PluginBuilderAttribute
+        private String writerPool;
+        @PluginBuilderAttribute
+        private int writerPoolSize = DEFAULT_WRITER_POOL_SIZE;
+        @PluginBuilderAttribute
+        private int maxRetainedBufferSize;
+        @PluginBuilderAttribute
+        private String framing;
+        @PluginBuilderAttribute
+        private int profileSampleRate;
+        @PluginBuilderAttribute
+        private int messageCacheSize = MessageCache.DEFAULT_SIZE;
+        @PluginBuilderAttribute
+        private String cachedLookups = LookupClassifier.DEFAULT_CACHED_LOOKUPS;
+        @PluginBuilderAttribute
+        private int lookupCacheSeconds = LookupClassifier.DEFAULT_CACHE_SECONDS;
+        @PluginBuilderAttribute
+        private boolean includeLocation;
+        @PluginBuilderAttribute
+        private int sequenceBlockSize = EventSequencer.DEFAULT_BLOCK_SIZE;
+        @PluginConfiguration
+        private Configuration configuration;
+
+        @Override
+        public BunyanJsonLayout build() {
+            if (appName == null || appName.isEmpty()) {
+                String msg = String.format("appName attribute must be set when using %s",
+                        BunyanJsonLayout.class.getSimpleName());
+                throw new IllegalArgumentException(msg);
+            }
+
+            final Framing recordFraming = Framing.fromFramingName(framing);
+
+            /* Records that are prefixed with their length don't need to be
+             * delimited by a line separator unless one is explicitly set. */
+            final String eol;
+            if (lineSeparator == null) {
+                eol = recordFraming == Framing.EOL ? "\n" : "";
+            } else {
+                eol = StringEscapeUtils.unescape(lineSeparator);
+            }
+
+            final ThrowablePatternConverter throwablePatternConverter =
+                    ThrowablePatternConverterFactory.instance(throwableFormat, eol, configuration);
+
+            final StackTraceFingerprints stackTraceFingerprints = throwableFormat == null
+                    ? null : throwableFormat.newStackTraceFingerprints();
+
+            final BunyanFieldProfile[] profiles = fieldProfiles == null
+                    ? new BunyanFieldProfile[0] : fieldProfiles;
+            final LogEventJsonWriter.FieldProfile[] compiledProfiles =
+                    new LogEventJsonWriter.FieldProfile[profiles.length];
+            for (int i = 0; i < profiles.length; i++) {
+                final BunyanThrowableFormat profileFormat = profiles[i].getThrowableFormat();
+                final ThrowablePatternConverter profileConverter = profileFormat == null
+                        ? null : ThrowablePatternConverterFactory.instance(profileFormat, eol, configuration);
+                compiledProfiles[i] = new LogEventJsonWriter.FieldProfile(profiles[i].getLevel(),
+                        profiles[i].getFields(), profileConverter);
+            }
+
+            if (lookupCacheSeconds <= 0) {
+                String msg = String.format("lookupCacheSeconds must be greater than zero [lookupCacheSeconds=%d]",
+                        lookupCacheSeconds);
+                throw new IllegalArgumentException(msg);
+            }
+            final LookupClassifier lookupClassifier = new LookupClassifier(cachedLookups,
+                    TimeUnit.SECONDS.toMillis(lookupCacheSeconds));
+
+            final StrSubstitutor strSubstitutor = configuration.getStrSubstitutor();
+            final LogEventJsonWriter jsonWriter = new LogEventJsonWriter(
+                    appName, throwablePatternConverter, stackTraceFingerprints,
+                    additionalFields == null ? new KeyValuePair[0] : additionalFields,
+                    strSubstitutor, includeAllContextProperties,
+                    eol.getBytes(StandardCharsets.UTF_8), maxMessageLength, fields,
+                    redaction == null ? null : redaction.newRedactor(),
+                    levelMappings == null ? new BunyanLevelMapping[0] : levelMappings,
+                    profileSampleRate,
+                    spill == null ? null : spill.newSpiller(),
+                    compiledProfiles, messageCacheSize, lookupClassifier, includeLocation,
+                    sequenceBlockSize);
+
+            final BufferPool bufferPool = BufferPool.create(
+                    writerPool, writerPoolSize, maxRetainedBufferSize);
+
+            return new BunyanJsonLayout(jsonWriter, bufferPool, recordFraming);
+        }
+
+        public Builder setAdditionalFields(final KeyValuePair[] additionalFields) {
+            this.additionalFields = additionalFields;
+            return this;
+        }
+
+        public Builder setThrowableFormat(final BunyanThrowableFormat throwableFormat) {
+            this.throwableFormat = throwableFormat;
+            return this;
+        }
+
+        public Builder setRedaction(final BunyanRedaction redaction) {
+            this.redaction = redaction;
+            return this;
+        }
+
+        public Builder setSpill(final BunyanSpill spill) {
+            this.spill = spill;
+            return this;
+        }
+
+        public Builder setFieldProfiles(final BunyanFieldProfile[] fieldProfiles) {
+            this.fieldProfiles = fieldProfiles;
+            return this;
+        }
+
+        public Builder setLevelMappings(final BunyanLevelMapping[] levelMappings) {
+            this.levelMappings = levelMappings;
+            return this;
+        }
+
+        public Builder setAppName(final String appName) {
+            this.appName = appName;
+            return this;
+        }
+
+        public Builder setLineSeparator(final String lineSeparator) {
+            this.lineSeparator = lineSeparator;
+            return this;
+        }
+
+        public Builder setIncludeAllContextProperties(final boolean includeAllContextProperties) {
+            this.includeAllContextProperties = includeAllContextProperties;
+            return this;
+        }
+
+        public Builder setMaxMessageLength(final int maxMessageLength) {
+            this.maxMessageLength = maxMessageLength;
+            return this;
+        }
+
+        /**
+         * @param fields comma delimited list of fields to output in order, each
+         *               optionally renamed as <code>field:key</code>
+         * @return this builder
+         */
+        public Builder setFields(final String fields) {
+            this.fields = fields;
+            return this;
+        }
+
+        /**
+         * @param writerPool {@value BufferPool#THREAD_LOCAL} to keep writers per thread or
+         *                   {@value BufferPool#POOLED} to share a bounded pool of writers
+         * @return this builder
+         */
+        public Builder setWriterPool(final String writerPool) {
+            this.writerPool = writerPool;
+            return this;
+        }
+
+        public Builder setWriterPoolSize(final int writerPoolSize) {
+            this.writerPoolSize = writerPoolSize;
+            return this;
         }
 
-        final String eol;
-        if (lineSeparator == null) {
-            eol = "\n";
-        } else {
-            eol = StringEscapeUtils.unescape(lineSeparator);
+        /**
+         * @param maxRetainedBufferSize size in bytes above which buffers are reset to
+         *                              their baseline capacity after an event, zero to
+         *                              never reset buffers
+         * @return this builder
+         */
+        public Builder setMaxRetainedBufferSize(final int maxRetainedBufferSize) {
+            this.maxRetainedBufferSize = maxRetainedBufferSize;
+            return this;
         }
 
-        final ThrowablePatternConverter throwablePatternConverter =
-                ThrowablePatternConverterFactory.instance(throwableFormat, eol, configuration);
+        /**
+         * @param framing <code>eol</code> to delimit records by the line separator,
+         *                <code>lengthPrefixed</code> to prefix records with their
+         *                length as a 4-byte big-endian integer or <code>octetCounting</code>
+         *                to prefix records with their length as specified by RFC 6587
+         * @return this builder
+         */
+        public Builder setFraming(final String framing) {
+            this.framing = framing;
+            return this;
+        }
+
+        /**
+         * @param profileSampleRate profile the encode cost of each field for one
+         *                          in this many events, zero to disable profiling
+         * @return this builder
+         */
+        public Builder setProfileSampleRate(final int profileSampleRate) {
+            this.profileSampleRate = profileSampleRate;
+            return this;
+        }
+
+        /**
+         * @param messageCacheSize number of pre-encoded constant messages to cache,
+         *                         zero to disable the cache
+         * @return this builder
+         */
+        public Builder setMessageCacheSize(final int messageCacheSize) {
+            this.messageCacheSize = messageCacheSize;
+            return this;
+        }
+
+        /**
+         * @param cachedLookups comma delimited list of lookup prefixes whose values
+         *                      are cached and refreshed once expired
+         * @return this builder
+         */
+        public Builder setCachedLookups(final String cachedLookups) {
+            this.cachedLookups = cachedLookups;
+            return this;
+        }
+
+        /**
+         * @param lookupCacheSeconds time in seconds after which cached lookups are refreshed
+         * @return this builder
+         */
+        public Builder setLookupCacheSeconds(final int lookupCacheSeconds) {
+            this.lookupCacheSeconds = lookupCacheSeconds;
+            return this;
+        }
+
+        /**
+         * @param includeLocation true to write the <code>src</code> field, which
+         *                        requires Log4j to capture the location of each event
+         * @return this builder
+         */
+        public Builder setIncludeLocation(final boolean includeLocation) {
+            this.includeLocation = includeLocation;
+            return this;
+        }
+
+        /**
+         * @param sequenceBlockSize number of <code>seq</code> numbers reserved by
+         *                          each thread at a time, 1 to number events
+         *                          strictly in the order they are written
+         * @return this builder
+         */
+        public Builder setSequenceBlockSize(final int sequenceBlockSize) {
+            this.sequenceBlockSize = sequenceBlockSize;
+            return this;
+        }
+
+        public Builder setConfiguration(final Configuration configuration) {
+            this.configuration = configuration;
+            return this;
+        }
+    }
+
+    public static BunyanJsonLayout createLayout(
+            final KeyValuePair[] additionalFields,
+            final BunyanThrowableFormat throwableFormat,
+            final String appName,
+            final String lineSeparator,
+            final boolean includeAllContextProperties,
+            final int maxMessageLength,
+            final Configuration configuration) {
+        return newBuilder()
+                .setAdditionalFields(additionalFields)
+                .setThrowableFormat(throwableFormat)
+                .setAppName(appName)
+                .setLineSeparator(lineSeparator)
+                .setIncludeAllContextProperties(includeAllContextProperties)
+                .setMaxMessageLength(maxMessageLength)
+                .setConfiguration(configuration)
+                .build();
+    }
+
+    protected BunyanJsonLayout(final LogEventJsonWriter jsonWriter, final BufferPool bufferPool) {
+        this(jsonWriter, bufferPool, Framing.EOL);
+    }
+
+    protected BunyanJsonLayout(final LogEventJsonWriter jsonWriter, final BufferPool bufferPool,
+                               final Framing framing) {
+        this.jsonWriter = jsonWriter;
+        this.bufferPool = bufferPool;
+        this.framing = framing;
+    }
 
-        final StrSubstitutor strSubstitutor = configuration.getStrSubstitutor();
-        final LogEventJsonWriter jsonWriter = new LogEventJsonWriter(
-                appName, throwablePatternConverter,
-                additionalFields, strSubstitutor, includeAllContextProperties,
-                eol.getBytes(StandardCharsets.UTF_8), maxMessageLength);
+    /**
+     * @return number of times buffers were reset to their baseline capacity
+     *         because they grew past the maximum retained buffer size
+     */
+    public long getBufferShrinkCount() {
+        return bufferPool.getShrinkCount();
+    }
 
-        return new BunyanJsonLayout(jsonWriter);
+    /**
+     * Tells appenders and loggers whether events need their source location,
+     * which is expensive to capture because it requires walking the stack.
+     *
+     * @return true if the <code>src</code> field is written
+     */
+    @Override
+    public boolean requiresLocation() {
+        return jsonWriter.requiresLocation();
     }
 
-    protected BunyanJsonLayout(final LogEventJsonWriter jsonWriter) {
-        DSL_JSON.registerWriter(LogEvent.class, jsonWriter);
+    /**
+     * @return profiler of the encode cost of each field or null if the
+     *         <code>profileSampleRate</code> attribute isn't set
+     */
+    public FieldProfiler getFieldProfiler() {
+        return jsonWriter.getProfiler();
     }
 
     @Override
@@ -132,51 +438,85 @@ public class BunyanJsonLayout implements Layout<String> {
         return result;
     }
 
+    /**
+     * Serializes an event as a string. The string contains the JSON record
+     * without the prefix of the configured framing because a binary length
+     * prefix can't be represented as text.
+     *
+     * @param event log event to serialize
+     * @return JSON record
+     */
     @Override
     public String toSerializable(LogEvent event) {
-        final JsonWriter writer = writerThreadLocal.get();
+        final EncodeBuffers buffers = bufferPool.acquire();
 
         try {
-            DSL_JSON.serialize(writer, event);
-            final String line = writer.toString();
-            writer.reset();
-            return line;
-        } catch (IOException e) {
-            LOGGER.error("Unable to serialize log event to bunyan format", e);
-            return "";
+            jsonWriter.write(buffers.writer, event, buffers.scratch);
+            return buffers.writer.toString();
+        } finally {
+            release(buffers);
         }
     }
 
     @Override
     public byte[] toByteArray(final LogEvent event) {
-        final JsonWriter writer = writerThreadLocal.get();
+        final EncodeBuffers buffers = bufferPool.acquire();
 
         try {
-            DSL_JSON.serialize(writer, event);
-            final byte[] bytes = writer.toByteArray();
-            writer.reset();
-            return bytes;
-        } catch (IOException e) {
-            LOGGER.error("Unable to serialize log event to bunyan format", e);
-            return new byte[0];
+            final JsonWriter writer = buffers.writer;
+            final int offset = writeFramed(writer, event, buffers.scratch);
+            return Arrays.copyOfRange(writer.getByteBuffer(), offset, writer.size());
+        } finally {
+            release(buffers);
         }
     }
 
     @Override
     public void encode(final LogEvent event, final ByteBufferDestination destination) {
-        /* We reuse an OutputStream here because that is the only memory efficient data
-         * structure that dsljson understands, and it is unfortunate. We reuse it by
-         * just setting a new ByteBufferDestination over the previous value for each
-         * invocation of this encode method. In order for this operation to be
-         * thread-safe, we utilize a ThreadLocal variable so that we can be sure to
-         * only have a single log4j.layout.bunyan.ByteBufferDestinationOutputStream per thread. */
-        ByteBufferDestinationOutputStream stream = outputStreamThreadLocal.get();
-        stream.setDestination(destination);
+        /* The event is serialized into a reusable writer and then copied to the
+         * destination in one call. Writers are only held for the duration of the
+         * encode, which allows them to be shared between threads when pooled. */
+        final EncodeBuffers buffers = bufferPool.acquire();
 
         try {
-            DSL_JSON.serialize(event, stream);
-        } catch (IOException e) {
-            LOGGER.error("Unable to serialize to bunyan format", e);
+            final JsonWriter writer = buffers.writer;
+            final int offset = writeFramed(writer, event, buffers.scratch);
+            if (offset < writer.size()) {
+                destination.writeBytes(writer.getByteBuffer(), offset, writer.size() - offset);
+            }
+        } finally {
+            release(buffers);
         }
     }
+
+    /**
+     * Serializes an event preceded by the prefix of the configured framing.
+     * Space for the prefix is reserved before serializing and filled in once
+     * the length of the record is known, so the record is never copied.
+     *
+     * @return offset in the writer's buffer at which the framed record starts
+     */
+    private int writeFramed(final JsonWriter writer, final LogEvent event, final StringBuilder scratch) {
+        final int reserved = framing.reservedBytes;
+        if (reserved == 0) {
+            jsonWriter.write(writer, event, scratch);
+            return 0;
+        }
+
+        writer.writeRaw(FRAME_PLACEHOLDER, 0, reserved);
+        jsonWriter.write(writer, event, scratch);
+
+        // Events that were rejected or filtered out are not framed
+        if (writer.size() == reserved) {
+            return reserved;
+        }
+
+        return framing.writePrefix(writer.getByteBuffer(), writer.size());
+    }
+
+    private void release(final EncodeBuffers buffers) {
+        buffers.writer.reset();
+        buffers.scratch.setLength(0);
+        bufferPool.release(buffers);
+    }
 }
@@ -0,0 +1,102 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package log4j.layout.bunyan;
+
+import org.apache.logging.log4j.core.config.Node;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderAttribute;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderFactory;
+
+import java.util.Locale;
+
+/**
+ * Maps a Log4j level, typically a custom level, onto a Bunyan level number
+ * and optionally a level name that is written as <code>level_name</code>.
+ */
+@Plugin(name = "LevelMapping", category = Node.CATEGORY, printObject = true)
+public class BunyanLevelMapping {
+    private final String level;
+    private final int bunyanLevel;
+    private final String name;
+
+    @PluginBuilderFactory
+    public static BunyanLevelMapping.Builder newBuilder() {
+        return new BunyanLevelMapping.Builder();
+    }
+
+    public static class Builder implements org.apache.logging.log4j.core.util.Builder<BunyanLevelMapping> {
+        @PluginBuilderAttribute
+        private String level;
+        @PluginBuilderAttribute
+        private Integer bunyanLevel;
+        @PluginBuilderAttribute
+        private String name;
+
+        @Override
+        public BunyanLevelMapping build() {
+            if (level == null || level.trim().isEmpty()) {
+                throw new IllegalArgumentException("level attribute must be set when using LevelMapping");
+            }
+            if (bunyanLevel == null || bunyanLevel < 0) {
+                String msg = String.format("bunyanLevel attribute must be set to a non-negative number "
+                        + "for level (%s)", level);
+                throw new IllegalArgumentException(msg);
+            }
+
+            final String trimmedName = name == null || name.trim().isEmpty() ? null : name.trim();
+            // Level names are always stored in upper case by Log4j
+            return new BunyanLevelMapping(level.trim().toUpperCase(Locale.ENGLISH), bunyanLevel, trimmedName);
+        }
+
+        public Builder setLevel(final String level) {
+            this.level = level;
+            return this;
+        }
+
+        public Builder setBunyanLevel(final Integer bunyanLevel) {
+            this.bunyanLevel = bunyanLevel;
+            return this;
+        }
+
+        public Builder setName(final String name) {
+            this.name = name;
+            return this;
+        }
+    }
+
+    protected BunyanLevelMapping(final String level, final int bunyanLevel, final String name) {
+        this.level = level;
+        this.bunyanLevel = bunyanLevel;
+        this.name = name;
+    }
+
+    /**
+     * @return name of the Log4j level in upper case
+     */
+    public String getLevel() {
+        return level;
+    }
+
+    public int getBunyanLevel() {
+        return bunyanLevel;
+    }
+
+    /**
+     * @return name written as <code>level_name</code> or null to use the Log4j
+     *         level name for custom levels and no name for standard levels
+     */
+    public String getName() {
+        return name;
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package log4j.layout.bunyan;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+
+/**
+ * Merges Bunyan log files from many hosts into a single stream ordered by the
+ * <code>time</code> field. Each file must already be in time order, as files
+ * written by the layout are. Files are read through buffered channels and
+ * gzip compressed files are decompressed as they are read, so the merge uses
+ * a fixed amount of memory per file no matter how large the files are.
+ *
+ * <p>Records aren't parsed. Only the bytes of the <code>time</code> field, and
+ * of the <code>level</code> and <code>component</code> fields when filtering
+ * by them, are found in each line, and lines are copied to the output as is.
+ * Lines with the same time are written in the order the files were given.
+ * Lines without a time, such as lines that aren't Bunyan records, are written
+ * after the line that precedes them in their file.</p>
+ *
+ * <p>Running this class merges files to standard output:
+ * <code>java log4j.layout.bunyan.BunyanLogMerger [--level warn] [--component name,...] a.log b.log.gz ...</code></p>
+ */
+public class BunyanLogMerger {
+    private static final byte[] TIME_KEY = RecordScanner.key("time");
+    private static final byte[] LEVEL_KEY = RecordScanner.key("level");
+    private static final byte[] COMPONENT_KEY = RecordScanner.key("component");
+
+    private final int minLevel;
+    private final byte[][] components;
+
+    /**
+     * Creates a merger that writes every line.
+     */
+    public BunyanLogMerger() {
+        this(0, null);
+    }
+
+    /**
+     * @param minLevel lines with a numeric Bunyan level below this are skipped,
+     *                 0 to write lines of any level
+     * @param components lines are only written if their component is one of
+     *                   these, null or empty to write lines of any component
+     */
+    public BunyanLogMerger(final int minLevel, final Collection<String> components) {
+        if (minLevel < 0) {
+            String msg = String.format("Minimum level must not be negative: %d", minLevel);
+            throw new IllegalArgumentException(msg);
+        }
+        this.minLevel = minLevel;
+        if (components == null || components.isEmpty()) {
+            this.components = null;
+        } else {
+            this.components = new byte[components.size()][];
+            int i = 0;
+            for (String component : components) {
+                this.components[i++] = component.getBytes(StandardCharsets.UTF_8);
+            }
+        }
+    }
+
+    /**
+     * Merges files into an output stream. The output stream is flushed but
+     * not closed.
+     *
+     * @param files files to merge, which may be gzip compressed
+     * @param out stream to write the merged lines to
+     * @return number of lines written
+     * @throws IOException if a file can't be read or the output can't be written
+     */
+    public long merge(final List<Path> files, final OutputStream out) throws IOException {
+        final List<Source> sources = new ArrayList<>(files.size());
+        final PriorityQueue<Source> heap = new PriorityQueue<>(Math.max(1, files.size()),
+                Comparator.comparingLong((Source source) -> source.time).thenComparingInt(source -> source.order));
+        long written = 0;
+
+        try {
+            for (Path file : files) {
+                final Source source = new Source(new LineReader(LineReader.open(file), 0), sources.size());
+                sources.add(source);
+                if (source.next()) {
+                    heap.add(source);
+                }
+            }
+
+            final OutputStream buffered = out instanceof BufferedOutputStream
+                    ? out : new BufferedOutputStream(out, LineReader.BUFFER_SIZE);
+            Source source;
+            while ((source = heap.poll()) != null) {
+                final LineReader reader = source.reader;
+                buffered.write(reader.buffer, reader.lineStart, reader.lineEnd - reader.lineStart);
+                buffered.write('\n');
+                written++;
+                // The line is only valid until the source is advanced
+                if (source.next()) {
+                    heap.add(source);
+                }
+            }
+            buffered.flush();
+        } finally {
+            IOException failure = null;
+            for (Source source : sources) {
+                try {
+                    source.close();
+                } catch (IOException e) {
+                    failure = failure == null ? e : failure;
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+        return written;
+    }
+
+    boolean accept(final byte[] line, final int start, final int end) {
+        if (minLevel > 0) {
+            final int value = RecordScanner.findValue(line, start, end, LEVEL_KEY);
+            if (value < 0 || RecordScanner.parseLevel(line, value, end) < minLevel) {
+                return false;
+            }
+        }
+        if (components != null) {
+            final int value = RecordScanner.findValue(line, start, end, COMPONENT_KEY);
+            if (value < 0 || line[value] != '"') {
+                return false;
+            }
+            for (byte[] component : components) {
+                final int close = value + 1 + component.length;
+                if (close < end && line[close] == '"'
+                        && RecordScanner.regionMatches(line, value + 1, component)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Converts a Bunyan level name such as <code>warn</code> or a numeric
+     * level to a numeric level.
+     *
+     * @throws IllegalArgumentException if the level isn't known
+     */
+    static int level(final String level) {
+        for (BunyanLevel known : BunyanLevel.values()) {
+            if (known.name().equalsIgnoreCase(level)) {
+                return known.bunyanLevel;
+            }
+        }
+        try {
+            return Integer.parseInt(level);
+        } catch (NumberFormatException e) {
+            String msg = String.format("Unknown level: %s", level);
+            throw new IllegalArgumentException(msg, e);
+        }
+    }
+
+    /**
+     * Lines of a single file that are accepted by the filters, along with
+     * the time of the current line.
+     */
+    final class Source implements Closeable {
+        final LineReader reader;
+        final int order;
+        long time = RecordScanner.NO_TIME;
+
+        Source(final LineReader reader, final int order) {
+            this.reader = reader;
+            this.order = order;
+        }
+
+        /**
+         * Advances to the next line that is accepted by the filters.
+         *
+         * @return false if there are no more lines
+         */
+        boolean next() throws IOException {
+            while (reader.next()) {
+                final byte[] line = reader.buffer;
+                final int start = reader.lineStart;
+                final int end = reader.lineEnd;
+                if (start == end || !accept(line, start, end)) {
+                    continue;
+                }
+
+                final int value = RecordScanner.findValue(line, start, end, TIME_KEY);
+                if (value >= 0) {
+                    final long parsed = RecordScanner.parseTime(line, value, end);
+                    // Lines without a time stay after the line that precedes them
+                    if (parsed != RecordScanner.NO_TIME) {
+                        time = parsed;
+                    }
+                }
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    public static void main(final String[] args) throws IOException {
+        int minLevel = 0;
+        List<String> components = null;
+        final List<Path> files = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("--level") && i + 1 < args.length) {
+                    minLevel = level(args[++i]);
+                } else if (args[i].equals("--component") && i + 1 < args.length) {
+                    components = Arrays.asList(args[++i].split(","));
+                } else {
+                    files.add(Paths.get(args[i]));
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            files.clear();
+        }
+        if (files.isEmpty()) {
+            System.err.println("Usage: BunyanLogMerger [--level <"
+                    + Arrays.toString(BunyanLevel.values()).toLowerCase(Locale.ROOT)
+                    + "|number>] [--component <name>[,<name> ...]] <file> [file ...]");
+            System.exit(1);
+        }
+
+        new BunyanLogMerger(minLevel, components).merge(files, System.out);
+    }
+}
@@ -0,0 +1,624 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package log4j.layout.bunyan;
+
+import com.dslplatform.json.JsonWriter;
+import com.dslplatform.json.NumberConverter;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Counts the records of Bunyan log files by level, component, error name and
+ * minute in parallel. Uncompressed files are split into chunks at line
+ * boundaries that are counted by the tasks of a fork/join pool, and gzip
+ * compressed files are each counted by a single task. Records aren't parsed,
+ * only the bytes of the fields being counted are found in each line.
+ *
+ * <p>Each task counts into its own counters that are keyed by primitive values
+ * or by the bytes of the field, so nothing is shared between tasks and
+ * nothing is allocated per record. The counters of tasks are merged as the
+ * tasks complete.</p>
+ *
+ * <p>Running this class writes the counts to standard output:
+ * <code>java log4j.layout.bunyan.BunyanLogStats [--by level,component,err,minute] [--format json|csv] a.log b.log.gz ...</code></p>
+ */
+public class BunyanLogStats {
+    /**
+     * Size in bytes of the chunks uncompressed files are split into.
+     */
+    public static final long DEFAULT_CHUNK_SIZE = 32L * 1024 * 1024;
+
+    private static final byte[] LEVEL_KEY = RecordScanner.key("level");
+    private static final byte[] COMPONENT_KEY = RecordScanner.key("component");
+    private static final byte[] ERR_KEY = RecordScanner.key("err");
+    private static final byte[] NAME_KEY = RecordScanner.key("name");
+    private static final byte[] TIME_KEY = RecordScanner.key("time");
+    private static final DateTimeFormatter MINUTE_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm'Z'").withZone(ZoneOffset.UTC);
+
+    /**
+     * Fields records can be counted by.
+     */
+    public enum Dimension {
+        /**
+         * Numeric Bunyan level.
+         */
+        LEVEL("level"),
+        /**
+         * Logger name.
+         */
+        COMPONENT("component"),
+        /**
+         * Class name of the error, records without an error aren't counted.
+         */
+        ERROR("err"),
+        /**
+         * Time truncated to the minute in UTC.
+         */
+        MINUTE("minute");
+
+        private final String key;
+
+        Dimension(final String key) {
+            this.key = key;
+        }
+
+        /**
+         * @return name of the dimension in the output and on the command line
+         */
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * @param key name of the dimension
+         * @return dimension with the name
+         * @throws IllegalArgumentException if there is no dimension with the name
+         */
+        public static Dimension forKey(final String key) {
+            for (Dimension dimension : values()) {
+                if (dimension.key.equalsIgnoreCase(key.trim())) {
+                    return dimension;
+                }
+            }
+            String msg = String.format("Unknown dimension [%s], expected one of %s", key,
+                    Arrays.toString(values()).toLowerCase(Locale.ROOT));
+            throw new IllegalArgumentException(msg);
+        }
+    }
+
+    private final Set<Dimension> dimensions;
+    private final long chunkSize;
+
+    /**
+     * @param dimensions fields to count records by, only these fields are
+     *                   found in each record
+     */
+    public BunyanLogStats(final Collection<Dimension> dimensions) {
+        this(dimensions, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param dimensions fields to count records by
+     * @param chunkSize size in bytes of the chunks uncompressed files are split into
+     */
+    public BunyanLogStats(final Collection<Dimension> dimensions, final long chunkSize) {
+        if (dimensions.isEmpty()) {
+            throw new IllegalArgumentException("At least one dimension must be counted");
+        }
+        if (chunkSize < 1) {
+            String msg = String.format("Chunk size must be positive: %d", chunkSize);
+            throw new IllegalArgumentException(msg);
+        }
+        this.dimensions = Collections.unmodifiableSet(EnumSet.copyOf(dimensions));
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Counts the records of files using the common fork/join pool.
+     *
+     * @param files files to count, which may be gzip compressed
+     * @return counts of the records
+     * @throws IOException if a file can't be read
+     */
+    public Histograms aggregate(final List<Path> files) throws IOException {
+        return aggregate(files, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param files files to count, which may be gzip compressed
+     * @param pool pool the files are counted in
+     * @return counts of the records
+     * @throws IOException if a file can't be read
+     */
+    public Histograms aggregate(final List<Path> files, final ForkJoinPool pool) throws IOException {
+        final List<ChunkTask> tasks = new ArrayList<>(files.size());
+        for (Path file : files) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                final boolean gzip = LineReader.isGzip(channel);
+                tasks.add(new ChunkTask(file, gzip, 0, gzip ? Long.MAX_VALUE : channel.size()));
+            }
+        }
+
+        for (ChunkTask task : tasks) {
+            pool.execute(task);
+        }
+        final Counters counters = new Counters();
+        try {
+            for (ChunkTask task : tasks) {
+                counters.add(task.join());
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return new Histograms(dimensions, counters);
+    }
+
+    /**
+     * Counts the lines that start in a range of a file, splitting the range
+     * in half until it is no larger than the chunk size.
+     */
+    final class ChunkTask extends RecursiveTask<Counters> {
+        private static final long serialVersionUID = 2385196043177312451L;
+
+        private final Path file;
+        private final boolean gzip;
+        private final long start;
+        private final long end;
+
+        ChunkTask(final Path file, final boolean gzip, final long start, final long end) {
+            this.file = file;
+            this.gzip = gzip;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected Counters compute() {
+            if (!gzip && end - start > chunkSize) {
+                final long middle = start + (end - start) / 2;
+                final ChunkTask first = new ChunkTask(file, false, start, middle);
+                first.fork();
+                final Counters counters = new ChunkTask(file, false, middle, end).compute();
+                counters.add(first.join());
+                return counters;
+            }
+
+            try {
+                return count();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private Counters count() throws IOException {
+            final Counters counters = new Counters();
+            if (gzip) {
+                try (LineReader reader = new LineReader(LineReader.open(file), 0)) {
+                    while (reader.next()) {
+                        counters.count(reader.buffer, reader.lineStart, reader.lineEnd);
+                    }
+                }
+                return counters;
+            }
+
+            /* Lines belong to the chunk they start in. Reading from the byte
+             * before the chunk and skipping the first line skips the line that
+             * started in the previous chunk, or the empty line before the
+             * separator if the previous chunk ended with one. */
+            final long from = Math.max(0, start - 1);
+            final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+            // The reader owns the channel before it is positioned, so it is closed if positioning fails
+            try (LineReader reader = new LineReader(channel, from)) {
+                channel.position(from);
+                if (start > 0) {
+                    reader.next();
+                }
+                while (reader.next() && reader.lineOffset() < end) {
+                    counters.count(reader.buffer, reader.lineStart, reader.lineEnd);
+                }
+            }
+            return counters;
+        }
+    }
+
+    /**
+     * Counts of a single task.
+     */
+    final class Counters {
+        long records;
+        final LongCounter levels = new LongCounter();
+        final BytesCounter components = new BytesCounter();
+        final BytesCounter errors = new BytesCounter();
+        final LongCounter minutes = new LongCounter();
+
+        void count(final byte[] line, final int start, final int end) {
+            if (start == end) {
+                return;
+            }
+            records++;
+
+            if (dimensions.contains(Dimension.LEVEL)) {
+                final int value = RecordScanner.findValue(line, start, end, LEVEL_KEY);
+                final int level = value < 0 ? -1 : RecordScanner.parseLevel(line, value, end);
+                if (level >= 0) {
+                    levels.add(level, 1);
+                }
+            }
+            if (dimensions.contains(Dimension.COMPONENT)) {
+                countString(components, line, RecordScanner.findValue(line, start, end, COMPONENT_KEY), end);
+            }
+            if (dimensions.contains(Dimension.ERROR)) {
+                final int err = RecordScanner.findValue(line, start, end, ERR_KEY);
+                if (err >= 0 && line[err] == '{') {
+                    countString(errors, line, RecordScanner.findValue(line, err, end, NAME_KEY), end);
+                }
+            }
+            if (dimensions.contains(Dimension.MINUTE)) {
+                final int value = RecordScanner.findValue(line, start, end, TIME_KEY);
+                final long time = value < 0 ? RecordScanner.NO_TIME : RecordScanner.parseTime(line, value, end);
+                if (time != RecordScanner.NO_TIME) {
+                    minutes.add(Math.floorDiv(time, 60_000L), 1);
+                }
+            }
+        }
+
+        private void countString(final BytesCounter counter, final byte[] line, final int value, final int end) {
+            if (value < 0 || line[value] != '"') {
+                return;
+            }
+            final int close = RecordScanner.stringEnd(line, value + 1, end);
+            if (close >= 0) {
+                counter.add(line, value + 1, close, 1);
+            }
+        }
+
+        void add(final Counters other) {
+            records += other.records;
+            levels.addAll(other.levels);
+            components.addAll(other.components);
+            errors.addAll(other.errors);
+            minutes.addAll(other.minutes);
+        }
+    }
+
+    /**
+     * Open addressing hash map of counts keyed by long values. Slots with a
+     * count of zero are empty.
+     */
+    static final class LongCounter {
+        long[] keys = new long[16];
+        long[] counts = new long[16];
+        private int size;
+
+        void add(final long key, final long count) {
+            int mask = keys.length - 1;
+            int i = hash(key) & mask;
+            while (counts[i] != 0) {
+                if (keys[i] == key) {
+                    counts[i] += count;
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            counts[i] = count;
+            if (++size * 2 > keys.length) {
+                resize();
+            }
+        }
+
+        void addAll(final LongCounter other) {
+            for (int i = 0; i < other.keys.length; i++) {
+                if (other.counts[i] != 0) {
+                    add(other.keys[i], other.counts[i]);
+                }
+            }
+        }
+
+        private void resize() {
+            final long[] oldKeys = keys;
+            final long[] oldCounts = counts;
+            keys = new long[oldKeys.length * 2];
+            counts = new long[oldKeys.length * 2];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldCounts[i] != 0) {
+                    add(oldKeys[i], oldCounts[i]);
+                }
+            }
+        }
+
+        private static int hash(final long key) {
+            final long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+
+    /**
+     * Open addressing hash map of counts keyed by byte sequences. Keys are
+     * only copied when they are first added.
+     */
+    static final class BytesCounter {
+        byte[][] keys = new byte[16][];
+        long[] counts = new long[16];
+        private int[] hashes = new int[16];
+        private int size;
+
+        void add(final byte[] bytes, final int start, final int end, final long count) {
+            int hash = 1;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + bytes[i];
+            }
+            final int mask = keys.length - 1;
+            int i = (hash ^ (hash >>> 16)) & mask;
+            while (keys[i] != null) {
+                if (hashes[i] == hash && equals(keys[i], bytes, start, end)) {
+                    counts[i] += count;
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            keys[i] = Arrays.copyOfRange(bytes, start, end);
+            hashes[i] = hash;
+            counts[i] = count;
+            if (++size * 2 > keys.length) {
+                resize();
+            }
+        }
+
+        void addAll(final BytesCounter other) {
+            for (int i = 0; i < other.keys.length; i++) {
+                if (other.keys[i] != null) {
+                    add(other.keys[i], 0, other.keys[i].length, other.counts[i]);
+                }
+            }
+        }
+
+        private void resize() {
+            final byte[][] oldKeys = keys;
+            final long[] oldCounts = counts;
+            keys = new byte[oldKeys.length * 2][];
+            counts = new long[oldKeys.length * 2];
+            hashes = new int[oldKeys.length * 2];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != null) {
+                    add(oldKeys[i], 0, oldKeys[i].length, oldCounts[i]);
+                }
+            }
+        }
+
+        private static boolean equals(final byte[] key, final byte[] bytes, final int start, final int end) {
+            if (key.length != end - start) {
+                return false;
+            }
+            for (int i = 0; i < key.length; i++) {
+                if (key[i] != bytes[start + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Counts of records by each dimension that was counted. Levels and
+     * minutes are in ascending order, components and errors are in
+     * descending order of their counts.
+     */
+    public static final class Histograms {
+        private final long recordCount;
+        private final Map<Dimension, Map<String, Long>> histograms = new EnumMap<>(Dimension.class);
+
+        Histograms(final Set<Dimension> dimensions, final Counters counters) {
+            this.recordCount = counters.records;
+            for (Dimension dimension : dimensions) {
+                final List<Map.Entry<String, Long>> entries = new ArrayList<>();
+                switch (dimension) {
+                    case LEVEL:
+                    case MINUTE:
+                        final LongCounter counter = dimension == Dimension.LEVEL ? counters.levels : counters.minutes;
+                        final List<long[]> pairs = new ArrayList<>();
+                        for (int i = 0; i < counter.keys.length; i++) {
+                            if (counter.counts[i] != 0) {
+                                pairs.add(new long[] {counter.keys[i], counter.counts[i]});
+                            }
+                        }
+                        pairs.sort((a, b) -> Long.compare(a[0], b[0]));
+                        for (long[] pair : pairs) {
+                            final String key = dimension == Dimension.LEVEL ? Long.toString(pair[0])
+                                    : MINUTE_FORMAT.format(Instant.ofEpochMilli(pair[0] * 60_000L));
+                            entries.add(new AbstractMap.SimpleImmutableEntry<>(key, pair[1]));
+                        }
+                        break;
+                    default:
+                        final BytesCounter bytes = dimension == Dimension.COMPONENT
+                                ? counters.components : counters.errors;
+                        for (int i = 0; i < bytes.keys.length; i++) {
+                            if (bytes.keys[i] != null) {
+                                entries.add(new AbstractMap.SimpleImmutableEntry<>(
+                                        unescape(bytes.keys[i]), bytes.counts[i]));
+                            }
+                        }
+                        entries.sort((a, b) -> {
+                            final int byCount = Long.compare(b.getValue(), a.getValue());
+                            return byCount != 0 ? byCount : a.getKey().compareTo(b.getKey());
+                        });
+                        break;
+                }
+                final Map<String, Long> histogram = new LinkedHashMap<>();
+                for (Map.Entry<String, Long> entry : entries) {
+                    histogram.put(entry.getKey(), entry.getValue());
+                }
+                histograms.put(dimension, Collections.unmodifiableMap(histogram));
+            }
+        }
+
+        private static String unescape(final byte[] key) {
+            final String string = new String(key, StandardCharsets.UTF_8);
+            return string.indexOf('\\') < 0 ? string : StringEscapeUtils.unescapeJava(string);
+        }
+
+        /**
+         * @return number of records read, including records that don't have
+         *         the fields being counted
+         */
+        public long getRecordCount() {
+            return recordCount;
+        }
+
+        /**
+         * @param dimension dimension that was counted
+         * @return counts keyed by value, empty if the dimension wasn't counted
+         */
+        public Map<String, Long> get(final Dimension dimension) {
+            final Map<String, Long> histogram = histograms.get(dimension);
+            return histogram == null ? Collections.emptyMap() : histogram;
+        }
+
+        /**
+         * Writes the counts as a JSON object with the record count under
+         * <code>records</code> and an object of counts per dimension.
+         *
+         * @param out stream to write to, which is flushed but not closed
+         * @throws IOException if the stream can't be written
+         */
+        public void writeJson(final OutputStream out) throws IOException {
+            final JsonWriter writer = EncodeBuffers.newWriter();
+            writer.writeAscii("{\"records\":");
+            NumberConverter.serialize(recordCount, writer);
+            for (Map.Entry<Dimension, Map<String, Long>> histogram : histograms.entrySet()) {
+                writer.writeByte(JsonWriter.COMMA);
+                writer.writeString(histogram.getKey().getKey());
+                writer.writeByte(JsonWriter.SEMI);
+                writer.writeByte(JsonWriter.OBJECT_START);
+                boolean first = true;
+                for (Map.Entry<String, Long> entry : histogram.getValue().entrySet()) {
+                    if (!first) {
+                        writer.writeByte(JsonWriter.COMMA);
+                    }
+                    first = false;
+                    writer.writeString(entry.getKey());
+                    writer.writeByte(JsonWriter.SEMI);
+                    NumberConverter.serialize(entry.getValue(), writer);
+                }
+                writer.writeByte(JsonWriter.OBJECT_END);
+            }
+            writer.writeAscii("}\n");
+            out.write(writer.getByteBuffer(), 0, writer.size());
+            out.flush();
+        }
+
+        /**
+         * Writes the counts as CSV with a <code>dimension,key,count</code>
+         * header and one row per counted value.
+         *
+         * @param out stream to write to, which is flushed but not closed
+         * @throws IOException if the stream can't be written
+         */
+        public void writeCsv(final OutputStream out) throws IOException {
+            final StringBuilder csv = new StringBuilder("dimension,key,count\n");
+            for (Map.Entry<Dimension, Map<String, Long>> histogram : histograms.entrySet()) {
+                for (Map.Entry<String, Long> entry : histogram.getValue().entrySet()) {
+                    csv.append(histogram.getKey().getKey()).append(',');
+                    final String key = entry.getKey();
+                    if (key.indexOf(',') >= 0 || key.indexOf('"') >= 0
+                            || key.indexOf('\n') >= 0 || key.indexOf('\r') >= 0) {
+                        csv.append('"').append(key.replace("\"", "\"\"")).append('"');
+                    } else {
+                        csv.append(key);
+                    }
+                    csv.append(',').append(entry.getValue()).append('\n');
+                }
+            }
+            out.write(csv.toString().getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        }
+    }
+
+    public static void main(final String[] args) throws IOException {
+        Set<Dimension> dimensions = EnumSet.allOf(Dimension.class);
+        boolean csv = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+        final List<Path> files = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("--by") && i + 1 < args.length) {
+                    dimensions = EnumSet.noneOf(Dimension.class);
+                    for (String key : args[++i].split(",")) {
+                        dimensions.add(Dimension.forKey(key));
+                    }
+                } else if (args[i].equals("--format") && i + 1 < args.length) {
+                    final String format = args[++i];
+                    if (!format.equals("json") && !format.equals("csv")) {
+                        String msg = String.format("Unknown format [%s], expected json or csv", format);
+                        throw new IllegalArgumentException(msg);
+                    }
+                    csv = format.equals("csv");
+                } else if (args[i].equals("--threads") && i + 1 < args.length) {
+                    threads = Integer.parseInt(args[++i]);
+                } else {
+                    files.add(Paths.get(args[i]));
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            files.clear();
+        }
+        if (files.isEmpty()) {
+            System.err.println("Usage: BunyanLogStats [--by level,component,err,minute] [--format json|csv] "
+                    + "[--threads <count>] <file> [file ...]");
+            System.exit(1);
+        }
+
+        final ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            final Histograms histograms = new BunyanLogStats(dimensions).aggregate(files, pool);
+            final OutputStream out = new BufferedOutputStream(System.out);
+            if (csv) {
+                histograms.writeCsv(out);
+            } else {
+                histograms.writeJson(out);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package log4j.layout.bunyan;
+
+import org.apache.logging.log4j.core.config.Node;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderAttribute;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderFactory;
+
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Configuration of the values that are masked in messages, stack traces and
+ * context values before they are written.
+ */
+@Plugin(name = "Redaction", category = Node.CATEGORY, printObject = true)
+public class BunyanRedaction {
+    public static final char DEFAULT_MASK = '*';
+
+    private final List<String> keys;
+    private final List<String> tokenPrefixes;
+    private final boolean cardNumbers;
+    private final char mask;
+
+    @PluginBuilderFactory
+    public static BunyanRedaction.Builder newBuilder() {
+        return new BunyanRedaction.Builder();
+    }
+
+    public static class Builder implements org.apache.logging.log4j.core.util.Builder<BunyanRedaction> {
+        @PluginBuilderAttribute
+        private String keys;
+        @PluginBuilderAttribute
+        private String tokenPrefixes;
+        @PluginBuilderAttribute
+        private boolean cardNumbers;
+        @PluginBuilderAttribute
+        private String mask;
+
+        @Override
+        public BunyanRedaction build() {
+            final List<String> keyList = split(keys);
+            final List<String> prefixList = split(tokenPrefixes);
+
+            if (keyList.isEmpty() && prefixList.isEmpty() && !cardNumbers) {
+                throw new IllegalArgumentException("Redaction requires keys, tokenPrefixes or cardNumbers to be set");
+            }
+            if (mask != null && mask.length() != 1) {
+                String msg = String.format("Mask must be a single character: %s", mask);
+                throw new IllegalArgumentException(msg);
+            }
+
+            return new BunyanRedaction(keyList, prefixList, cardNumbers,
+                    mask == null ? DEFAULT_MASK : mask.charAt(0));
+        }
+
+        /**
+         * @param keys comma delimited list of keys whose values are masked
+         * @return this builder
+         */
+        public Builder setKeys(final String keys) {
+            this.keys = keys;
+            return this;
+        }
+
+        /**
+         * @param tokenPrefixes comma delimited list of prefixes of tokens that are masked
+         * @return this builder
+         */
+        public Builder setTokenPrefixes(final String tokenPrefixes) {
+            this.tokenPrefixes = tokenPrefixes;
+            return this;
+        }
+
+        public Builder setCardNumbers(final boolean cardNumbers) {
+            this.cardNumbers = cardNumbers;
+            return this;
+        }
+
+        public Builder setMask(final String mask) {
+            this.mask = mask;
+            return this;
+        }
+
+        private static List<String> split(final String list) {
+            final List<String> values = new LinkedList<>();
+            if (list == null) {
+                return values;
+            }
+            for (String value : list.split(",")) {
+                final String trimmed = value.trim();
+                if (!trimmed.isEmpty()) {
+                    values.add(trimmed);
+                }
+            }
+            return values;
+        }
+    }
+
+    protected BunyanRedaction(final List<String> keys, final List<String> tokenPrefixes,
+                              final boolean cardNumbers, final char mask) {
+        this.keys = Collections.unmodifiableList(keys);
+        this.tokenPrefixes = Collections.unmodifiableList(tokenPrefixes);
+        this.cardNumbers = cardNumbers;
+        this.mask = mask;
+    }
+
+    public List<String> getKeys() {
+        return keys;
+    }
+
+    public List<String> getTokenPrefixes() {
+        return tokenPrefixes;
+    }
+
+    public boolean isCardNumbers() {
+        return cardNumbers;
+    }
+
+    public char getMask() {
+        return mask;
+    }
+
+    /**
+     * Compiles the configured keys, token prefixes and validators.
+     *
+     * @return new redactor instance
+     */
+    public Redactor newRedactor() {
+        return new Redactor(keys, tokenPrefixes, cardNumbers, mask);
+    }
+}
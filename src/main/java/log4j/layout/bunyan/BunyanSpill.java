@@ -0,0 +1,90 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package log4j.layout.bunyan;
+
+import org.apache.logging.log4j.core.config.Node;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderAttribute;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderFactory;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Configuration of the directory that oversized messages and stack traces
+ * are written to instead of being written inline.
+ */
+@Plugin(name = "Spill", category = Node.CATEGORY, printObject = true)
+public class BunyanSpill {
+    public static final int DEFAULT_THRESHOLD = 64 * 1024;
+
+    private final Path directory;
+    private final int threshold;
+
+    @PluginBuilderFactory
+    public static BunyanSpill.Builder newBuilder() {
+        return new BunyanSpill.Builder();
+    }
+
+    public static class Builder implements org.apache.logging.log4j.core.util.Builder<BunyanSpill> {
+        @PluginBuilderAttribute
+        private String directory;
+        @PluginBuilderAttribute
+        private int threshold = DEFAULT_THRESHOLD;
+
+        @Override
+        public BunyanSpill build() {
+            if (directory == null || directory.trim().isEmpty()) {
+                throw new IllegalArgumentException("directory attribute must be set when using Spill");
+            }
+            if (threshold <= 0) {
+                String msg = String.format("Spill threshold must be greater than zero [threshold=%d]", threshold);
+                throw new IllegalArgumentException(msg);
+            }
+
+            return new BunyanSpill(Paths.get(directory.trim()), threshold);
+        }
+
+        public Builder setDirectory(final String directory) {
+            this.directory = directory;
+            return this;
+        }
+
+        /**
+         * @param threshold size in UTF-8 bytes above which values are spilled
+         * @return this builder
+         */
+        public Builder setThreshold(final int threshold) {
+            this.threshold = threshold;
+            return this;
+        }
+    }
+
+    protected BunyanSpill(final Path directory, final int threshold) {
+        this.directory = directory;
+        this.threshold = threshold;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    public PayloadSpiller newSpiller() {
+        return new PayloadSpiller(directory, threshold);
+    }
+}
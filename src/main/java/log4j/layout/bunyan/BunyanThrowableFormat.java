@@ -30,6 +30,8 @@ public class BunyanThrowableFormat {
     private final String format;
     private final Integer depth;
     private final String ignorePackages;
+    private final Integer backReferenceWindow;
+    private final Integer backReferenceTableSize;
 
     @PluginBuilderFactory
     public static BunyanThrowableFormat.Builder newBuilder() {
@@ -58,6 +60,10 @@ public class BunyanThrowableFormat {
         private Integer depth;
         @PluginBuilderAttribute
         private String ignorePackages;
+        @PluginBuilderAttribute
+        private Integer backReferenceWindow;
+        @PluginBuilderAttribute
+        private Integer backReferenceTableSize;
 
         @Override
         public BunyanThrowableFormat build() {
@@ -67,7 +73,8 @@ public class BunyanThrowableFormat {
                 setFormat(DEFAULT_FORMAT);
             }
 
-            return new BunyanThrowableFormat(format, depth, ignorePackages);
+            return new BunyanThrowableFormat(format, depth, ignorePackages,
+                    backReferenceWindow, backReferenceTableSize);
         }
 
         public void setFormat(final String format) {
@@ -82,6 +89,14 @@ public class BunyanThrowableFormat {
             this.ignorePackages = ignorePackages;
         }
 
+        public void setBackReferenceWindow(final Integer backReferenceWindow) {
+            this.backReferenceWindow = backReferenceWindow;
+        }
+
+        public void setBackReferenceTableSize(final Integer backReferenceTableSize) {
+            this.backReferenceTableSize = backReferenceTableSize;
+        }
+
         protected void validate() {
             if (Strings.isNotBlank(format)) {
                 if (depth != null) {
@@ -96,13 +111,31 @@ public class BunyanThrowableFormat {
                     throw new IllegalArgumentException("Depth must be greater than zero");
                 }
             }
+            if (backReferenceWindow != null && backReferenceWindow <= 0) {
+                throw new IllegalArgumentException("Back-reference window must be greater than zero");
+            }
+            if (backReferenceTableSize != null) {
+                if (backReferenceWindow == null) {
+                    throw new IllegalArgumentException("Back-reference table size requires a back-reference window");
+                }
+                if (backReferenceTableSize <= 0) {
+                    throw new IllegalArgumentException("Back-reference table size must be greater than zero");
+                }
+            }
         }
     }
 
     protected BunyanThrowableFormat(final String format, final Integer depth, final String ignorePackages) {
+        this(format, depth, ignorePackages, null, null);
+    }
+
+    protected BunyanThrowableFormat(final String format, final Integer depth, final String ignorePackages,
+                                    final Integer backReferenceWindow, final Integer backReferenceTableSize) {
         this.format = format;
         this.depth = depth;
         this.ignorePackages = ignorePackages;
+        this.backReferenceWindow = backReferenceWindow;
+        this.backReferenceTableSize = backReferenceTableSize;
     }
 
     public String getFormat() {
@@ -117,6 +150,33 @@ public class BunyanThrowableFormat {
         return ignorePackages;
     }
 
+    /**
+     * @return window in seconds in which repeated stack traces are written as a
+     *         back-reference, or null if back-references are disabled
+     */
+    public Integer getBackReferenceWindow() {
+        return backReferenceWindow;
+    }
+
+    public Integer getBackReferenceTableSize() {
+        return backReferenceTableSize;
+    }
+
+    /**
+     * Creates the fingerprint table used to write repeated stack traces as
+     * back-references.
+     *
+     * @return new table instance or null if back-references are disabled
+     */
+    public StackTraceFingerprints newStackTraceFingerprints() {
+        if (backReferenceWindow == null) {
+            return null;
+        }
+        final int tableSize = backReferenceTableSize == null
+                ? StackTraceFingerprints.DEFAULT_TABLE_SIZE : backReferenceTableSize;
+        return new StackTraceFingerprints(backReferenceWindow * 1000L, tableSize);
+    }
+
     public List<String> getOptions() {
         final List<String> options = new LinkedList<>();
 
@@ -139,11 +199,13 @@ public class BunyanThrowableFormat {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         final BunyanThrowableFormat that = (BunyanThrowableFormat) o;
-        return Objects.equals(format, that.format) && Objects.equals(depth, that.depth) && Objects.equals(ignorePackages, that.ignorePackages);
+        return Objects.equals(format, that.format) && Objects.equals(depth, that.depth) && Objects.equals(ignorePackages, that.ignorePackages)
+                && Objects.equals(backReferenceWindow, that.backReferenceWindow)
+                && Objects.equals(backReferenceTableSize, that.backReferenceTableSize);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(format, depth, ignorePackages);
+        return Objects.hash(format, depth, ignorePackages, backReferenceWindow, backReferenceTableSize);
     }
 }
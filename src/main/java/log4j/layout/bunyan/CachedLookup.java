@@ -0,0 +1,74 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package log4j.layout.bunyan;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.lookup.StrSubstitutor;
+import org.apache.logging.log4j.status.StatusLogger;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Value with lookups that is resolved when it is created and refreshed once
+ * it is older than its time to live. The first caller to find the value
+ * expired refreshes it inline, while other callers keep getting the last
+ * resolved value without waiting, so no thread has to be managed.
+ */
+public class CachedLookup {
+    private static final Logger LOGGER = StatusLogger.getLogger();
+
+    private final StrSubstitutor strSubstitutor;
+    private final String template;
+    private final long ttlNanos;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    private volatile String value;
+    private volatile long expiresAt;
+
+    public CachedLookup(final StrSubstitutor strSubstitutor, final String template, final long ttlMillis) {
+        this.strSubstitutor = strSubstitutor;
+        this.template = template;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        refresh();
+    }
+
+    /**
+     * @return last resolved value, refreshed first if it has expired and no
+     *         other caller is already refreshing it
+     */
+    public String get() {
+        if (System.nanoTime() - expiresAt >= 0 && refreshing.compareAndSet(false, true)) {
+            try {
+                refresh();
+            } finally {
+                refreshing.set(false);
+            }
+        }
+        return value;
+    }
+
+    void refresh() {
+        try {
+            value = strSubstitutor.replace(template);
+        } catch (RuntimeException e) {
+            // Keep the last value rather than losing the field
+            LOGGER.warn("Unable to refresh lookup [value={}]", template, e);
+        }
+        expiresAt = System.nanoTime() + ttlNanos;
+    }
+
+    public String getTemplate() {
+        return template;
+    }
+}
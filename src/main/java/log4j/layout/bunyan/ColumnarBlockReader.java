@@ -0,0 +1,348 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package log4j.layout.bunyan;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads blocks written by {@link ColumnarBlockWriter}. Columns are only
+ * decompressed when they are read, so a single field can be scanned without
+ * decoding the rest of the block, and {@link Block#writeRecords(OutputStream)}
+ * turns a block back into Bunyan JSON lines.
+ *
+ * <p>Running this class converts columnar files to JSON lines on standard output:
+ * <code>java log4j.layout.bunyan.ColumnarBlockReader app.bnyc [more.bnyc ...]</code></p>
+ */
+public class ColumnarBlockReader implements Closeable {
+    private static final DateTimeFormatter ISO_8601_UTC =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'").withZone(ZoneOffset.UTC);
+
+    private final DataInputStream in;
+
+    public ColumnarBlockReader(final InputStream in) {
+        this.in = new DataInputStream(in);
+    }
+
+    /**
+     * @return next block or null when the end of the stream is reached
+     * @throws IOException if the stream can't be read or does not contain columnar blocks
+     */
+    public Block next() throws IOException {
+        final int first = in.read();
+        if (first < 0) {
+            return null;
+        }
+        final byte[] magic = new byte[ColumnarBlockWriter.MAGIC.length];
+        magic[0] = (byte) first;
+        in.readFully(magic, 1, magic.length - 1);
+        if (!Arrays.equals(magic, ColumnarBlockWriter.MAGIC)) {
+            throw new IOException("Stream does not contain a columnar block");
+        }
+        final int version = in.readUnsignedByte();
+        if (version != ColumnarBlockWriter.VERSION) {
+            String msg = String.format("Unsupported columnar block version [version=%d]", version);
+            throw new IOException(msg);
+        }
+        final byte[] block = new byte[(int) readVarint(in)];
+        in.readFully(block);
+        return new Block(ByteBuffer.wrap(block));
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    static long readVarint(final InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Stream ended within a columnar block");
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable length integer");
+    }
+
+    static long readVarint(final ByteBuffer in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final int b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable length integer");
+    }
+
+    static int readLength(final ByteBuffer in) throws IOException {
+        final long length = readVarint(in);
+        if (length > Integer.MAX_VALUE) {
+            String msg = String.format("Length exceeds the block [length=%d]", length);
+            throw new IOException(msg);
+        }
+        return (int) length;
+    }
+
+    /**
+     * Reads the uncompressed length, the compressed length and the compressed
+     * bytes of a section of a block without decompressing it.
+     */
+    static Section readSection(final ByteBuffer in) throws IOException {
+        final int length = readLength(in);
+        final int compressedLength = readLength(in);
+        final byte[] compressed = new byte[compressedLength];
+        in.get(compressed);
+        return new Section(length, compressed);
+    }
+
+    /**
+     * Compressed section of a block.
+     */
+    static final class Section {
+        final int length;
+        final byte[] compressed;
+
+        Section(final int length, final byte[] compressed) {
+            this.length = length;
+            this.compressed = compressed;
+        }
+
+        ByteBuffer inflate() throws IOException {
+            final Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(compressed);
+                final byte[] data = new byte[length];
+                int inflated = 0;
+                while (inflated < length) {
+                    final int count = inflater.inflate(data, inflated, length - inflated);
+                    if (count == 0 && (inflater.finished() || inflater.needsInput())) {
+                        throw new EOFException("Compressed section is shorter than its length");
+                    }
+                    inflated += count;
+                }
+                return ByteBuffer.wrap(data);
+            } catch (DataFormatException e) {
+                throw new IOException("Compressed section is corrupt", e);
+            } finally {
+                inflater.end();
+            }
+        }
+    }
+
+    /**
+     * Events of a single block.
+     */
+    public static final class Block {
+        private final int rowCount;
+        private final int[][] orders;
+        private final Section rowOrders;
+        private final List<String> keys;
+        private final byte[][] keyPrefixes;
+        private final int[] encodings;
+        private final boolean[] keyed;
+        private final Section[] columns;
+
+        Block(final ByteBuffer block) throws IOException {
+            try {
+                this.rowCount = readLength(block);
+                final int columnCount = readLength(block);
+                this.orders = new int[readLength(block)][];
+                for (int i = 0; i < orders.length; i++) {
+                    orders[i] = new int[readLength(block)];
+                    for (int j = 0; j < orders[i].length; j++) {
+                        orders[i][j] = readLength(block);
+                    }
+                }
+                this.rowOrders = readSection(block);
+
+                final List<String> columnKeys = new ArrayList<>(columnCount);
+                this.keyPrefixes = new byte[columnCount][];
+                this.encodings = new int[columnCount];
+                this.keyed = new boolean[columnCount];
+                this.columns = new Section[columnCount];
+                for (int i = 0; i < columnCount; i++) {
+                    final byte[] key = new byte[readLength(block)];
+                    block.get(key);
+                    columnKeys.add(new String(key, StandardCharsets.UTF_8));
+                    keyPrefixes[i] = LogEventJsonWriter.encodeKey(columnKeys.get(i));
+                    encodings[i] = block.get();
+                    keyed[i] = block.get() != 0;
+                    columns[i] = readSection(block);
+                }
+                this.keys = Collections.unmodifiableList(columnKeys);
+            } catch (RuntimeException e) {
+                throw new IOException("Columnar block is corrupt", e);
+            }
+        }
+
+        public int getRowCount() {
+            return rowCount;
+        }
+
+        /**
+         * @return keys of the columns of the block
+         */
+        public List<String> getColumnKeys() {
+            return keys;
+        }
+
+        /**
+         * Decodes a single column. Values are the JSON written after the key
+         * of the field, except for additional fields and properties whose
+         * values include their keys.
+         *
+         * @param key key of the column to read
+         * @return value of each event, or null for events without a value
+         * @throws IllegalArgumentException if the block has no column with the key
+         * @throws IOException if the column is corrupt
+         */
+        public byte[][] readColumn(final String key) throws IOException {
+            final int column = keys.indexOf(key);
+            if (column < 0) {
+                String msg = String.format("Block has no column with the key (%s)", key);
+                throw new IllegalArgumentException(msg);
+            }
+            return readColumn(column);
+        }
+
+        byte[][] readColumn(final int column) throws IOException {
+            final ByteBuffer data = columns[column].inflate();
+            final byte[][] values = new byte[rowCount][];
+            try {
+                switch (encodings[column]) {
+                    case ColumnarBlockWriter.PLAIN:
+                        for (int row = 0; row < rowCount; row++) {
+                            final int length = readLength(data);
+                            if (length > 0) {
+                                values[row] = new byte[length - 1];
+                                data.get(values[row]);
+                            }
+                        }
+                        break;
+                    case ColumnarBlockWriter.DICTIONARY:
+                        final byte[][] entries = new byte[readLength(data)][];
+                        for (int i = 0; i < entries.length; i++) {
+                            entries[i] = new byte[readLength(data)];
+                            data.get(entries[i]);
+                        }
+                        for (int row = 0; row < rowCount; row++) {
+                            final int reference = readLength(data);
+                            values[row] = reference == 0 ? null : entries[reference - 1];
+                        }
+                        break;
+                    case ColumnarBlockWriter.TIME_DELTA:
+                        long time = 0;
+                        for (int row = 0; row < rowCount; row++) {
+                            final long encoded = readVarint(data);
+                            if (encoded != 0) {
+                                final long zigzag = encoded - 1;
+                                time += (zigzag >>> 1) ^ -(zigzag & 1);
+                                final String formatted = '"' + ISO_8601_UTC.format(Instant.ofEpochMilli(time)) + '"';
+                                values[row] = formatted.getBytes(StandardCharsets.US_ASCII);
+                            }
+                        }
+                        break;
+                    default:
+                        String msg = String.format("Unsupported column encoding [encoding=%d]", encodings[column]);
+                        throw new IOException(msg);
+                }
+            } catch (RuntimeException e) {
+                throw new IOException("Columnar block is corrupt", e);
+            }
+            return values;
+        }
+
+        /**
+         * Writes the events of the block as Bunyan JSON records, one per line.
+         *
+         * @param out stream to write to
+         * @throws IOException if the block is corrupt or the stream can't be written
+         */
+        public void writeRecords(final OutputStream out) throws IOException {
+            final byte[][][] values = new byte[columns.length][][];
+            for (int column = 0; column < columns.length; column++) {
+                values[column] = readColumn(column);
+            }
+            final ByteBuffer rowOrderData = rowOrders.inflate();
+
+            try {
+                for (int row = 0; row < rowCount; row++) {
+                    out.write('{');
+                    boolean written = false;
+                    for (int column : orders[readLength(rowOrderData)]) {
+                        final byte[] value = values[column][row];
+                        if (value == null) {
+                            continue;
+                        }
+                        if (written) {
+                            out.write(',');
+                        }
+                        if (keyed[column]) {
+                            out.write(keyPrefixes[column]);
+                        }
+                        out.write(value);
+                        written = true;
+                    }
+                    out.write('}');
+                    out.write('\n');
+                }
+            } catch (RuntimeException e) {
+                throw new IOException("Columnar block is corrupt", e);
+            }
+        }
+    }
+
+    public static void main(final String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: ColumnarBlockReader <file> [file ...]");
+            System.exit(1);
+        }
+        final OutputStream out = new BufferedOutputStream(System.out, 64 * 1024);
+        for (String file : args) {
+            try (ColumnarBlockReader reader = new ColumnarBlockReader(
+                    new BufferedInputStream(Files.newInputStream(Paths.get(file)), 64 * 1024))) {
+                for (Block block = reader.next(); block != null; block = reader.next()) {
+                    block.writeRecords(out);
+                }
+            }
+        }
+        out.flush();
+    }
+}
@@ -0,0 +1,436 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package log4j.layout.bunyan;
+
+import com.dslplatform.json.JsonWriter;
+import org.apache.logging.log4j.core.LogEvent;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+/**
+ * Writes log events in a column-oriented block format for archive storage.
+ * Events are buffered until a block is full and then written as one block
+ * in which every field is stored as a separately compressed column:
+ * <ul>
+ *     <li><code>time</code> is stored as the delta from the previous timestamp</li>
+ *     <li><code>msg</code>, <code>err</code> and <code>properties</code> are stored as is</li>
+ *     <li>all other fields, such as <code>level</code>, <code>component</code>,
+ *     <code>hostname</code> and <code>thread</code>, are dictionary encoded</li>
+ * </ul>
+ * Fields are extracted by the {@link LogEventJsonWriter} of the layout, so
+ * each value is exactly the JSON the layout writes in a record, and
+ * {@link ColumnarBlockReader} turns blocks back into the same records.
+ *
+ * <p>Each block is written as the magic bytes <code>BNYC</code>, a version
+ * byte and the length of the block, so readers can skip whole blocks. This
+ * class is not thread-safe.</p>
+ */
+public class ColumnarBlockWriter implements Closeable, Flushable {
+    public static final int DEFAULT_ROWS_PER_BLOCK = 8192;
+
+    static final byte[] MAGIC = "BNYC".getBytes(StandardCharsets.US_ASCII);
+    static final int VERSION = 1;
+    static final int PLAIN = 0;
+    static final int DICTIONARY = 1;
+    static final int TIME_DELTA = 2;
+
+    private final LogEventJsonWriter jsonWriter;
+    private final OutputStream out;
+    private final int rowsPerBlock;
+    private final String[] keys;
+    private final byte[][] keyPrefixes;
+    private final boolean[] keyed;
+    private final Column[] columns;
+    private final JsonWriter[] fieldWriters;
+    private final StringBuilder scratch = new StringBuilder();
+    private final Map<int[], Integer> orderIds = new IdentityHashMap<>();
+    private final List<int[]> orders = new ArrayList<>();
+    private final ByteArrayOutputStream rowOrders = new ByteArrayOutputStream();
+    private final Deflater deflater = new Deflater();
+    private int rows;
+    private long blockCount;
+
+    /**
+     * @param layout layout to extract the fields of events with
+     * @param out stream to write blocks to, closed when the writer is closed
+     * @param rowsPerBlock number of events to write in each block
+     */
+    public ColumnarBlockWriter(final BunyanJsonLayout layout, final OutputStream out, final int rowsPerBlock) {
+        if (rowsPerBlock <= 0) {
+            String msg = String.format("Rows per block must be greater than zero [rowsPerBlock=%d]",
+                    rowsPerBlock);
+            throw new IllegalArgumentException(msg);
+        }
+        this.jsonWriter = layout.jsonWriter;
+        this.out = out;
+        this.rowsPerBlock = rowsPerBlock;
+        this.keys = jsonWriter.getFieldKeys();
+
+        final BunyanField[] types = jsonWriter.getFieldTypes();
+        this.keyPrefixes = new byte[keys.length][];
+        this.keyed = new boolean[keys.length];
+        this.columns = new Column[keys.length];
+        this.fieldWriters = new JsonWriter[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            keyPrefixes[i] = LogEventJsonWriter.encodeKey(keys[i]);
+            // Additional fields and properties are written as any number of keys and values
+            keyed[i] = types[i] != BunyanField.ADDITIONAL && types[i] != BunyanField.PROPERTIES;
+            columns[i] = column(types[i]);
+            fieldWriters[i] = EncodeBuffers.newWriter();
+        }
+    }
+
+    static Column column(final BunyanField type) {
+        switch (type) {
+            case TIME:
+                return new TimeColumn();
+            case MSG:
+            case ERR:
+            case PROPERTIES:
+            case SEQ:
+            case THREAD_SEQ:
+                return new PlainColumn();
+            default:
+                return new DictionaryColumn();
+        }
+    }
+
+    /**
+     * Adds an event to the current block and writes the block once it is full.
+     *
+     * @param event event to add
+     * @return true if the event was added, false if the layout doesn't write it
+     * @throws IOException if a full block can't be written
+     */
+    public boolean append(final LogEvent event) throws IOException {
+        for (JsonWriter fieldWriter : fieldWriters) {
+            fieldWriter.reset();
+        }
+        final int[] order;
+        try {
+            order = jsonWriter.writeFields(fieldWriters, event, scratch);
+        } finally {
+            scratch.setLength(0);
+        }
+        if (order == null) {
+            return false;
+        }
+
+        // Selections are shared by all the events of a level, so they are compared by identity
+        Integer orderId = orderIds.get(order);
+        if (orderId == null) {
+            orderId = orders.size();
+            orderIds.put(order, orderId);
+            orders.add(order);
+        }
+        writeVarint(rowOrders, orderId);
+
+        for (int i = 0; i < columns.length; i++) {
+            final JsonWriter fieldWriter = fieldWriters[i];
+            final int size = fieldWriter.size();
+            if (size == 0) {
+                columns[i].addAbsent();
+            } else {
+                final byte[] bytes = fieldWriter.getByteBuffer();
+                final int offset = keyed[i] ? keyPrefixes[i].length : 0;
+                if (keyed[i] && !startsWith(bytes, size, keyPrefixes[i])) {
+                    String msg = String.format("Field was not written with its key [key=%s]", keys[i]);
+                    throw new IllegalStateException(msg);
+                }
+                columns[i].add(event, bytes, offset, size - offset);
+            }
+        }
+
+        if (++rows >= rowsPerBlock) {
+            writeBlock();
+        }
+        return true;
+    }
+
+    /**
+     * Writes the events of the current block, even if the block is not full,
+     * and flushes the underlying stream.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (rows > 0) {
+            writeBlock();
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            deflater.end();
+            out.close();
+        }
+    }
+
+    /**
+     * @return number of blocks written
+     */
+    public long getBlockCount() {
+        return blockCount;
+    }
+
+    protected void writeBlock() throws IOException {
+        final ByteArrayOutputStream block = new ByteArrayOutputStream();
+        writeVarint(block, rows);
+        writeVarint(block, columns.length);
+        writeVarint(block, orders.size());
+        for (int[] order : orders) {
+            writeVarint(block, order.length);
+            for (int index : order) {
+                writeVarint(block, index);
+            }
+        }
+        writeSection(block, rowOrders.toByteArray());
+
+        for (int i = 0; i < columns.length; i++) {
+            final byte[] key = keys[i].getBytes(StandardCharsets.UTF_8);
+            writeVarint(block, key.length);
+            block.write(key);
+            block.write(columns[i].encoding());
+            block.write(keyed[i] ? 1 : 0);
+            final ByteArrayOutputStream data = new ByteArrayOutputStream();
+            columns[i].writeTo(data);
+            writeSection(block, data.toByteArray());
+            columns[i].reset();
+        }
+
+        out.write(MAGIC);
+        out.write(VERSION);
+        writeVarint(out, block.size());
+        block.writeTo(out);
+
+        orderIds.clear();
+        orders.clear();
+        rowOrders.reset();
+        rows = 0;
+        blockCount++;
+    }
+
+    /**
+     * Writes the uncompressed length, the compressed length and the
+     * compressed bytes of a section of a block.
+     */
+    protected void writeSection(final ByteArrayOutputStream block, final byte[] data) {
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, data.length / 4));
+        final byte[] chunk = new byte[8 * 1024];
+        while (!deflater.finished()) {
+            final int length = deflater.deflate(chunk);
+            compressed.write(chunk, 0, length);
+        }
+        writeVarint(block, data.length);
+        writeVarint(block, compressed.size());
+        block.write(compressed.toByteArray(), 0, compressed.size());
+    }
+
+    private static boolean startsWith(final byte[] bytes, final int size, final byte[] prefix) {
+        if (size < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static void writeVarint(final OutputStream out, final long value) throws IOException {
+        long remaining = value;
+        while ((remaining & ~0x7FL) != 0) {
+            out.write((int) ((remaining & 0x7F) | 0x80));
+            remaining >>>= 7;
+        }
+        out.write((int) remaining);
+    }
+
+    static void writeVarint(final ByteArrayOutputStream out, final long value) {
+        long remaining = value;
+        while ((remaining & ~0x7FL) != 0) {
+            out.write((int) ((remaining & 0x7F) | 0x80));
+            remaining >>>= 7;
+        }
+        out.write((int) remaining);
+    }
+
+    /**
+     * Values of a field for the events of a block. Absent values are written
+     * as zero and present values are offset by one.
+     */
+    abstract static class Column {
+        abstract int encoding();
+
+        /**
+         * Adds the value of a field, which columns store either as the bytes
+         * the layout wrote or as the property of the event they were written from.
+         *
+         * @param event event the value was written from
+         * @param bytes array containing the value as written by the layout
+         * @param offset offset of the value in the array
+         * @param length length of the value
+         */
+        abstract void add(LogEvent event, byte[] bytes, int offset, int length);
+
+        abstract void addAbsent();
+
+        abstract void writeTo(ByteArrayOutputStream data);
+
+        abstract void reset();
+    }
+
+    /**
+     * Writes the length and bytes of each value.
+     */
+    static final class PlainColumn extends Column {
+        private final ByteArrayOutputStream values = new ByteArrayOutputStream();
+
+        @Override
+        int encoding() {
+            return PLAIN;
+        }
+
+        @Override
+        void add(final LogEvent event, final byte[] bytes, final int offset, final int length) {
+            writeVarint(values, length + 1L);
+            values.write(bytes, offset, length);
+        }
+
+        @Override
+        void addAbsent() {
+            writeVarint(values, 0);
+        }
+
+        @Override
+        void writeTo(final ByteArrayOutputStream data) {
+            data.write(values.toByteArray(), 0, values.size());
+        }
+
+        @Override
+        void reset() {
+            values.reset();
+        }
+    }
+
+    /**
+     * Writes each distinct value once followed by the index of the value of each event.
+     */
+    static final class DictionaryColumn extends Column {
+        private final Map<ByteBuffer, Integer> ids = new HashMap<>();
+        private final List<byte[]> entries = new ArrayList<>();
+        private final ByteArrayOutputStream references = new ByteArrayOutputStream();
+
+        @Override
+        int encoding() {
+            return DICTIONARY;
+        }
+
+        @Override
+        void add(final LogEvent event, final byte[] bytes, final int offset, final int length) {
+            Integer id = ids.get(ByteBuffer.wrap(bytes, offset, length));
+            if (id == null) {
+                final byte[] entry = new byte[length];
+                System.arraycopy(bytes, offset, entry, 0, length);
+                id = entries.size();
+                entries.add(entry);
+                ids.put(ByteBuffer.wrap(entry), id);
+            }
+            writeVarint(references, id + 1L);
+        }
+
+        @Override
+        void addAbsent() {
+            writeVarint(references, 0);
+        }
+
+        @Override
+        void writeTo(final ByteArrayOutputStream data) {
+            writeVarint(data, entries.size());
+            for (byte[] entry : entries) {
+                writeVarint(data, entry.length);
+                data.write(entry, 0, entry.length);
+            }
+            data.write(references.toByteArray(), 0, references.size());
+        }
+
+        @Override
+        void reset() {
+            ids.clear();
+            entries.clear();
+            references.reset();
+        }
+    }
+
+    /**
+     * Writes each timestamp in milliseconds as the zigzag encoded difference
+     * from the previous timestamp of the block.
+     */
+    static final class TimeColumn extends Column {
+        private final ByteArrayOutputStream deltas = new ByteArrayOutputStream();
+        private long previous;
+
+        @Override
+        int encoding() {
+            return TIME_DELTA;
+        }
+
+        /**
+         * Stores the time of the event rather than the formatted timestamp,
+         * which the reader formats the same way the layout does.
+         */
+        @Override
+        void add(final LogEvent event, final byte[] bytes, final int offset, final int length) {
+            final long timeMillis = event.getTimeMillis();
+            final long delta = timeMillis - previous;
+            writeVarint(deltas, ((delta << 1) ^ (delta >> 63)) + 1);
+            previous = timeMillis;
+        }
+
+        @Override
+        void addAbsent() {
+            writeVarint(deltas, 0);
+        }
+
+        @Override
+        void writeTo(final ByteArrayOutputStream data) {
+            data.write(deltas.toByteArray(), 0, deltas.size());
+        }
+
+        @Override
+        void reset() {
+            deltas.reset();
+            previous = 0;
+        }
+    }
+}
@@ -3,25 +3,33 @@ package log4j.layout.bunyan;
 import com.dslplatform.json.JsonWriter;
 import org.apache.logging.log4j.util.TriConsumer;
 
-class ContextPropertiesTriConsumer implements TriConsumer<String, String, JsonWriter>  {
-    private final ThreadLocal<StringBuilder> buffer;
+/**
+ * Writes context properties from maps that can't be iterated by index. The
+ * consumer tracks whether a comma is needed before the next property, so a
+ * new instance must be used for each map that is written.
+ */
+class ContextPropertiesTriConsumer implements TriConsumer<String, Object, JsonWriter>  {
+    private final LogEventJsonWriter owner;
+    private final StringBuilder scratch;
+    private boolean prefixComma;
 
-    ContextPropertiesTriConsumer(final ThreadLocal<StringBuilder> buffer) {
-        this.buffer = buffer;
+    ContextPropertiesTriConsumer(final LogEventJsonWriter owner, final StringBuilder scratch,
+                                 final boolean prefixComma) {
+        this.owner = owner;
+        this.scratch = scratch;
+        this.prefixComma = prefixComma;
     }
 
     @Override
-    public void accept(final String key, final String val, final JsonWriter writer) {
-        final StringBuilder builder = buffer.get();
-        if (builder.length() > 0) {
-            final char separator = builder.charAt(0);
-            writer.writeByte((byte)separator);
+    public void accept(final String key, final Object val, final JsonWriter writer) {
+        if (prefixComma) {
+            writer.writeByte(JsonWriter.COMMA);
         } else {
-            builder.append((char)JsonWriter.COMMA);
+            prefixComma = true;
         }
 
         writer.writeString(key);
         writer.writeByte(JsonWriter.SEMI);
-        writer.writeString(val);
+        owner.writeContextValue(writer, key, val, scratch);
     }
 }
@@ -6,7 +6,16 @@ import java.time.ZoneOffset;
 import java.util.TimeZone;
 
 public class DatePatternConverterFactory {
-    private static final String ISO_8601_UTC = "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'";
+    /**
+     * ISO 8601 pattern without the UTC designator. The designator is left out
+     * because Log4j only formats timestamps without allocating when the pattern
+     * matches one of its fixed formats, so it is appended by the caller instead.
+     */
+    private static final String ISO_8601_UTC = "yyyy-MM-dd'T'HH:mm:ss.SSS";
+    /**
+     * UTC designator to append to timestamps formatted by the converter.
+     */
+    public static final char UTC_DESIGNATOR = 'Z';
     private static final String UTC_TIMEZONE_ID = TimeZone.getTimeZone(ZoneOffset.UTC).getID();
 
     public static DatePatternConverter instance() {
@@ -0,0 +1,60 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package log4j.layout.bunyan;
+
+import com.dslplatform.json.JsonWriter;
+
+/**
+ * Buffers needed to encode a single log event. Instances are not thread-safe
+ * and are handed out by a {@link BufferPool} for the duration of one encode.
+ */
+public final class EncodeBuffers {
+    /**
+     * Writer that the JSON record is serialized into.
+     */
+    public final JsonWriter writer;
+    /**
+     * Builder used to format values such as timestamps and stack traces.
+     */
+    public final StringBuilder scratch;
+
+    public EncodeBuffers() {
+        this(newWriter());
+    }
+
+    public EncodeBuffers(final JsonWriter writer) {
+        this(writer, new StringBuilder());
+    }
+
+    public EncodeBuffers(final JsonWriter writer, final StringBuilder scratch) {
+        this.writer = writer;
+        this.scratch = scratch;
+    }
+
+    /**
+     * Creates a writer without a DslJson instance. Constructing DslJson loads
+     * and registers all of its converters, none of which are used because log
+     * events are written field by field.
+     *
+     * The no-argument constructor is deprecated in favor of creating writers
+     * through DslJson, which would add that cost to the start of every
+     * application, so all writers are created here.
+     *
+     * @return new writer with the default initial capacity
+     */
+    @SuppressWarnings("deprecation")
+    public static JsonWriter newWriter() {
+        return new JsonWriter();
+    }
+}
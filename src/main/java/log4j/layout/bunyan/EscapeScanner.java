@@ -0,0 +1,243 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package log4j.layout.bunyan;
+
+import com.dslplatform.json.JsonWriter;
+import com.dslplatform.json.SerializationException;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes strings as JSON by scanning them eight characters at a time for the
+ * first character that needs escaping. The printable ASCII characters before
+ * it, which are all the characters of most log values, are bulk copied into
+ * the writer, and only the rest of the string is escaped a character at a
+ * time. Characters are escaped and encoded exactly as
+ * {@link JsonWriter#writeString(String)} does, so the output is the same.
+ *
+ * <p>Each group of four characters is packed into a <code>long</code> with
+ * one character in each 16-bit lane, and a lane is flagged with SWAR (SIMD
+ * within a register) arithmetic if its character is a control character, a
+ * quote, a backslash or at or above <code>~</code>. Two groups are checked
+ * per branch.</p>
+ */
+public final class EscapeScanner {
+    /**
+     * Strings shorter than this, and strings with fewer plain characters
+     * before the first escape, are written directly because scanning them
+     * costs more than bulk copying saves.
+     */
+    static final int MIN_SCAN_LENGTH = 32;
+
+    private static final long ONES = 0x0001_0001_0001_0001L;
+    private static final long HIGH_BITS = 0x8000_8000_8000_8000L;
+    private static final long NON_ASCII = 0xFF80_FF80_FF80_FF80L;
+    private static final long BIT_7 = 0x0080L * ONES;
+    private static final long CONTROL = 0x0020L * ONES;
+    /**
+     * Adding two carries lanes at or above <code>~</code> (126) into bit 7 of the lane.
+     * The writer escapes characters from <code>~</code> on, so they are not bulk copied.
+     */
+    private static final long TILDE_CARRY = 0x0002L * ONES;
+    private static final long QUOTES = '"' * ONES;
+    private static final long BACKSLASHES = '\\' * ONES;
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+    /**
+     * Longest encoding of a character, which is a <code>\\u00XX</code> escape.
+     */
+    private static final int MAX_ENCODED_LENGTH = 6;
+
+    private EscapeScanner() {
+    }
+
+    /**
+     * Writes a string as a quoted JSON string.
+     *
+     * @param writer writer to write to
+     * @param value string to write
+     * @throws SerializationException if the string contains an unpaired
+     *                                surrogate, as the writer does
+     */
+    public static void writeString(final JsonWriter writer, final String value) {
+        if (value == null || value.length() < MIN_SCAN_LENGTH) {
+            writer.writeString(value);
+            return;
+        }
+        final int plain = firstEscape(value);
+        if (plain < MIN_SCAN_LENGTH) {
+            writer.writeString(value);
+            return;
+        }
+        writer.writeByte(JsonWriter.QUOTE);
+        writer.writeAscii(value, plain);
+        if (plain < value.length()) {
+            writeEscaped(writer, value, plain);
+        }
+        writer.writeByte(JsonWriter.QUOTE);
+    }
+
+    /**
+     * @param value string to scan
+     * @return index of the first character that can't be written into a JSON
+     *         string as a single byte without escaping, or the length of the
+     *         string if there is none
+     */
+    static int firstEscape(final String value) {
+        final int length = value.length();
+        int i = 0;
+        for (; i + 8 <= length; i += 8) {
+            final long first = value.charAt(i)
+                    | (long) value.charAt(i + 1) << 16
+                    | (long) value.charAt(i + 2) << 32
+                    | (long) value.charAt(i + 3) << 48;
+            final long second = value.charAt(i + 4)
+                    | (long) value.charAt(i + 5) << 16
+                    | (long) value.charAt(i + 6) << 32
+                    | (long) value.charAt(i + 7) << 48;
+            if ((flags(first) | flags(second)) != 0) {
+                break;
+            }
+        }
+        // Finds the flagged character within the group, or checks the characters after the last group
+        for (; i < length; i++) {
+            if (needsEscaping(value.charAt(i))) {
+                return i;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Escapes and encodes the characters of a string from an index on, the
+     * same way {@link JsonWriter#writeString(String)} does. The bytes are
+     * encoded straight into the free space of the writer's buffer and then
+     * committed with {@link JsonWriter#writeRaw(byte[], int, int)}, which
+     * copies them onto themselves and only advances the writer. Writing them
+     * one at a time would check the capacity of the writer for each byte.
+     */
+    static void writeEscaped(final JsonWriter writer, final String value, final int from) {
+        final int length = value.length();
+        byte[] bytes = writer.getByteBuffer();
+        int start = writer.size();
+        int position = start;
+        for (int i = from; i < length; i++) {
+            if (position > bytes.length - MAX_ENCODED_LENGTH) {
+                writer.writeRaw(bytes, start, position - start);
+                // The writer only grows its buffer when it is written to, so the
+                // character is encoded on its own, which is as rare as growing
+                final byte[] encoded = new byte[MAX_ENCODED_LENGTH];
+                writer.writeRaw(encoded, 0, encode(value, i, encoded, 0));
+                bytes = writer.getByteBuffer();
+                start = writer.size();
+                position = start;
+            } else {
+                position = encode(value, i, bytes, position);
+            }
+            if (Character.isSurrogate(value.charAt(i))) {
+                // The pair was encoded together, unpaired surrogates have thrown
+                i++;
+            }
+        }
+        writer.writeRaw(bytes, start, position - start);
+    }
+
+    /**
+     * Encodes the character at an index, or the surrogate pair starting at it.
+     *
+     * @return position after the encoded bytes
+     */
+    private static int encode(final String value, final int i, final byte[] bytes, int position) {
+        final char c = value.charAt(i);
+        if (c == '"' || c == '\\') {
+            bytes[position++] = JsonWriter.ESCAPE;
+            bytes[position++] = (byte) c;
+        } else if (c < 0x20) {
+            position = escapeControl(bytes, position, c);
+        } else if (c < 0x80) {
+            bytes[position++] = (byte) c;
+        } else if (c < 0x800) {
+            bytes[position++] = (byte) (0xC0 | c >> 6);
+            bytes[position++] = (byte) (0x80 | c & 0x3F);
+        } else if (!Character.isSurrogate(c)) {
+            bytes[position++] = (byte) (0xE0 | c >> 12);
+            bytes[position++] = (byte) (0x80 | c >> 6 & 0x3F);
+            bytes[position++] = (byte) (0x80 | c & 0x3F);
+        } else {
+            final int codePoint = Character.codePointAt(value, i);
+            if (!Character.isSupplementaryCodePoint(codePoint)) {
+                throw new SerializationException("Unknown unicode codepoint in string! "
+                        + Integer.toHexString(codePoint));
+            }
+            bytes[position++] = (byte) (0xF0 | codePoint >> 18);
+            bytes[position++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+            bytes[position++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+            bytes[position++] = (byte) (0x80 | codePoint & 0x3F);
+        }
+        return position;
+    }
+
+    private static int escapeControl(final byte[] bytes, int position, final char c) {
+        bytes[position++] = JsonWriter.ESCAPE;
+        switch (c) {
+            case '\b':
+                bytes[position++] = 'b';
+                break;
+            case '\t':
+                bytes[position++] = 't';
+                break;
+            case '\n':
+                bytes[position++] = 'n';
+                break;
+            case '\f':
+                bytes[position++] = 'f';
+                break;
+            case '\r':
+                bytes[position++] = 'r';
+                break;
+            default:
+                bytes[position++] = 'u';
+                bytes[position++] = '0';
+                bytes[position++] = '0';
+                bytes[position++] = HEX[c >> 4];
+                bytes[position++] = HEX[c & 0xF];
+                break;
+        }
+        return position;
+    }
+
+    /**
+     * Once characters at or above 0x80 are ruled out, each lane is below 0x80,
+     * so subtracting from a lane only sets its high bit when the lane is below
+     * the subtrahend, and adding two only sets bit 7 of lanes at or above 126.
+     * A borrow can only set the high bit of the next lane when the lane it came
+     * from was flagged, which is all the caller needs to know.
+     */
+    static boolean needsEscaping(final long lanes) {
+        return flags(lanes) != 0;
+    }
+
+    /**
+     * @return non-zero if any lane needs escaping
+     */
+    static long flags(final long lanes) {
+        final long quotes = lanes ^ QUOTES;
+        final long backslashes = lanes ^ BACKSLASHES;
+        final long flagged = ((lanes - CONTROL) | (quotes - ONES) | (backslashes - ONES)) & HIGH_BITS;
+        return (lanes & NON_ASCII) | ((lanes + TILDE_CARRY) & BIT_7) | flagged;
+    }
+
+    static boolean needsEscaping(final char c) {
+        return c < 0x20 || c >= '~' || c == '"' || c == '\\';
+    }
+}
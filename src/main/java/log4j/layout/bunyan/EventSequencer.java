@@ -0,0 +1,182 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package log4j.layout.bunyan;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Numbers events for the <code>seq</code> and <code>thread_seq</code> fields.
+ *
+ * <p>Sequence numbers are unique and increase within each thread. Rather than
+ * incrementing a shared counter for every event, each thread reserves a block
+ * of numbers from the shared counter and hands them out to its events, so
+ * threads logging concurrently only touch the shared counter once per block.
+ * As a result, numbers from different threads interleave in blocks, and the
+ * unused numbers of a block are skipped when its thread stops logging. A
+ * block size of one numbers events in the order they are written without
+ * skipping any, at the cost of every thread incrementing the shared counter.</p>
+ *
+ * <p>Thread sequence numbers count the events of each logging thread, starting
+ * from one. They are counted by the thread that encodes the events, which is
+ * the logging thread itself unless events are logged asynchronously. An
+ * encoding thread that has counted the events of too many threads forgets the
+ * threads that logged least recently, which start from one again if they log
+ * later.</p>
+ */
+public class EventSequencer {
+    public static final int DEFAULT_BLOCK_SIZE = 64;
+    /**
+     * Maximum number of logging threads whose events are counted per encoding
+     * thread, to bound the memory used when asynchronous logging encodes events
+     * from many short-lived threads. When the limit is reached, the half of
+     * the threads that logged least recently are forgotten.
+     */
+    static final int MAX_FOREIGN_THREADS = 4096;
+
+    private final AtomicLong nextBlock = new AtomicLong(1);
+    private final int blockSize;
+    private final ThreadLocal<State> states = ThreadLocal.withInitial(State::new);
+
+    /**
+     * @param blockSize number of sequence numbers reserved by a thread at a time
+     */
+    public EventSequencer(final int blockSize) {
+        if (blockSize <= 0) {
+            String msg = String.format("Sequence block size must be greater than zero: %d", blockSize);
+            throw new IllegalArgumentException(msg);
+        }
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * @return next sequence number
+     */
+    public long next() {
+        final State state = states.get();
+        if (state.next == state.limit) {
+            state.next = nextBlock.getAndAdd(blockSize);
+            state.limit = state.next + blockSize;
+        }
+        return state.next++;
+    }
+
+    /**
+     * @param threadId id of the thread that logged the event
+     * @return next sequence number of the thread
+     */
+    public long nextForThread(final long threadId) {
+        final State state = states.get();
+        if (threadId == state.threadId) {
+            return ++state.threadCount;
+        }
+        return state.nextForeign(threadId);
+    }
+
+    static final class State {
+        long next;
+        long limit;
+        final long threadId = Thread.currentThread().getId();
+        long threadCount;
+        /**
+         * Counts of threads other than the encoding thread, in an open
+         * addressing table where slots with a count of zero are empty, along
+         * with the tick at which each thread last logged. Null until events of
+         * another thread are encoded.
+         */
+        private long[] foreignIds;
+        private long[] foreignCounts;
+        private long[] foreignTicks;
+        private int foreignSize;
+        private long tick;
+
+        long nextForeign(final long id) {
+            if (foreignIds == null) {
+                rehash(16, 0);
+            }
+            tick++;
+            final int mask = foreignIds.length - 1;
+            int i = slot(id, mask);
+            while (foreignCounts[i] != 0) {
+                if (foreignIds[i] == id) {
+                    foreignTicks[i] = tick;
+                    return ++foreignCounts[i];
+                }
+                i = (i + 1) & mask;
+            }
+
+            if (foreignSize == MAX_FOREIGN_THREADS) {
+                evictLeastRecent();
+            } else if ((foreignSize + 1) * 2 > foreignIds.length) {
+                rehash(foreignIds.length * 2, 0);
+            }
+            put(id, 1, tick);
+            return 1;
+        }
+
+        /**
+         * Forgets the half of the threads that logged least recently, so that
+         * threads that are still logging keep their counts.
+         */
+        private void evictLeastRecent() {
+            final long[] ticks = new long[foreignSize];
+            int n = 0;
+            for (int j = 0; j < foreignCounts.length; j++) {
+                if (foreignCounts[j] != 0) {
+                    ticks[n++] = foreignTicks[j];
+                }
+            }
+            Arrays.sort(ticks);
+            rehash(foreignIds.length, ticks[foreignSize / 2]);
+        }
+
+        /**
+         * Moves the threads that logged at or after the given tick into new
+         * tables of the given length.
+         */
+        private void rehash(final int length, final long oldestKept) {
+            final long[] ids = foreignIds;
+            final long[] counts = foreignCounts;
+            final long[] used = foreignTicks;
+            foreignIds = new long[length];
+            foreignCounts = new long[length];
+            foreignTicks = new long[length];
+            foreignSize = 0;
+            if (ids == null) {
+                return;
+            }
+            for (int j = 0; j < ids.length; j++) {
+                if (counts[j] != 0 && used[j] >= oldestKept) {
+                    put(ids[j], counts[j], used[j]);
+                }
+            }
+        }
+
+        private void put(final long id, final long count, final long used) {
+            final int mask = foreignIds.length - 1;
+            int i = slot(id, mask);
+            while (foreignCounts[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            foreignIds[i] = id;
+            foreignCounts[i] = count;
+            foreignTicks[i] = used;
+            foreignSize++;
+        }
+
+        private static int slot(final long id, final int mask) {
+            return Long.hashCode(id * 0x9E3779B97F4A7C15L) & mask;
+        }
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package log4j.layout.bunyan;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.Appender;
+import org.apache.logging.log4j.core.Core;
+import org.apache.logging.log4j.core.Filter;
+import org.apache.logging.log4j.core.Layout;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.appender.AbstractOutputStreamAppender;
+import org.apache.logging.log4j.core.appender.OutputStreamManager;
+import org.apache.logging.log4j.core.config.AppenderRef;
+import org.apache.logging.log4j.core.config.Configuration;
+import org.apache.logging.log4j.core.config.Property;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.config.plugins.PluginElement;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderFactory;
+import org.apache.logging.log4j.core.filter.Filterable;
+import org.apache.logging.log4j.core.impl.LocationAware;
+import org.apache.logging.log4j.core.layout.ByteBufferDestination;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Appender that encodes each event once with its layout and writes the
+ * encoded bytes to several destination appenders, so the cost of encoding
+ * doesn't grow with the number of destinations.
+ *
+ * <p>Bytes are written directly to the manager of destinations that write
+ * to an output stream, such as <code>File</code>, <code>Console</code> or
+ * <code>Socket</code> appenders, and the layouts of those destinations are
+ * not used. Other destinations are passed the event to encode themselves.
+ * A destination that fails doesn't prevent the event from being written to
+ * the others.</p>
+ */
+@Plugin(name = "FanOut", category = Core.CATEGORY_NAME, elementType = Appender.ELEMENT_TYPE,
+        printObject = true)
+public class FanOutAppender extends AbstractAppender {
+    private final AppenderRef[] appenderRefs;
+    private final Configuration configuration;
+    private final ThreadLocal<StagingDestination> stagingDestinations =
+            ThreadLocal.withInitial(StagingDestination::new);
+    private volatile Destination[] destinations = new Destination[0];
+
+    @PluginBuilderFactory
+    public static <B extends Builder<B>> B newBuilder() {
+        return new Builder<B>().asBuilder();
+    }
+
+    public static class Builder<B extends Builder<B>> extends AbstractAppender.Builder<B>
+            implements org.apache.logging.log4j.core.util.Builder<FanOutAppender> {
+        @PluginElement("AppenderRef")
+        private AppenderRef[] appenderRefs;
+
+        @Override
+        public FanOutAppender build() {
+            final Layout<? extends Serializable> layout = getLayout();
+            if (layout == null) {
+                String msg = String.format("A layout must be set when using %s",
+                        FanOutAppender.class.getSimpleName());
+                throw new IllegalArgumentException(msg);
+            }
+            if (appenderRefs == null || appenderRefs.length == 0) {
+                String msg = String.format("At least one AppenderRef must be set when using %s",
+                        FanOutAppender.class.getSimpleName());
+                throw new IllegalArgumentException(msg);
+            }
+
+            return new FanOutAppender(getName(), getFilter(), layout, isIgnoreExceptions(),
+                    getPropertyArray(), appenderRefs, getConfiguration());
+        }
+
+        /**
+         * @param appenderRefs destinations to write encoded events to
+         * @return this builder
+         */
+        public B setAppenderRefs(final AppenderRef... appenderRefs) {
+            this.appenderRefs = appenderRefs;
+            return asBuilder();
+        }
+    }
+
+    protected FanOutAppender(final String name, final Filter filter,
+                             final Layout<? extends Serializable> layout,
+                             final boolean ignoreExceptions, final Property[] properties,
+                             final AppenderRef[] appenderRefs, final Configuration configuration) {
+        super(name, filter, layout, ignoreExceptions, properties);
+        this.appenderRefs = appenderRefs;
+        this.configuration = configuration;
+    }
+
+    /**
+     * Destinations are looked up when starting because appenders aren't
+     * necessarily created in the order they are referenced.
+     */
+    @Override
+    public void start() {
+        final List<Destination> resolved = new ArrayList<>(appenderRefs.length);
+        for (AppenderRef ref : appenderRefs) {
+            final Appender appender = configuration == null ? null : configuration.getAppender(ref.getRef());
+            if (appender == null) {
+                LOGGER.error("Fan-out destination appender not found [appender={},destination={}]",
+                        getName(), ref.getRef());
+                continue;
+            }
+            if (!(appender instanceof AbstractOutputStreamAppender)) {
+                LOGGER.warn("Fan-out destination appender doesn't write to an output stream, so it "
+                        + "encodes events itself [appender={},destination={},type={}]",
+                        getName(), ref.getRef(), appender.getClass().getName());
+            }
+            resolved.add(new Destination(appender, ref.getLevel(), ref.getFilter()));
+        }
+        this.destinations = resolved.toArray(new Destination[0]);
+        super.start();
+    }
+
+    @Override
+    public void append(final LogEvent event) {
+        final StagingDestination staging = stagingDestinations.get();
+        staging.clear();
+        getLayout().encode(event, staging);
+        final ByteBuffer encoded = staging.getByteBuffer();
+
+        for (Destination destination : destinations) {
+            if (destination.accepts(event)) {
+                destination.write(event, encoded.array(), encoded.arrayOffset(), encoded.position());
+            }
+        }
+    }
+
+    /**
+     * @return true if the layout or a destination that encodes events itself
+     *         requires the location of events
+     */
+    @Override
+    public boolean requiresLocation() {
+        if (super.requiresLocation()) {
+            return true;
+        }
+        for (Destination destination : destinations) {
+            if (destination.manager == null && destination.appender instanceof LocationAware
+                    && ((LocationAware) destination.appender).requiresLocation()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param destinationName name of a destination appender
+     * @return number of events that could not be written to the destination,
+     *         or -1 if it is not a destination of this appender
+     */
+    public long getFailureCount(final String destinationName) {
+        for (Destination destination : destinations) {
+            if (destination.appender.getName().equals(destinationName)) {
+                return destination.failures.sum();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Appender that encoded events are written to, along with the level and
+     * filter of its reference.
+     */
+    final class Destination {
+        final Appender appender;
+        final OutputStreamManager manager;
+        final boolean immediateFlush;
+        final Level level;
+        final Filter filter;
+        final LongAdder failures = new LongAdder();
+
+        Destination(final Appender appender, final Level level, final Filter filter) {
+            this.appender = appender;
+            this.level = level;
+            this.filter = filter;
+            if (appender instanceof AbstractOutputStreamAppender) {
+                final AbstractOutputStreamAppender<?> streamAppender = (AbstractOutputStreamAppender<?>) appender;
+                this.manager = streamAppender.getManager();
+                this.immediateFlush = streamAppender.getImmediateFlush();
+            } else {
+                this.manager = null;
+                this.immediateFlush = false;
+            }
+        }
+
+        boolean accepts(final LogEvent event) {
+            if (!appender.isStarted()) {
+                return false;
+            }
+            if (level != null && !event.getLevel().isMoreSpecificThan(level)) {
+                return false;
+            }
+            if (filter != null && filter.filter(event) == Filter.Result.DENY) {
+                return false;
+            }
+            return !(appender instanceof Filterable) || !((Filterable) appender).isFiltered(event);
+        }
+
+        void write(final LogEvent event, final byte[] bytes, final int offset, final int length) {
+            try {
+                if (manager == null) {
+                    appender.append(event);
+                    return;
+                }
+                manager.writeBytes(bytes, offset, length);
+                if (immediateFlush || event.isEndOfBatch()) {
+                    manager.flush();
+                }
+            } catch (RuntimeException e) {
+                failures.increment();
+                LOGGER.error("Unable to write event to fan-out destination [appender={},destination={}]",
+                        getName(), appender.getName(), e);
+            }
+        }
+    }
+
+    /**
+     * Collects the bytes of an encoded event in a heap buffer that grows as
+     * needed. A buffer that grew past the maximum retained size for an
+     * unusually large event is replaced before the next event.
+     */
+    static final class StagingDestination implements ByteBufferDestination {
+        static final int INITIAL_SIZE = 8 * 1024;
+        static final int MAX_RETAINED_SIZE = 64 * 1024;
+
+        private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_SIZE);
+
+        @Override
+        public ByteBuffer getByteBuffer() {
+            return buffer;
+        }
+
+        @Override
+        public ByteBuffer drain(final ByteBuffer buf) {
+            final ByteBuffer grown = ByteBuffer.allocate(buf.capacity() * 2);
+            buf.flip();
+            grown.put(buf);
+            buffer = grown;
+            return grown;
+        }
+
+        @Override
+        public void writeBytes(final ByteBuffer data) {
+            ensureRemaining(data.remaining());
+            buffer.put(data);
+        }
+
+        @Override
+        public void writeBytes(final byte[] data, final int offset, final int length) {
+            ensureRemaining(length);
+            buffer.put(data, offset, length);
+        }
+
+        private void ensureRemaining(final int length) {
+            if (buffer.remaining() < length) {
+                final ByteBuffer grown = ByteBuffer.allocate(
+                        Math.max(buffer.capacity() * 2, buffer.position() + length));
+                buffer.flip();
+                grown.put(buffer);
+                buffer = grown;
+            }
+        }
+
+        void clear() {
+            if (buffer.capacity() > MAX_RETAINED_SIZE) {
+                buffer = ByteBuffer.allocate(INITIAL_SIZE);
+            } else {
+                buffer.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package log4j.layout.bunyan;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Samples the time spent and bytes written for each field of one in every
+ * <code>sampleRate</code> events, so that the fields responsible for the
+ * cost of encoding can be found in production. Profiling is disabled unless
+ * a sample rate is configured, in which case no profiler is created.
+ *
+ * <p>Durations are aggregated into histograms with power of two buckets, so
+ * percentiles are reported as the upper bound of their bucket.</p>
+ */
+public class FieldProfiler implements FieldProfilerMBean {
+    /**
+     * One bucket for each bit of a positive long.
+     */
+    static final int BUCKETS = 64;
+
+    private final int sampleRate;
+    private final String[] fieldNames;
+    private final LongAdder sampledEvents = new LongAdder();
+    private final LongAdder[] counts;
+    private final LongAdder[] nanos;
+    private final LongAdder[] bytes;
+    private final AtomicLongArray[] histograms;
+
+    public FieldProfiler(final int sampleRate, final String[] fieldNames) {
+        if (sampleRate <= 0) {
+            String msg = String.format("Profile sample rate must be greater than zero [sampleRate=%d]", sampleRate);
+            throw new IllegalArgumentException(msg);
+        }
+
+        this.sampleRate = sampleRate;
+        this.fieldNames = fieldNames.clone();
+        this.counts = new LongAdder[fieldNames.length];
+        this.nanos = new LongAdder[fieldNames.length];
+        this.bytes = new LongAdder[fieldNames.length];
+        this.histograms = new AtomicLongArray[fieldNames.length];
+        for (int i = 0; i < fieldNames.length; i++) {
+            counts[i] = new LongAdder();
+            nanos[i] = new LongAdder();
+            bytes[i] = new LongAdder();
+            histograms[i] = new AtomicLongArray(BUCKETS);
+        }
+    }
+
+    /**
+     * Decides whether the current event is profiled. A random draw is used
+     * rather than a shared counter, so that threads don't contend and periodic
+     * logging patterns aren't sampled in lock step.
+     *
+     * @return true if the current event should be profiled
+     */
+    public boolean sample() {
+        return sampleRate == 1 || ThreadLocalRandom.current().nextInt(sampleRate) == 0;
+    }
+
+    void recordEvent() {
+        sampledEvents.increment();
+    }
+
+    /**
+     * @param field index of the field in the field names
+     * @param elapsedNanos time spent writing the field
+     * @param writtenBytes number of bytes written for the field
+     */
+    void recordField(final int field, final long elapsedNanos, final long writtenBytes) {
+        final long elapsed = Math.max(0L, elapsedNanos);
+        counts[field].increment();
+        nanos[field].add(elapsed);
+        bytes[field].add(writtenBytes);
+        histograms[field].incrementAndGet(bucket(elapsed));
+    }
+
+    static int bucket(final long value) {
+        return Math.min(BUCKETS - 1, BUCKETS - Long.numberOfLeadingZeros(value));
+    }
+
+    @Override
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    @Override
+    public long getSampledEventCount() {
+        return sampledEvents.sum();
+    }
+
+    @Override
+    public String[] getFieldNames() {
+        return fieldNames.clone();
+    }
+
+    /**
+     * @return number of sampled events in which each field was written
+     */
+    public long[] getWrittenCounts() {
+        final long[] result = new long[counts.length];
+        for (int i = 0; i < counts.length; i++) {
+            result[i] = counts[i].sum();
+        }
+        return result;
+    }
+
+    @Override
+    public long[] getTotalNanos() {
+        final long[] result = new long[nanos.length];
+        for (int i = 0; i < nanos.length; i++) {
+            result[i] = nanos[i].sum();
+        }
+        return result;
+    }
+
+    @Override
+    public long[] getTotalBytes() {
+        final long[] result = new long[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            result[i] = bytes[i].sum();
+        }
+        return result;
+    }
+
+    /**
+     * @param field index of the field in the field names
+     * @param percentile percentile between 0 and 100
+     * @return upper bound in nanoseconds of the bucket containing the percentile
+     *         or zero if the field hasn't been written
+     */
+    public long getNanosAtPercentile(final int field, final double percentile) {
+        final AtomicLongArray histogram = histograms[field];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += histogram.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        final long rank = Math.max(1L, (long) Math.ceil(total * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += histogram.get(i);
+            if (seen >= rank) {
+                return i == 0 ? 0 : (i >= BUCKETS - 1 ? Long.MAX_VALUE : (1L << i) - 1);
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public String getReport() {
+        final long[] written = getWrittenCounts();
+        final long[] totalNanos = getTotalNanos();
+        final long[] totalBytes = getTotalBytes();
+
+        final StringBuilder report = new StringBuilder();
+        report.append(String.format("sampled events: %d (1 in %d)%n", getSampledEventCount(), sampleRate));
+        report.append(String.format("%-20s %10s %12s %12s %12s %12s%n",
+                "field", "written", "mean ns", "p50 ns", "p99 ns", "mean bytes"));
+        for (int i = 0; i < fieldNames.length; i++) {
+            final long count = written[i];
+            report.append(String.format("%-20s %10d %12d %12d %12d %12d%n", fieldNames[i], count,
+                    count == 0 ? 0 : totalNanos[i] / count,
+                    getNanosAtPercentile(i, 50.0), getNanosAtPercentile(i, 99.0),
+                    count == 0 ? 0 : totalBytes[i] / count));
+        }
+        return report.toString();
+    }
+
+    @Override
+    public void reset() {
+        sampledEvents.reset();
+        for (int i = 0; i < fieldNames.length; i++) {
+            counts[i].reset();
+            nanos[i].reset();
+            bytes[i].reset();
+            for (int b = 0; b < BUCKETS; b++) {
+                histograms[i].set(b, 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package log4j.layout.bunyan;
+
+/**
+ * Management interface of {@link FieldProfiler} so that the profile of a
+ * layout can be registered with an MBean server and read with JMX tools.
+ */
+public interface FieldProfilerMBean {
+    /**
+     * @return one in how many events is profiled
+     */
+    int getSampleRate();
+
+    /**
+     * @return number of events that have been profiled
+     */
+    long getSampledEventCount();
+
+    /**
+     * @return names of the profiled fields in the order they are written
+     */
+    String[] getFieldNames();
+
+    /**
+     * @return total nanoseconds spent writing each field of the sampled events
+     */
+    long[] getTotalNanos();
+
+    /**
+     * @return total bytes written for each field of the sampled events
+     */
+    long[] getTotalBytes();
+
+    /**
+     * @return table of the encode cost of each field
+     */
+    String getReport();
+
+    /**
+     * Discards everything that has been recorded.
+     */
+    void reset();
+}
@@ -0,0 +1,37 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package log4j.layout.bunyan;
+
+import com.dslplatform.json.JsonWriter;
+import org.apache.logging.log4j.core.LogEvent;
+
+/**
+ * Writes a single top-level field of a Bunyan log record. Field writers are
+ * compiled once at configuration time into a flat array that is iterated for
+ * each log event.
+ */
+@FunctionalInterface
+public interface FieldWriter {
+    /**
+     * Writes the field for the given event if the event has a value for it.
+     *
+     * @param writer JSON writer to write to
+     * @param event log event to read the field value from
+     * @param scratch empty builder that may be used to format values and must be
+     *                left empty when the field has been written
+     * @param prefixComma true if a comma must be written before the field
+     * @return true if the field was written, false if it was skipped
+     */
+    boolean write(JsonWriter writer, LogEvent event, StringBuilder scratch, boolean prefixComma);
+}
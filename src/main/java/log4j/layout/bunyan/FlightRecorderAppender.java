@@ -0,0 +1,305 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package log4j.layout.bunyan;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.Appender;
+import org.apache.logging.log4j.core.Core;
+import org.apache.logging.log4j.core.Filter;
+import org.apache.logging.log4j.core.Layout;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.appender.AbstractOutputStreamAppender;
+import org.apache.logging.log4j.core.appender.OutputStreamManager;
+import org.apache.logging.log4j.core.config.Configuration;
+import org.apache.logging.log4j.core.config.Property;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderAttribute;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderFactory;
+import org.apache.logging.log4j.core.layout.ByteBufferDestination;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appender that keeps the most recent records of all events it receives in a
+ * {@link FlightRecorderRing} and writes the records of the last seconds to
+ * another appender when an event at or above a trigger level is appended or
+ * when {@link #dump()} is called. This makes the debug records preceding an
+ * error available without writing every debug record to disk.
+ *
+ * <p>Records are written to the destination appender's manager as they were
+ * encoded, so the destination must be an appender that writes to an output
+ * stream, such as a <code>File</code> or <code>RandomAccessFile</code>
+ * appender. Records that have been dumped are not dumped again.</p>
+ */
+@Plugin(name = "FlightRecorder", category = Core.CATEGORY_NAME, elementType = Appender.ELEMENT_TYPE,
+        printObject = true)
+public class FlightRecorderAppender extends AbstractAppender {
+    public static final int DEFAULT_SIZE = 8 * 1024 * 1024;
+    public static final int DEFAULT_SLOT_SIZE = 256;
+    public static final int DEFAULT_DUMP_SECONDS = 60;
+
+    private final FlightRecorderRing ring;
+    private final Level triggerLevel;
+    private final long dumpMillis;
+    private final String destination;
+    private final Configuration configuration;
+    private final ThreadLocal<RingDestination> destinations;
+    private final Object dumpLock = new Object();
+    /**
+     * Sequence of the ring from which the next dump starts. Guarded by the dump lock.
+     */
+    private long dumpedSequence;
+    private long dumpCount;
+
+    @PluginBuilderFactory
+    public static <B extends Builder<B>> B newBuilder() {
+        return new Builder<B>().asBuilder();
+    }
+
+    public static class Builder<B extends Builder<B>> extends AbstractAppender.Builder<B>
+            implements org.apache.logging.log4j.core.util.Builder<FlightRecorderAppender> {
+        @PluginBuilderAttribute
+        private int size = DEFAULT_SIZE;
+        @PluginBuilderAttribute
+        private int slotSize = DEFAULT_SLOT_SIZE;
+        @PluginBuilderAttribute
+        private int dumpSeconds = DEFAULT_DUMP_SECONDS;
+        @PluginBuilderAttribute
+        private Level triggerLevel = Level.ERROR;
+        @PluginBuilderAttribute
+        private String destination;
+
+        @Override
+        public FlightRecorderAppender build() {
+            final Layout<? extends Serializable> layout = getLayout();
+            if (layout == null) {
+                String msg = String.format("A layout must be set when using %s",
+                        FlightRecorderAppender.class.getSimpleName());
+                throw new IllegalArgumentException(msg);
+            }
+            if (destination == null || destination.isEmpty()) {
+                String msg = String.format("destination attribute must be set when using %s",
+                        FlightRecorderAppender.class.getSimpleName());
+                throw new IllegalArgumentException(msg);
+            }
+            if (dumpSeconds <= 0) {
+                String msg = String.format("dumpSeconds must be greater than zero: %d", dumpSeconds);
+                throw new IllegalArgumentException(msg);
+            }
+
+            return new FlightRecorderAppender(getName(), getFilter(), layout, isIgnoreExceptions(),
+                    getPropertyArray(), new FlightRecorderRing(size, slotSize), triggerLevel,
+                    TimeUnit.SECONDS.toMillis(dumpSeconds), destination, getConfiguration());
+        }
+
+        /**
+         * @param size size in bytes of the ring of records
+         * @return this builder
+         */
+        public B setSize(final int size) {
+            this.size = size;
+            return asBuilder();
+        }
+
+        /**
+         * @param slotSize size in bytes of the slots the ring is divided into
+         * @return this builder
+         */
+        public B setSlotSize(final int slotSize) {
+            this.slotSize = slotSize;
+            return asBuilder();
+        }
+
+        public B setDumpSeconds(final int dumpSeconds) {
+            this.dumpSeconds = dumpSeconds;
+            return asBuilder();
+        }
+
+        /**
+         * @param triggerLevel events at this level or more severe trigger a
+         *                     dump, null to only dump when requested
+         * @return this builder
+         */
+        public B setTriggerLevel(final Level triggerLevel) {
+            this.triggerLevel = triggerLevel;
+            return asBuilder();
+        }
+
+        /**
+         * @param destination name of the appender that records are dumped to
+         * @return this builder
+         */
+        public B setDestination(final String destination) {
+            this.destination = destination;
+            return asBuilder();
+        }
+    }
+
+    protected FlightRecorderAppender(final String name, final Filter filter,
+                                     final Layout<? extends Serializable> layout,
+                                     final boolean ignoreExceptions, final Property[] properties,
+                                     final FlightRecorderRing ring, final Level triggerLevel,
+                                     final long dumpMillis, final String destination,
+                                     final Configuration configuration) {
+        super(name, filter, layout, ignoreExceptions, properties);
+        this.ring = ring;
+        this.triggerLevel = triggerLevel;
+        this.dumpMillis = dumpMillis;
+        this.destination = destination;
+        this.configuration = configuration;
+        this.destinations = ThreadLocal.withInitial(() -> new RingDestination(ring));
+    }
+
+    public FlightRecorderRing getRing() {
+        return ring;
+    }
+
+    /**
+     * @return number of dumps that have been written
+     */
+    public long getDumpCount() {
+        synchronized (dumpLock) {
+            return dumpCount;
+        }
+    }
+
+    @Override
+    public void append(final LogEvent event) {
+        final RingDestination ringDestination = destinations.get();
+        ringDestination.timeMillis = event.getTimeMillis();
+        getLayout().encode(event, ringDestination);
+        ringDestination.flushStaged();
+
+        if (triggerLevel != null && event.getLevel().isMoreSpecificThan(triggerLevel)) {
+            dump();
+        }
+    }
+
+    /**
+     * Writes the records of the last <code>dumpSeconds</code> that haven't
+     * been dumped yet to the destination appender.
+     *
+     * @return number of records written
+     */
+    public int dump() {
+        final OutputStreamManager manager = destinationManager();
+        if (manager == null) {
+            return 0;
+        }
+
+        synchronized (dumpLock) {
+            final FlightRecorderRing.Snapshot snapshot =
+                    ring.snapshot(dumpedSequence, System.currentTimeMillis() - dumpMillis);
+            for (byte[] record : snapshot.getRecords()) {
+                manager.writeBytes(record, 0, record.length);
+            }
+            manager.flush();
+            dumpedSequence = snapshot.getNextSequence();
+            dumpCount++;
+            return snapshot.getRecords().size();
+        }
+    }
+
+    /**
+     * The destination is looked up when dumping because appenders aren't
+     * necessarily created in the order they are referenced.
+     */
+    private OutputStreamManager destinationManager() {
+        final Appender appender = configuration == null ? null : configuration.getAppender(destination);
+        if (appender instanceof AbstractOutputStreamAppender) {
+            return ((AbstractOutputStreamAppender<?>) appender).getManager();
+        }
+
+        if (appender == null) {
+            LOGGER.error("Flight recorder destination appender not found [appender={},destination={}]",
+                    getName(), destination);
+        } else {
+            LOGGER.error("Flight recorder destination appender doesn't write to an output stream "
+                    + "[appender={},destination={},type={}]", getName(), destination, appender.getClass().getName());
+        }
+        return null;
+    }
+
+    /**
+     * Copies the records written by a layout into the ring. Layouts that write
+     * into {@link #getByteBuffer()} are staged in a heap buffer that grows as
+     * needed, so that each event is a single record.
+     */
+    static final class RingDestination implements ByteBufferDestination {
+        static final int INITIAL_STAGING_SIZE = 8 * 1024;
+        static final int MAX_RETAINED_STAGING_SIZE = 64 * 1024;
+
+        private final FlightRecorderRing ring;
+        private ByteBuffer staging;
+        long timeMillis;
+
+        RingDestination(final FlightRecorderRing ring) {
+            this.ring = ring;
+        }
+
+        @Override
+        public ByteBuffer getByteBuffer() {
+            if (staging == null) {
+                staging = ByteBuffer.allocate(INITIAL_STAGING_SIZE);
+            }
+            return staging;
+        }
+
+        @Override
+        public ByteBuffer drain(final ByteBuffer buf) {
+            final ByteBuffer grown = ByteBuffer.allocate(buf.capacity() * 2);
+            buf.flip();
+            grown.put(buf);
+            staging = grown;
+            return grown;
+        }
+
+        @Override
+        public void writeBytes(final ByteBuffer data) {
+            final ByteBuffer buffer = getByteBuffer();
+            if (buffer.remaining() < data.remaining()) {
+                final ByteBuffer grown = ByteBuffer.allocate(buffer.position() + data.remaining());
+                buffer.flip();
+                grown.put(buffer);
+                staging = grown;
+            }
+            staging.put(data);
+        }
+
+        @Override
+        public void writeBytes(final byte[] data, final int offset, final int length) {
+            // Keep the event in one record if part of it has already been staged
+            if (staging != null && staging.position() > 0) {
+                writeBytes(ByteBuffer.wrap(data, offset, length));
+                return;
+            }
+            ring.write(timeMillis, data, offset, length);
+        }
+
+        void flushStaged() {
+            if (staging != null && staging.position() > 0) {
+                ring.write(timeMillis, staging.array(), staging.arrayOffset(), staging.position());
+                // Release a buffer that grew for an unusually large event
+                if (staging.capacity() > MAX_RETAINED_STAGING_SIZE) {
+                    staging = null;
+                } else {
+                    staging.clear();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,332 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package log4j.layout.bunyan;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed-size ring of encoded records in off-heap memory that any number of
+ * threads write to without locking. The ring is divided into slots of equal
+ * size and each record occupies as many consecutive slots as it needs.
+ * Writers reserve slots by advancing a shared sequence, claim the stamp of
+ * each slot with a compare-and-set and then copy their record into them,
+ * overwriting the oldest records.
+ *
+ * <p>Each slot has a stamp that works like a sequence lock. While a record is
+ * being written, the stamps of its slots are negative. Once it is complete,
+ * they hold the sequence of the record's first slot plus one. Readers check
+ * the stamps before and after copying a record and discard records that were
+ * overwritten while they were being copied. Writers never wait for readers.</p>
+ *
+ * <p>Writers never wait for other writers either. A writer that laps another
+ * writer which is still copying into the same slots drops its record and
+ * counts it as dropped, so a writer that is preempted while copying can't
+ * stall the writers behind it. A writer that finds its slots already claimed
+ * by a newer record gives up, as if its record had been written and
+ * overwritten straight away, instead of overwriting the newer one.</p>
+ */
+public class FlightRecorderRing {
+    /**
+     * Event time in milliseconds followed by the length of the record.
+     */
+    static final int HEADER_SIZE = Long.BYTES + Integer.BYTES;
+
+    private static final int CLAIMED = 0;
+    /**
+     * The slot was claimed by a newer record, which the record must not overwrite.
+     */
+    private static final int SUPERSEDED = 1;
+    /**
+     * An older record is still being copied into the slot.
+     */
+    private static final int BUSY = 2;
+
+    private final ByteBuffer buffer;
+    private final int slotSize;
+    private final int slotCount;
+    private final int slotMask;
+    private final AtomicLongArray stamps;
+    private final AtomicLong nextSequence = new AtomicLong();
+    private final LongAdder droppedRecords = new LongAdder();
+    /**
+     * Views of the buffer per thread, because relative bulk copies move the
+     * position of the buffer they are made through.
+     */
+    private final ThreadLocal<ByteBuffer> views;
+
+    /**
+     * @param capacity size in bytes of the ring, rounded up so that the number
+     *                 of slots is a power of two
+     * @param slotSize size in bytes of each slot
+     */
+    public FlightRecorderRing(final int capacity, final int slotSize) {
+        if (slotSize <= HEADER_SIZE) {
+            String msg = String.format("Slot size must be larger than %d bytes: %d", HEADER_SIZE, slotSize);
+            throw new IllegalArgumentException(msg);
+        }
+        if (capacity < slotSize * 2) {
+            String msg = String.format("Capacity must hold at least two slots [capacity=%d,slotSize=%d]",
+                    capacity, slotSize);
+            throw new IllegalArgumentException(msg);
+        }
+
+        final int slots = Integer.highestOneBit(capacity / slotSize - 1) << 1;
+        if ((long) slots * slotSize > Integer.MAX_VALUE) {
+            String msg = String.format("Capacity is too large: %d", capacity);
+            throw new IllegalArgumentException(msg);
+        }
+
+        this.slotSize = slotSize;
+        this.slotCount = slots;
+        this.slotMask = slots - 1;
+        this.buffer = ByteBuffer.allocateDirect(slots * slotSize);
+        this.stamps = new AtomicLongArray(slots);
+        this.views = ThreadLocal.withInitial(buffer::duplicate);
+    }
+
+    /**
+     * Copies a record into the ring.
+     *
+     * @param timeMillis time of the event the record was encoded from
+     * @param data array containing the record
+     * @param offset offset of the record in the array
+     * @param length length of the record
+     * @return false if the record was dropped because it is larger than the
+     *         ring or because a writer that it lapped is still copying into
+     *         its slots
+     */
+    public boolean write(final long timeMillis, final byte[] data, final int offset, final int length) {
+        final int slots = slotsFor(length);
+        if (slots > slotCount) {
+            droppedRecords.increment();
+            return false;
+        }
+
+        final long first = nextSequence.getAndAdd(slots);
+        final long writing = -(first + 1);
+        /* Claiming the slots with an atomic read-modify-write rather than a
+         * plain volatile write ensures that the copy below can't be reordered
+         * before the claim. */
+        for (int i = 0; i < slots; i++) {
+            final int claim = claim(index(first + i), writing);
+            if (claim != CLAIMED) {
+                for (int j = 0; j < i; j++) {
+                    stamps.compareAndSet(index(first + j), writing, 0);
+                }
+                if (claim == BUSY) {
+                    droppedRecords.increment();
+                    return false;
+                }
+                return true;
+            }
+        }
+
+        copy(first, timeMillis, data, offset, length);
+
+        final long complete = first + 1;
+        for (int i = 0; i < slots; i++) {
+            stamps.set(index(first + i), complete);
+        }
+        return true;
+    }
+
+    /**
+     * Copies the header and data of a record into the slots that have been
+     * claimed for it.
+     */
+    void copy(final long first, final long timeMillis, final byte[] data, final int offset, final int length) {
+        final ByteBuffer view = views.get();
+        final int start = position(first);
+        view.putLong(start, timeMillis);
+        view.putInt(start + Long.BYTES, length);
+
+        int copied = 0;
+        int slot = 0;
+        int slotOffset = HEADER_SIZE;
+        while (copied < length) {
+            final int chunk = Math.min(length - copied, slotSize - slotOffset);
+            view.position(position(first + slot) + slotOffset);
+            view.put(data, offset + copied, chunk);
+            copied += chunk;
+            slot++;
+            slotOffset = 0;
+        }
+    }
+
+    /**
+     * Marks a slot as being written by the record with the given stamp. Only
+     * retries when the stamp changed between reading and replacing it, so it
+     * never waits for another writer.
+     *
+     * @return {@link #CLAIMED}, {@link #SUPERSEDED} or {@link #BUSY}
+     */
+    private int claim(final int index, final long writing) {
+        while (true) {
+            final long current = stamps.get(index);
+            if (Math.abs(current) > -writing) {
+                return SUPERSEDED;
+            }
+            if (current < 0) {
+                return BUSY;
+            }
+            if (stamps.compareAndSet(index, current, writing)) {
+                return CLAIMED;
+            }
+        }
+    }
+
+    /**
+     * Copies the complete records that are still in the ring, oldest first.
+     *
+     * @param fromSequence sequence to start from, records before it are skipped
+     * @param minTimeMillis records of events older than this are skipped
+     * @return records along with the sequence following the last one read
+     */
+    public Snapshot snapshot(final long fromSequence, final long minTimeMillis) {
+        final long end = nextSequence.get();
+        long sequence = Math.max(fromSequence, end - slotCount);
+        final List<byte[]> records = new ArrayList<>();
+
+        while (sequence < end) {
+            final Record record = read(sequence);
+            if (record == null) {
+                sequence++;
+                continue;
+            }
+            if (record.timeMillis >= minTimeMillis) {
+                records.add(record.data);
+            }
+            sequence += record.slots;
+        }
+
+        return new Snapshot(records, end);
+    }
+
+    /**
+     * @return the record starting at the sequence or null if no complete
+     *         record starts there
+     */
+    Record read(final long sequence) {
+        final long stamp = sequence + 1;
+        if (stamps.get(index(sequence)) != stamp) {
+            return null;
+        }
+
+        final ByteBuffer view = views.get();
+        final int start = position(sequence);
+        final long timeMillis = view.getLong(start);
+        final int length = view.getInt(start + Long.BYTES);
+        if (length < 0 || length > (long) slotCount * slotSize - HEADER_SIZE) {
+            return null;
+        }
+        final int slots = slotsFor(length);
+        for (int i = 1; i < slots; i++) {
+            if (stamps.get(index(sequence + i)) != stamp) {
+                return null;
+            }
+        }
+
+        final byte[] data = new byte[length];
+        int copied = 0;
+        int slot = 0;
+        int slotOffset = HEADER_SIZE;
+        while (copied < length) {
+            final int chunk = Math.min(length - copied, slotSize - slotOffset);
+            view.position(position(sequence + slot) + slotOffset);
+            view.get(data, copied, chunk);
+            copied += chunk;
+            slot++;
+            slotOffset = 0;
+        }
+
+        /* A compare-and-set that doesn't change the stamp is used instead of
+         * a volatile read so that the copy can't be reordered after the check. */
+        for (int i = 0; i < slots; i++) {
+            if (!stamps.compareAndSet(index(sequence + i), stamp, stamp)) {
+                return null;
+            }
+        }
+
+        return new Record(timeMillis, data, slots);
+    }
+
+    int slotsFor(final int length) {
+        return (int) ((HEADER_SIZE + (long) length + slotSize - 1) / slotSize);
+    }
+
+    private int index(final long sequence) {
+        return (int) (sequence & slotMask);
+    }
+
+    private int position(final long sequence) {
+        return index(sequence) * slotSize;
+    }
+
+    /**
+     * @return size in bytes of the ring
+     */
+    public int getCapacity() {
+        return slotCount * slotSize;
+    }
+
+    /**
+     * @return number of records dropped because they were larger than the
+     *         ring or lapped a writer that was still copying
+     */
+    public long getDroppedRecordCount() {
+        return droppedRecords.sum();
+    }
+
+    static final class Record {
+        final long timeMillis;
+        final byte[] data;
+        final int slots;
+
+        Record(final long timeMillis, final byte[] data, final int slots) {
+            this.timeMillis = timeMillis;
+            this.data = data;
+            this.slots = slots;
+        }
+    }
+
+    /**
+     * Records copied out of the ring.
+     */
+    public static final class Snapshot {
+        private final List<byte[]> records;
+        private final long nextSequence;
+
+        Snapshot(final List<byte[]> records, final long nextSequence) {
+            this.records = records;
+            this.nextSequence = nextSequence;
+        }
+
+        public List<byte[]> getRecords() {
+            return records;
+        }
+
+        /**
+         * @return sequence to start the next snapshot from so that records
+         *         aren't copied twice
+         */
+        public long getNextSequence() {
+            return nextSequence;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package log4j.layout.bunyan;
+
+/**
+ * Enum class of the ways that encoded log records can be delimited from
+ * each other when they are written to a destination.
+ */
+public enum Framing {
+    /**
+     * Records are delimited by the end of line sequence only.
+     */
+    EOL("eol", 0),
+    /**
+     * Records are prefixed with their length in bytes as a 4-byte big-endian integer.
+     */
+    LENGTH_PREFIXED("lengthPrefixed", 4),
+    /**
+     * Records are prefixed with their length in bytes as ASCII digits followed
+     * by a space as specified by the octet counting method of RFC 6587.
+     *
+     * @see <a href="https://www.rfc-editor.org/rfc/rfc6587#section-3.4.1">RFC 6587 section 3.4.1</a>
+     */
+    OCTET_COUNTING("octetCounting", 11);
+
+    public final String framingName;
+    /**
+     * Number of bytes reserved in front of a record for its prefix. This is
+     * the largest prefix needed for a record of {@link Integer#MAX_VALUE} bytes.
+     */
+    public final int reservedBytes;
+
+    Framing(final String framingName, final int reservedBytes) {
+        this.framingName = framingName;
+        this.reservedBytes = reservedBytes;
+    }
+
+    /**
+     * Finds the framing with the given name.
+     * @param framingName name of framing as used in configuration or null for the default
+     * @return matching framing
+     * @throws IllegalArgumentException when there is no matching framing
+     */
+    public static Framing fromFramingName(final String framingName) {
+        if (framingName == null || framingName.isEmpty()) {
+            return EOL;
+        }
+
+        for (Framing framing : values()) {
+            if (framing.framingName.equals(framingName)) {
+                return framing;
+            }
+        }
+
+        String msg = String.format("Unknown framing specified: %s", framingName);
+        throw new IllegalArgumentException(msg);
+    }
+
+    /**
+     * Writes the prefix of a record into the space reserved in front of it.
+     * The prefix is written so that it ends immediately before the record.
+     *
+     * @param buffer buffer containing the reserved bytes followed by the record
+     * @param size number of bytes used in the buffer including the reserved bytes
+     * @return offset in the buffer at which the framed record starts
+     */
+    public int writePrefix(final byte[] buffer, final int size) {
+        final int length = size - reservedBytes;
+
+        switch (this) {
+            case LENGTH_PREFIXED:
+                buffer[0] = (byte) (length >>> 24);
+                buffer[1] = (byte) (length >>> 16);
+                buffer[2] = (byte) (length >>> 8);
+                buffer[3] = (byte) length;
+                return 0;
+            case OCTET_COUNTING:
+                int offset = reservedBytes - 1;
+                buffer[offset] = ' ';
+                int remaining = length;
+                do {
+                    buffer[--offset] = (byte) ('0' + remaining % 10);
+                    remaining /= 10;
+                } while (remaining > 0);
+                return offset;
+            default:
+                return 0;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package log4j.layout.bunyan;
+
+import com.dslplatform.json.JsonWriter;
+import com.dslplatform.json.NumberConverter;
+import org.apache.logging.log4j.Level;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Table of the pre-encoded <code>"level":NN</code> fragments for each Log4j
+ * {@link Level}. Levels are canonical instances, so fragments are looked up by
+ * identity rather than converted for each event. Fragments for levels that
+ * are first seen while logging, such as custom levels defined after the
+ * layout was configured, are added to the table on first use.
+ */
+public class LevelEncoder {
+    private final String key;
+    private final Map<String, BunyanLevelMapping> mappings;
+    /**
+     * Copy-on-write table that is never modified after being published.
+     */
+    private volatile IdentityHashMap<Level, byte[]> encodings;
+
+    /**
+     * @param key key to write the level number as
+     * @param levelMappings mappings of Log4j levels onto Bunyan levels
+     */
+    public LevelEncoder(final String key, final BunyanLevelMapping[] levelMappings) {
+        this.key = key;
+
+        final Map<String, BunyanLevelMapping> byName = new HashMap<>(levelMappings.length);
+        for (BunyanLevelMapping mapping : levelMappings) {
+            if (byName.put(mapping.getLevel(), mapping) != null) {
+                String msg = String.format("Duplicate level (%s) specified for LevelMapping", mapping.getLevel());
+                throw new IllegalArgumentException(msg);
+            }
+        }
+        this.mappings = Collections.unmodifiableMap(byName);
+
+        final IdentityHashMap<Level, byte[]> initial = new IdentityHashMap<>();
+        for (Level level : Level.values()) {
+            initial.put(level, encode(level));
+        }
+        this.encodings = initial;
+    }
+
+    /**
+     * @param level level of the event
+     * @return pre-encoded level key and value along with the level name when
+     *         one is written
+     */
+    public byte[] encoding(final Level level) {
+        final byte[] encoding = encodings.get(level);
+        if (encoding != null) {
+            return encoding;
+        }
+        return addEncoding(level);
+    }
+
+    private synchronized byte[] addEncoding(final Level level) {
+        final byte[] existing = encodings.get(level);
+        if (existing != null) {
+            return existing;
+        }
+
+        final byte[] encoding = encode(level);
+        final IdentityHashMap<Level, byte[]> updated = new IdentityHashMap<>(encodings);
+        updated.put(level, encoding);
+        encodings = updated;
+        return encoding;
+    }
+
+    protected byte[] encode(final Level level) {
+        final BunyanLevelMapping mapping = mappings.get(level.name());
+        final boolean knownLevel = BunyanLevel.isKnownLevel(level);
+
+        final int bunyanLevel;
+        final String levelName;
+        if (mapping != null) {
+            bunyanLevel = mapping.getBunyanLevel();
+            if (mapping.getName() != null) {
+                levelName = mapping.getName();
+            } else {
+                levelName = knownLevel ? null : level.name();
+            }
+        } else {
+            bunyanLevel = BunyanLevel.toBunyanIntLevel(level);
+            // Only add the level_name property when we have a custom logger level
+            levelName = knownLevel ? null : level.name();
+        }
+
+        final JsonWriter writer = EncodeBuffers.newWriter();
+        writer.writeString(key);
+        writer.writeByte(JsonWriter.SEMI);
+        NumberConverter.serialize(bunyanLevel, writer);
+        if (levelName != null) {
+            writer.writeByte(JsonWriter.COMMA);
+            writer.writeString("level_name");
+            writer.writeByte(JsonWriter.SEMI);
+            writer.writeString(levelName);
+        }
+        return writer.toByteArray();
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package log4j.layout.bunyan;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads lines from a channel into a buffer that lines are used from without
+ * being copied. The current line is only valid until {@link #next()} is
+ * called again. The buffer only grows to hold lines that are longer than it.
+ */
+final class LineReader implements Closeable {
+    /**
+     * Initial size of the read buffer, and of the buffer gzip compressed
+     * files are decompressed through.
+     */
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    private final ReadableByteChannel channel;
+    byte[] buffer = new byte[BUFFER_SIZE];
+    /**
+     * Index of the first byte of the current line in the buffer.
+     */
+    int lineStart;
+    /**
+     * Index following the last byte of the current line in the buffer,
+     * excluding the line separator.
+     */
+    int lineEnd;
+    /**
+     * Offset in the channel of the first byte of the buffer.
+     */
+    private long bufferOffset;
+    private int position;
+    private int limit;
+    private int scanned;
+    private boolean endOfFile;
+
+    /**
+     * @param channel channel to read lines from
+     * @param offset offset in the channel that the next byte read from it is at
+     */
+    LineReader(final ReadableByteChannel channel, final long offset) {
+        this.channel = channel;
+        this.bufferOffset = offset;
+    }
+
+    /**
+     * Opens a file as a channel, decompressing it when it starts with the
+     * gzip magic number.
+     */
+    static ReadableByteChannel open(final Path file) throws IOException {
+        final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            if (isGzip(channel)) {
+                return Channels.newChannel(new GZIPInputStream(Channels.newInputStream(channel), BUFFER_SIZE));
+            }
+            return channel;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return true if the channel starts with the gzip magic number, the
+     *         position of the channel is reset to the start either way
+     */
+    static boolean isGzip(final FileChannel channel) throws IOException {
+        final ByteBuffer magic = ByteBuffer.allocate(2);
+        while (magic.hasRemaining()) {
+            if (channel.read(magic, magic.position()) < 0) {
+                break;
+            }
+        }
+        channel.position(0);
+        return magic.position() == 2 && (magic.get(0) & 0xff) == 0x1f && (magic.get(1) & 0xff) == 0x8b;
+    }
+
+    /**
+     * Advances to the next line, which may be empty. A trailing carriage
+     * return is not part of the line.
+     *
+     * @return false if there are no more lines
+     */
+    boolean next() throws IOException {
+        while (true) {
+            int newline = -1;
+            for (int i = scanned; i < limit; i++) {
+                if (buffer[i] == '\n') {
+                    newline = i;
+                    break;
+                }
+            }
+
+            final int end;
+            if (newline >= 0) {
+                end = newline;
+                scanned = newline + 1;
+            } else if (endOfFile) {
+                if (position == limit) {
+                    return false;
+                }
+                end = limit;
+                scanned = limit;
+            } else {
+                scanned = limit;
+                fill();
+                continue;
+            }
+
+            lineStart = position;
+            lineEnd = end > lineStart && buffer[end - 1] == '\r' ? end - 1 : end;
+            position = scanned;
+            return true;
+        }
+    }
+
+    /**
+     * @return offset in the channel of the first byte of the current line
+     */
+    long lineOffset() {
+        return bufferOffset + lineStart;
+    }
+
+    private void fill() throws IOException {
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            bufferOffset += position;
+            limit -= position;
+            scanned -= position;
+            position = 0;
+        }
+        if (limit == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        final int read = channel.read(ByteBuffer.wrap(buffer, limit, buffer.length - limit));
+        if (read < 0) {
+            endOfFile = true;
+        } else {
+            limit += read;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -26,61 +26,143 @@ import org.apache.logging.log4j.core.pattern.ThrowablePatternConverter;
 import org.apache.logging.log4j.core.util.KeyValuePair;
 import org.apache.logging.log4j.message.Message;
 import org.apache.logging.log4j.status.StatusLogger;
+import org.apache.logging.log4j.util.IndexedReadOnlyStringMap;
+import org.apache.logging.log4j.util.ProcessIdUtil;
 import org.apache.logging.log4j.util.ReadOnlyStringMap;
 
-import java.lang.management.ManagementFactory;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
-import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 public class LogEventJsonWriter implements JsonWriter.WriteObject<LogEvent> {
     private static final Logger LOGGER = StatusLogger.getLogger();
     private static final int BUNYAN_VERSION = 0;
-    private static final byte[] VERSION_BYTES = String.format("\"v\":%d", BUNYAN_VERSION)
-            .getBytes(StandardCharsets.UTF_8);
     private static final String HOSTNAME = lookupHostname();
-    private static final byte[] PID_BYTES = String.format("\"pid\":%d", lookupPid())
-            .getBytes(StandardCharsets.UTF_8);
+    private static final long PID = lookupPid();
     private static final ThreadLocal<StringBuilder> buffer = ThreadLocal.withInitial(StringBuilder::new);
     private static final Set<String> RESERVED_KEYS = reservedKeys();
 
     private final byte[] eol;
     private final int maxMessageLength;
     private final KeyValuePair[] dynamicAdditionalFields;
+    private final String[] cachedAdditionalFieldKeys;
+    private final CachedLookup[] cachedAdditionalFields;
     private final KeyValuePair[] staticAdditionalFields;
+    private final byte[] staticAdditionalFieldBytes;
     private final boolean includeAllContextProperties;
     private final StrSubstitutor strSubstitutor;
     private final ThrowablePatternConverter throwablePatternConverter;
+    private final StackTraceFingerprints stackTraceFingerprints;
     private final DatePatternConverter datePatternConverter = DatePatternConverterFactory.instance();
-    private final ContextPropertiesTriConsumer contextPropertiesTriConsumer =
-            new ContextPropertiesTriConsumer(buffer);
     private final String appName;
+    /**
+     * Levels of the field profiles from the most to the least severe.
+     */
+    private final int[] profileLevels;
+    /**
+     * Compiled field writers of each profile in the order of
+     * {@link #profileLevels}, followed by the writers of the default fields.
+     */
+    private final FieldWriter[][] fieldWritersBySelection;
+    /**
+     * Index in {@link #fieldKeys} of each field writer, in the same order as
+     * {@link #fieldWritersBySelection}.
+     */
+    private final int[][] fieldIndexesBySelection;
+    /**
+     * Union of the keys of all selections, in the order they are first selected.
+     */
+    private final String[] fieldKeys;
+    /**
+     * Field selected under each key in {@link #fieldKeys}.
+     */
+    private final BunyanField[] fieldTypes;
+    private final Redactor redactor;
+    private final BunyanLevelMapping[] levelMappings;
+    /**
+     * Null unless profiling is enabled.
+     */
+    private final FieldProfiler profiler;
+    /**
+     * Null unless oversized values are spilled to side files.
+     */
+    private final PayloadSpiller spiller;
+    private final int messageCacheSize;
+    private final boolean includeLocation;
+    private final EventSequencer sequencer;
 
     public LogEventJsonWriter(final String rawAppName,
                               final ThrowablePatternConverter throwablePatternConverter,
+                              final StackTraceFingerprints stackTraceFingerprints,
                               final KeyValuePair[] additionalFields,
                               final StrSubstitutor strSubstitutor,
                               final boolean includeAllContextProperties,
                               final byte[] eol,
-                              final int maxMessageLength) {
+                              final int maxMessageLength,
+                              final String fields,
+                              final Redactor redactor,
+                              final BunyanLevelMapping[] levelMappings,
+                              final int profileSampleRate,
+                              final PayloadSpiller spiller,
+                              final FieldProfile[] fieldProfiles,
+                              final int messageCacheSize,
+                              final LookupClassifier lookupClassifier,
+                              final boolean includeLocation,
+                              final int sequenceBlockSize) {
+        this.redactor = redactor;
+        this.levelMappings = levelMappings;
+        this.spiller = spiller;
+        this.messageCacheSize = messageCacheSize;
+        this.includeLocation = includeLocation;
+        this.sequencer = new EventSequencer(sequenceBlockSize);
         this.throwablePatternConverter = throwablePatternConverter;
+        this.stackTraceFingerprints = stackTraceFingerprints;
         this.eol = eol;
         this.maxMessageLength = maxMessageLength;
         this.strSubstitutor = strSubstitutor;
         this.includeAllContextProperties = includeAllContextProperties;
         this.appName = initAppName(rawAppName);
+
+        final List<Map.Entry<BunyanField, String>> selectedFields = BunyanField.parse(fields);
+        // Profiles are ordered from the most verbose level so that more severe ones override them
+        final FieldProfile[] sortedProfiles = fieldProfiles.clone();
+        Arrays.sort(sortedProfiles, (a, b) -> Integer.compare(b.level.intLevel(), a.level.intLevel()));
+        final List<List<Map.Entry<BunyanField, String>>> profileFields = new LinkedList<>();
+        for (FieldProfile profile : sortedProfiles) {
+            profileFields.add(BunyanField.parse(profile.fields));
+        }
+
+        final Set<String> reservedKeys = new HashSet<>(RESERVED_KEYS);
+        boolean hasProperties = false;
+        for (Map.Entry<BunyanField, String> selected : selectedFields) {
+            reservedKeys.add(selected.getValue());
+            hasProperties |= selected.getKey() == BunyanField.PROPERTIES;
+        }
+        for (List<Map.Entry<BunyanField, String>> selection : profileFields) {
+            for (Map.Entry<BunyanField, String> selected : selection) {
+                reservedKeys.add(selected.getValue());
+                hasProperties |= selected.getKey() == BunyanField.PROPERTIES;
+            }
+        }
+        if (includeAllContextProperties && !hasProperties) {
+            LOGGER.warn("Context properties are enabled, but the properties field is not selected");
+        }
+
         final List<KeyValuePair> dynamicFields = new LinkedList<>();
         final List<KeyValuePair> staticFields = new LinkedList<>();
+        final List<String> cachedKeys = new LinkedList<>();
+        final List<CachedLookup> cachedFields = new LinkedList<>();
         final Set<String> uniqueNames = new HashSet<>(additionalFields.length);
         for (KeyValuePair kv : additionalFields) {
-            if (RESERVED_KEYS.contains(kv.getKey())) {
+            if (reservedKeys.contains(kv.getKey())) {
                 LOGGER.warn("Discarding KeyValuePair because it uses a "
                     + "reserved term [key={}]", kv.getKey());
                 continue;
@@ -91,146 +173,556 @@ public class LogEventJsonWriter implements JsonWriter.WriteObject<LogEvent> {
             } else {
                 uniqueNames.add(kv.getKey());
             }
-            if (isAdditionalFieldDynamic(kv.getValue())) {
-                dynamicFields.add(kv);
-            } else {
+            if (!isAdditionalFieldDynamic(kv.getValue())) {
                 staticFields.add(kv);
+                continue;
+            }
+            // Only lookups that may depend on the event are resolved for each event
+            switch (lookupClassifier.classify(kv.getValue())) {
+                case CONSTANT:
+                    staticFields.add(new KeyValuePair(kv.getKey(), resolveConstant(kv.getValue())));
+                    break;
+                case CACHED:
+                    cachedKeys.add(kv.getKey());
+                    cachedFields.add(new CachedLookup(strSubstitutor, kv.getValue(),
+                            lookupClassifier.getCacheMillis()));
+                    break;
+                default:
+                    dynamicFields.add(kv);
             }
         }
+        this.cachedAdditionalFieldKeys = cachedKeys.toArray(new String[0]);
+        this.cachedAdditionalFields = cachedFields.toArray(new CachedLookup[0]);
         this.dynamicAdditionalFields = new KeyValuePair[dynamicFields.size()];
         dynamicFields.toArray(this.dynamicAdditionalFields);
         this.staticAdditionalFields = new KeyValuePair[staticFields.size()];
         staticFields.toArray(this.staticAdditionalFields);
+        this.staticAdditionalFieldBytes = encodeStaticAdditionalFields(this.staticAdditionalFields);
+
+        // Profiled and columnar fields are the union of the keys of all selections
+        final List<String> unionKeys = new LinkedList<>();
+        final Map<String, BunyanField> unionTypes = new HashMap<>();
+        final List<String> defaultKeys = new LinkedList<>();
+        final FieldWriter[] defaultWriters = compileFieldWriters(selectedFields, defaultKeys,
+                throwablePatternConverter);
+        final int[] defaultIndexes = fieldIndexes(defaultKeys, unionKeys);
+        addFieldTypes(selectedFields, unionTypes);
+
+        this.profileLevels = new int[sortedProfiles.length];
+        this.fieldWritersBySelection = new FieldWriter[sortedProfiles.length + 1][];
+        this.fieldIndexesBySelection = new int[sortedProfiles.length + 1][];
+        fieldWritersBySelection[sortedProfiles.length] = defaultWriters;
+        fieldIndexesBySelection[sortedProfiles.length] = defaultIndexes;
+
+        final Set<Integer> thresholds = new HashSet<>();
+        for (int p = 0; p < sortedProfiles.length; p++) {
+            final FieldProfile profile = sortedProfiles[p];
+            if (!thresholds.add(profile.level.intLevel())) {
+                String msg = String.format("Duplicate level (%s) specified for FieldProfile", profile.level);
+                throw new IllegalArgumentException(msg);
+            }
+
+            final List<String> keys = new LinkedList<>();
+            final FieldWriter[] writers = compileFieldWriters(profileFields.get(p), keys,
+                    profile.throwablePatternConverter == null
+                            ? throwablePatternConverter : profile.throwablePatternConverter);
+            final int[] indexes = fieldIndexes(keys, unionKeys);
+            addFieldTypes(profileFields.get(p), unionTypes);
+            // Profiles are compiled from the most verbose but selected from the most severe
+            final int selection = sortedProfiles.length - 1 - p;
+            profileLevels[selection] = profile.level.intLevel();
+            fieldWritersBySelection[selection] = writers;
+            fieldIndexesBySelection[selection] = indexes;
+        }
+
+        this.fieldKeys = unionKeys.toArray(new String[0]);
+        this.fieldTypes = new BunyanField[fieldKeys.length];
+        for (int i = 0; i < fieldKeys.length; i++) {
+            fieldTypes[i] = unionTypes.get(fieldKeys[i]);
+        }
+        this.profiler = profileSampleRate > 0 ? new FieldProfiler(profileSampleRate, fieldKeys) : null;
+    }
+
+    /**
+     * Selects the fields of an event: the profile with the most verbose level
+     * that the event is at least as severe as, or the default fields when
+     * there is none. Levels are compared exactly, so profiles at custom levels
+     * apply to events at their own level and more severe ones only.
+     *
+     * @return index in {@link #fieldWritersBySelection}
+     */
+    int selectFields(final int intLevel) {
+        final int[] levels = profileLevels;
+        for (int i = 0; i < levels.length; i++) {
+            if (intLevel <= levels[i]) {
+                return i;
+            }
+        }
+        return levels.length;
+    }
+
+    private static int[] fieldIndexes(final List<String> keys, final List<String> unionKeys) {
+        final int[] indexes = new int[keys.size()];
+        int i = 0;
+        for (String key : keys) {
+            int index = unionKeys.indexOf(key);
+            if (index < 0) {
+                unionKeys.add(key);
+                index = unionKeys.size() - 1;
+            }
+            indexes[i++] = index;
+        }
+        return indexes;
+    }
+
+    private static void addFieldTypes(final List<Map.Entry<BunyanField, String>> selectedFields,
+                                      final Map<String, BunyanField> unionTypes) {
+        for (Map.Entry<BunyanField, String> selected : selectedFields) {
+            final BunyanField existing = unionTypes.putIfAbsent(selected.getValue(), selected.getKey());
+            if (existing != null && existing != selected.getKey()) {
+                String msg = String.format("Key (%s) is used for both the %s and %s fields",
+                        selected.getValue(), existing, selected.getKey());
+                throw new IllegalArgumentException(msg);
+            }
+        }
     }
 
     protected String initAppName(final String rawAppName) {
         return strSubstitutor.replace(rawAppName);
     }
 
+    /**
+     * Compiles the selected fields into an array of writers. Fields that can
+     * never be written with the current configuration are left out so that
+     * they aren't checked for each event.
+     *
+     * @param selectedFields fields to compile paired with their keys
+     * @param compiledKeys list to add the key of each compiled writer to
+     * @param stackConverter converter to format stack traces with
+     * @return compiled field writers
+     */
+    protected FieldWriter[] compileFieldWriters(final List<Map.Entry<BunyanField, String>> selectedFields,
+                                                final List<String> compiledKeys,
+                                                final ThrowablePatternConverter stackConverter) {
+        final List<FieldWriter> writers = new LinkedList<>();
+
+        for (Map.Entry<BunyanField, String> selected : selectedFields) {
+            final FieldWriter fieldWriter = compileFieldWriter(selected.getKey(), selected.getValue(),
+                    stackConverter);
+            if (fieldWriter != null) {
+                writers.add(fieldWriter);
+                compiledKeys.add(selected.getValue());
+            }
+        }
+
+        final FieldWriter[] compiled = new FieldWriter[writers.size()];
+        writers.toArray(compiled);
+        return compiled;
+    }
+
+    /**
+     * Compiles a single field into a writer.
+     * @param field field to compile
+     * @param key key to output the field as
+     * @param stackConverter converter to format stack traces with
+     * @return field writer or null if the field will never be written
+     */
+    protected FieldWriter compileFieldWriter(final BunyanField field, final String key,
+                                             final ThrowablePatternConverter stackConverter) {
+        final byte[] keyBytes = encodeKey(key);
+
+        switch (field) {
+            case V:
+                final byte[] versionBytes = encodeKeyVal(key, BUNYAN_VERSION);
+                return (writer, event, scratch, prefixComma) -> writeRaw(writer, versionBytes, prefixComma);
+            case LEVEL:
+                final LevelEncoder levelEncoder = new LevelEncoder(key, levelMappings);
+                return (writer, event, scratch, prefixComma) ->
+                        writeRaw(writer, levelEncoder.encoding(event.getLevel()), prefixComma);
+            case NAME:
+                final byte[] nameBytes = encodeKeyVal(key, appName);
+                return (writer, event, scratch, prefixComma) -> writeRaw(writer, nameBytes, prefixComma);
+            case COMPONENT:
+                return (writer, event, scratch, prefixComma) -> {
+                    writeKey(writer, keyBytes, prefixComma);
+                    EscapeScanner.writeString(writer, event.getLoggerName());
+                    return true;
+                };
+            case HOSTNAME:
+                final byte[] hostnameBytes = encodeKeyVal(key, HOSTNAME);
+                return (writer, event, scratch, prefixComma) -> writeRaw(writer, hostnameBytes, prefixComma);
+            case PID:
+                final byte[] pidBytes = encodeKeyVal(key, PID);
+                return (writer, event, scratch, prefixComma) -> writeRaw(writer, pidBytes, prefixComma);
+            case TIME:
+                return (writer, event, scratch, prefixComma) -> {
+                    writeKey(writer, keyBytes, prefixComma);
+                    writeTime(writer, event, scratch);
+                    return true;
+                };
+            case MSG:
+                if (messageCacheSize <= 0) {
+                    return (writer, event, scratch, prefixComma) -> {
+                        writeKey(writer, keyBytes, prefixComma);
+                        writeMessage(writer, event, scratch);
+                        return true;
+                    };
+                }
+                final MessageCache messageCache = new MessageCache(messageCacheSize);
+                final MessageCache.Encoder messageEncoder = message -> encodeMessage(keyBytes, message);
+                return (writer, event, scratch, prefixComma) -> {
+                    final Message message = event.getMessage();
+                    final String formattedMessage = message.getFormattedMessage();
+                    /* Messages without parameters return their format string as is,
+                     * so the same instance is logged each time. */
+                    if (formattedMessage == message.getFormat()
+                            && formattedMessage.length() <= MessageCache.MAX_MESSAGE_LENGTH) {
+                        final byte[] fragment = messageCache.get(formattedMessage, messageEncoder);
+                        if (fragment != null) {
+                            return writeRaw(writer, fragment, prefixComma);
+                        }
+                    }
+                    writeKey(writer, keyBytes, prefixComma);
+                    writeMessage(writer, formattedMessage, scratch);
+                    return true;
+                };
+            case ERR:
+                return (writer, event, scratch, prefixComma) -> {
+                    final Throwable err = event.getMessage().getThrowable();
+                    if (err == null) {
+                        return false;
+                    }
+                    writeKey(writer, keyBytes, prefixComma);
+                    writeErr(writer, event, err, scratch, stackConverter);
+                    return true;
+                };
+            case MARKER:
+                return (writer, event, scratch, prefixComma) -> {
+                    final Marker marker = event.getMarker();
+                    if (marker == null || markerName(marker).isEmpty()) {
+                        return false;
+                    }
+                    writeKey(writer, keyBytes, prefixComma);
+                    writeMarker(writer, marker);
+                    return true;
+                };
+            case SRC:
+                // Events only carry a location when one of their appenders requires it
+                if (!includeLocation) {
+                    return null;
+                }
+                return (writer, event, scratch, prefixComma) -> {
+                    final StackTraceElement element = event.getSource();
+                    if (element == null || element.getFileName() == null) {
+                        return false;
+                    }
+                    writeKey(writer, keyBytes, prefixComma);
+                    writeSource(writer, element, scratch);
+                    return true;
+                };
+            case CONTEXT_STACK:
+                return (writer, event, scratch, prefixComma) -> {
+                    final ThreadContext.ContextStack stack = event.getContextStack();
+                    if (stack == null || stack.isEmpty()) {
+                        return false;
+                    }
+                    writeKey(writer, keyBytes, prefixComma);
+                    writeContextStack(writer, stack, scratch);
+                    return true;
+                };
+            case ADDITIONAL:
+                if (staticAdditionalFields.length == 0 && dynamicAdditionalFields.length == 0
+                        && cachedAdditionalFields.length == 0) {
+                    return null;
+                }
+                return this::writeAdditionalFields;
+            case PROPERTIES:
+                if (!includeAllContextProperties) {
+                    return null;
+                }
+                return this::writeContextProperties;
+            case THREAD:
+                return (writer, event, scratch, prefixComma) -> {
+                    writeKey(writer, keyBytes, prefixComma);
+                    writeExtra(writer, event, scratch);
+                    return true;
+                };
+            case SEQ:
+                return (writer, event, scratch, prefixComma) -> {
+                    writeKey(writer, keyBytes, prefixComma);
+                    NumberConverter.serialize(sequencer.next(), writer);
+                    return true;
+                };
+            case THREAD_SEQ:
+                return (writer, event, scratch, prefixComma) -> {
+                    writeKey(writer, keyBytes, prefixComma);
+                    NumberConverter.serialize(sequencer.nextForThread(event.getThreadId()), writer);
+                    return true;
+                };
+            default:
+                String msg = String.format("Unsupported field: %s", field);
+                throw new IllegalArgumentException(msg);
+        }
+    }
+
     @Override
     public void write(final JsonWriter writer, final LogEvent event) {
+        final StringBuilder scratch = buffer.get();
+        try {
+            write(writer, event, scratch);
+        } finally {
+            scratch.setLength(0);
+        }
+    }
+
+    /**
+     * Writes a log event as a Bunyan JSON record.
+     *
+     * @param writer JSON writer to write to
+     * @param event log event to write
+     * @param scratch empty builder used to format values, so that callers that
+     *                pool their writers don't need a builder per thread
+     */
+    public void write(final JsonWriter writer, final LogEvent event, final StringBuilder scratch) {
+        if (!isWritable(event)) {
+            return;
+        }
+
+        writer.writeByte(JsonWriter.OBJECT_START);
+
+        final int selection = selectFields(event.getLevel().intLevel());
+        if (profiler != null && profiler.sample()) {
+            writeProfiledFields(writer, event, scratch, selection);
+        } else {
+            boolean written = false;
+            for (final FieldWriter fieldWriter : fieldWritersBySelection[selection]) {
+                written |= fieldWriter.write(writer, event, scratch, written);
+            }
+        }
+
+        writer.writeByte(JsonWriter.OBJECT_END);
+        writer.writeRaw(this.eol, 0, this.eol.length);
+    }
+
+    /**
+     * Writes each field of a log event to its own writer instead of writing
+     * the event as a single record. Each field is written as it would be in a
+     * record, without a leading comma, and writers of fields that the event
+     * has no value for are left untouched.
+     *
+     * @param fieldWriters writers indexed like {@link #getFieldKeys()}
+     * @param event log event to write
+     * @param scratch empty builder used to format values
+     * @return indexes of the fields in the order they are written in a record,
+     *         or null if the event is not written
+     */
+    public int[] writeFields(final JsonWriter[] fieldWriters, final LogEvent event, final StringBuilder scratch) {
+        if (!isWritable(event)) {
+            return null;
+        }
+
+        final int selection = selectFields(event.getLevel().intLevel());
+        final FieldWriter[] writers = fieldWritersBySelection[selection];
+        final int[] indexes = fieldIndexesBySelection[selection];
+        for (int i = 0; i < writers.length; i++) {
+            writers[i].write(fieldWriters[indexes[i]], event, scratch, false);
+        }
+        return indexes;
+    }
+
+    /**
+     * @return keys of the fields that may be written, the union of the keys of all selections
+     */
+    public String[] getFieldKeys() {
+        return fieldKeys.clone();
+    }
+
+    /**
+     * @return field selected under each key returned by {@link #getFieldKeys()}
+     */
+    public BunyanField[] getFieldTypes() {
+        return fieldTypes.clone();
+    }
+
+    /**
+     * @return true if the source location of events is written
+     */
+    public boolean requiresLocation() {
+        return Arrays.asList(fieldTypes).contains(BunyanField.SRC);
+    }
+
+    protected boolean isWritable(final LogEvent event) {
         if (event == null) {
             LOGGER.error("null log event received");
-            return;
+            return false;
         }
         if (event.getLoggerName() == null) {
             LOGGER.error("Logger name cannot be null");
-            return;
+            return false;
         }
         if (event.getLevel() == null) {
             LOGGER.error("Logger level cannot be null");
-            return;
+            return false;
         }
         if (event.getLevel().equals(Level.OFF)) {
-            return;
+            return false;
         }
         if (event.getMessage() == null) {
             LOGGER.error("Logger message cannot be null");
-            return;
+            return false;
         }
         if (maxMessageLength <= 0 && LOGGER.isWarnEnabled()) {
             LOGGER.warn("MaxMessageLength size is less than or equal to zero [maxMessageLength={}]",
                     maxMessageLength);
-            return;
+            return false;
         }
+        return true;
+    }
 
-        writer.writeByte(JsonWriter.OBJECT_START);
-
-        writer.writeRaw(VERSION_BYTES, 0, VERSION_BYTES.length);
-        writer.writeByte(JsonWriter.COMMA);
-        writeLevel(writer, event.getLevel());
-        writer.writeByte(JsonWriter.COMMA);
-        writeStringKeyVal(writer, "name", appName);
-        writer.writeByte(JsonWriter.COMMA);
-        writeLoggerName(writer, event);
-        writer.writeByte(JsonWriter.COMMA);
-        writeStringKeyVal(writer, "hostname", HOSTNAME);
-        writer.writeByte(JsonWriter.COMMA);
-        writer.writeRaw(PID_BYTES, 0, PID_BYTES.length);
-        writer.writeByte(JsonWriter.COMMA);
-        writeTime(writer, event);
-        writer.writeByte(JsonWriter.COMMA);
-        writeMessage(writer, event);
-        writer.writeByte(JsonWriter.COMMA);
-        if (writeMarker(writer, event.getMarker())) {
-            writer.writeByte(JsonWriter.COMMA);
-        }
-        if (writeSource(writer, event.getSource())) {
-            writer.writeByte(JsonWriter.COMMA);
+    /**
+     * Writes the fields of an event while recording the time spent and the
+     * bytes written for each of them.
+     */
+    protected void writeProfiledFields(final JsonWriter writer, final LogEvent event, final StringBuilder scratch,
+                                       final int selection) {
+        final FieldWriter[] fieldWriters = fieldWritersBySelection[selection];
+        final int[] fieldIndexes = fieldIndexesBySelection[selection];
+        boolean written = false;
+        for (int i = 0; i < fieldWriters.length; i++) {
+            final int startSize = writer.size();
+            final long start = System.nanoTime();
+            final boolean fieldWritten = fieldWriters[i].write(writer, event, scratch, written);
+            final long elapsed = System.nanoTime() - start;
+            if (fieldWritten) {
+                profiler.recordField(fieldIndexes[i], elapsed, writer.size() - startSize);
+            }
+            written |= fieldWritten;
         }
-        if (writeContextStack(writer, event.getContextStack())) {
-            writer.writeByte(JsonWriter.COMMA);
+        profiler.recordEvent();
+    }
+
+    /**
+     * @return profiler of the encode cost of each field or null if profiling is disabled
+     */
+    public FieldProfiler getProfiler() {
+        return profiler;
+    }
+
+    protected void writeMessage(final JsonWriter writer, final LogEvent event, final StringBuilder scratch) {
+        writeMessage(writer, event.getMessage().getFormattedMessage(), scratch);
+    }
+
+    protected void writeMessage(final JsonWriter writer, final String formattedMessage,
+                                final StringBuilder scratch) {
+        // Oversized messages are spilled in full rather than truncated
+        if (spiller != null && spiller.exceeds(formattedMessage) && spillMessage(writer, formattedMessage, scratch)) {
+            return;
         }
-        if (writeAdditionalFields(writer, event)) {
-            writer.writeByte(JsonWriter.COMMA);
+        if (formattedMessage.length() > maxMessageLength) {
+            // Copy into the scratch builder because subSequence() would allocate a new String
+            try {
+                scratch.append(formattedMessage, 0, maxMessageLength);
+                redact(scratch);
+                writer.writeString(scratch);
+            } finally {
+                scratch.setLength(0);
+            }
+        } else {
+            writeSensitiveString(writer, formattedMessage, scratch);
         }
-        writeExtra(writer, event);
-
-        writer.writeByte(JsonWriter.OBJECT_END);
-        writer.writeRaw(this.eol, 0, this.eol.length);
     }
 
-    protected void writeLoggerName(final JsonWriter writer, final LogEvent event) {
-        writeKey(writer, "component");
-        writer.writeString(event.getLoggerName());
+    /**
+     * Encodes the key and the value of a constant message, applying the same
+     * truncation, spilling and redaction as when the message is written.
+     */
+    protected byte[] encodeMessage(final byte[] keyBytes, final String formattedMessage) {
+        final JsonWriter writer = EncodeBuffers.newWriter();
+        writer.writeRaw(keyBytes, 0, keyBytes.length);
+        writeMessage(writer, formattedMessage, new StringBuilder());
+        return writer.toByteArray();
     }
 
-    protected void writeLevel(final JsonWriter writer, final Level level) {
-        writer.writeString("level");
-        writer.writeByte(JsonWriter.SEMI);
-        final int bunyanIntLevel = BunyanLevel.toBunyanIntLevel(level);
-        NumberConverter.serialize(bunyanIntLevel, writer);
+    protected boolean spillMessage(final JsonWriter writer, final String formattedMessage,
+                                   final StringBuilder scratch) {
+        if (redactor == null) {
+            return spiller.writeReference(writer, formattedMessage);
+        }
 
-        // Only add the levelStr property when we have a custom logger level
-        if (!BunyanLevel.isKnownLevel(level)) {
-            writer.writeByte(JsonWriter.COMMA);
-            writeStringKeyVal(writer, "level_name", level.name());
+        try {
+            scratch.append(formattedMessage);
+            redactor.redact(scratch);
+            return spiller.writeReference(writer, scratch);
+        } finally {
+            scratch.setLength(0);
         }
     }
 
-    protected void writeMessage(final JsonWriter writer, LogEvent event) {
-        final Message message = event.getMessage();
-        writeKey(writer, "msg");
-        final String formattedMessage = message.getFormattedMessage();
-        if (formattedMessage.length() > maxMessageLength) {
-            writer.writeString(formattedMessage.subSequence(0, maxMessageLength));
-        } else {
-            writer.writeString(formattedMessage);
+    protected void writeErr(final JsonWriter writer, final LogEvent event, final Throwable err,
+                            final StringBuilder scratch) {
+        writeErr(writer, event, err, scratch, throwablePatternConverter);
+    }
+
+    protected void writeErr(final JsonWriter writer, final LogEvent event, final Throwable err,
+                            final StringBuilder scratch, final ThrowablePatternConverter stackConverter) {
+        writer.writeByte(JsonWriter.OBJECT_START);
+        writeKey(writer, "message");
+        writeSensitiveString(writer, err.getMessage(), scratch);
+        writer.writeByte(JsonWriter.COMMA);
+        writeStringKeyVal(writer, "name", err.getClass().getName());
+        if (event.getThrownProxy() != null) {
+            writer.writeByte(JsonWriter.COMMA);
+            if (stackTraceFingerprints == null) {
+                writeKey(writer, "stack");
+                writeStackTraceAsString(writer, event, scratch, stackConverter);
+            } else {
+                writeStackTraceBackReference(writer, event, err, scratch, stackConverter);
+            }
         }
+        writer.writeByte(JsonWriter.OBJECT_END);
+    }
 
-        final Throwable err = message.getThrowable();
+    /**
+     * Writes the stack trace in full along with its stack_id if it is the
+     * first occurrence of the stack within the back-reference window, otherwise
+     * writes only the stack_id and the number of times it was repeated.
+     */
+    protected void writeStackTraceBackReference(final JsonWriter writer, final LogEvent event,
+                                                final Throwable err, final StringBuilder scratch,
+                                                final ThrowablePatternConverter stackConverter) {
+        final long fingerprint = StackTraceFingerprints.fingerprint(err);
+        final int repeats = stackTraceFingerprints.record(fingerprint, event.getTimeMillis());
 
-        if (err != null) {
-            writer.writeByte(JsonWriter.COMMA);
-            writeKey(writer, "err");
-            writer.writeByte(JsonWriter.OBJECT_START);
-            writeStringKeyVal(writer, "message", err.getMessage());
+        if (repeats == 0) {
+            writeKey(writer, "stack");
+            writeStackTraceAsString(writer, event, scratch, stackConverter);
             writer.writeByte(JsonWriter.COMMA);
-            writeStringKeyVal(writer, "name", err.getClass().getName());
+        }
+        writeKey(writer, "stack_id");
+        StackTraceFingerprints.writeHex(writer, fingerprint);
+        if (repeats > 0) {
             writer.writeByte(JsonWriter.COMMA);
-            if (event.getThrownProxy() != null) {
-                writeKey(writer, "stack");
-                writeStackTraceAsString(writer, event);
-            }
-            writer.writeByte(JsonWriter.OBJECT_END);
+            writeKey(writer, "stack_repeat");
+            NumberConverter.serialize(repeats, writer);
         }
     }
 
-    protected void writeStackTraceAsString(final JsonWriter writer, final LogEvent event) {
-        final StringBuilder builder = buffer.get();
+    protected void writeStackTraceAsString(final JsonWriter writer, final LogEvent event,
+                                           final StringBuilder scratch,
+                                           final ThrowablePatternConverter stackConverter) {
         try {
-            throwablePatternConverter.format(event, builder);
-            writer.writeString(builder);
+            stackConverter.format(event, scratch);
+            redact(scratch);
+            if (spiller == null || !spiller.exceeds(scratch) || !spiller.writeReference(writer, scratch)) {
+                writer.writeString(scratch);
+            }
         } finally {
-            builder.setLength(0);
+            scratch.setLength(0);
         }
     }
 
-    protected static boolean writeSource(final JsonWriter writer, final StackTraceElement element) {
-        if (element == null || element.getFileName() == null) {
-            return false;
-        }
-        writeKey(writer, "src");
+    protected static void writeSource(final JsonWriter writer, final StackTraceElement element,
+                                      final StringBuilder scratch) {
         writer.writeByte(JsonWriter.OBJECT_START);
         writeKey(writer, "file");
         writer.writeString(element.getFileName());
@@ -239,113 +731,197 @@ public class LogEventJsonWriter implements JsonWriter.WriteObject<LogEvent> {
         NumberConverter.serialize(element.getLineNumber(), writer);
         writer.writeByte(JsonWriter.COMMA);
         writeKey(writer, "func");
-        String classAndMethod = String.format("%s.%s", element.getClassName(), element.getMethodName());
-        writer.writeString(classAndMethod);
+        try {
+            scratch.append(element.getClassName()).append('.').append(element.getMethodName());
+            writer.writeString(scratch);
+        } finally {
+            scratch.setLength(0);
+        }
         writer.writeByte(JsonWriter.OBJECT_END);
-
-        return true;
     }
 
-    protected static boolean writeMarker(final JsonWriter writer, final Marker marker) {
-        if (marker == null || marker.toString().isEmpty()) {
-            return false;
-        }
-        writeKey(writer, "marker");
-        writer.writeString(marker.toString());
-
-        return true;
+    protected static void writeMarker(final JsonWriter writer, final Marker marker) {
+        writer.writeString(markerName(marker));
     }
 
-    protected static boolean writeContextStack(final JsonWriter writer, final ThreadContext.ContextStack stack) {
-        if (stack == null || stack.isEmpty()) {
-            return false;
-        }
+    /**
+     * Markers build a new string that includes their parents when converted
+     * with toString(), so the name is used directly for markers without parents.
+     */
+    protected static String markerName(final Marker marker) {
+        return marker.hasParents() ? marker.toString() : marker.getName();
+    }
 
-        writer.writeString("context_stack");
-        writer.writeByte(JsonWriter.SEMI);
+    protected void writeContextStack(final JsonWriter writer, final ThreadContext.ContextStack stack,
+                                     final StringBuilder scratch) {
         writer.writeByte(JsonWriter.ARRAY_START);
-        final Iterator<String> itr = stack.iterator();
-        while (itr.hasNext()) {
-            writer.writeString(itr.next());
-            if (itr.hasNext()) {
+        // Iterate by index because iterators would be allocated for every event
+        final List<String> values = stack.asList();
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) {
                 writer.writeByte(JsonWriter.COMMA);
             }
+            writeSensitiveString(writer, values.get(i), scratch);
         }
         writer.writeByte(JsonWriter.ARRAY_END);
-
-        return true;
     }
 
-    protected static void writeExtra(final JsonWriter writer, final LogEvent event) {
-        final String threadDetail;
-        if (event.getThreadName() != null) {
-            threadDetail = String.format("%s[id=%d,priority=%d]", event.getThreadName(),
-                    event.getThreadId(), event.getThreadPriority());
-        } else {
-            threadDetail = "unknown";
+    protected static void writeExtra(final JsonWriter writer, final LogEvent event, final StringBuilder scratch) {
+        if (event.getThreadName() == null) {
+            writer.writeString("unknown");
+            return;
         }
 
-        writeKey(writer, "thread");
-        writer.writeString(threadDetail);
+        try {
+            scratch.append(event.getThreadName())
+                    .append("[id=").append(event.getThreadId())
+                    .append(",priority=").append(event.getThreadPriority())
+                    .append(']');
+            writer.writeString(scratch);
+        } finally {
+            scratch.setLength(0);
+        }
     }
 
-    private boolean writeAdditionalFields(final JsonWriter writer, LogEvent event) {
-        final boolean hasStaticFields = this.staticAdditionalFields.length > 0;
-        final boolean hasDynamicFields = this.dynamicAdditionalFields.length > 0;
-        final boolean hasProperties = this.includeAllContextProperties && event.getContextData() != null
-                && !event.getContextData().isEmpty();
-        if (!hasStaticFields && !hasDynamicFields && !hasProperties) {
-            return false;
-        }
+    private boolean writeAdditionalFields(final JsonWriter writer, final LogEvent event,
+                                          final StringBuilder scratch, final boolean prefixComma) {
+        boolean written = prefixComma;
 
-        boolean noTrailingComma = false;
-        for (int i = 0; i < this.staticAdditionalFields.length; i++) {
-            final KeyValuePair kv = this.staticAdditionalFields[i];
-            writer.writeString(kv.getKey());
-            writer.writeByte(JsonWriter.SEMI);
-            writer.writeString(kv.getValue());
+        if (this.staticAdditionalFieldBytes.length > 0) {
+            writeRaw(writer, this.staticAdditionalFieldBytes, written);
+            written = true;
+        }
 
-            final boolean isElementBeforeLast = i < this.staticAdditionalFields.length - 1;
-            if (isElementBeforeLast) {
+        for (int i = 0; i < this.cachedAdditionalFields.length; i++) {
+            if (written) {
                 writer.writeByte(JsonWriter.COMMA);
-            } else if (i == this.staticAdditionalFields.length - 1) {
-                noTrailingComma = true;
             }
+            writer.writeString(this.cachedAdditionalFieldKeys[i]);
+            writer.writeByte(JsonWriter.SEMI);
+            writeSensitiveString(writer, this.cachedAdditionalFields[i].get(), scratch);
+            written = true;
         }
 
-        if (noTrailingComma && this.dynamicAdditionalFields.length > 0) {
-            writer.writeByte(JsonWriter.COMMA);
-        }
-
-        for (int i = 0; i < this.dynamicAdditionalFields.length; i++) {
-            final KeyValuePair kv = this.dynamicAdditionalFields[i];
+        for (final KeyValuePair kv : this.dynamicAdditionalFields) {
+            if (written) {
+                writer.writeByte(JsonWriter.COMMA);
+            }
             writer.writeString(kv.getKey());
             writer.writeByte(JsonWriter.SEMI);
             final String value = strSubstitutor.replace(event, kv.getValue());
-            writer.writeString(value);
+            writeSensitiveString(writer, value, scratch);
+            written = true;
+        }
+
+        return true;
+    }
 
-            final boolean isElementBeforeLast = i < this.dynamicAdditionalFields.length - 1;
-            if (isElementBeforeLast) {
+    /**
+     * Encodes all static additional fields ahead of time because their values
+     * never change between events.
+     */
+    protected static byte[] encodeStaticAdditionalFields(final KeyValuePair[] staticFields) {
+        final JsonWriter writer = EncodeBuffers.newWriter();
+        for (int i = 0; i < staticFields.length; i++) {
+            if (i > 0) {
                 writer.writeByte(JsonWriter.COMMA);
-            } else if (i == this.dynamicAdditionalFields.length - 1) {
-                noTrailingComma = true;
             }
+            writer.writeString(staticFields[i].getKey());
+            writer.writeByte(JsonWriter.SEMI);
+            writer.writeString(staticFields[i].getValue());
         }
+        return writer.toByteArray();
+    }
 
+    private boolean writeContextProperties(final JsonWriter writer, final LogEvent event,
+                                           final StringBuilder scratch, final boolean prefixComma) {
         final ReadOnlyStringMap contextData = event.getContextData();
-        if (noTrailingComma && this.includeAllContextProperties && !contextData.isEmpty()) {
-            writer.writeByte(JsonWriter.COMMA);
+        if (contextData == null || contextData.isEmpty()) {
+            return false;
         }
 
-        if (this.includeAllContextProperties) {
+        // Iterate by index when possible because it doesn't require any state to be
+        // carried between entries in order to place the commas
+        if (contextData instanceof IndexedReadOnlyStringMap) {
+            final IndexedReadOnlyStringMap indexed = (IndexedReadOnlyStringMap) contextData;
+            for (int i = 0; i < indexed.size(); i++) {
+                if (i > 0 || prefixComma) {
+                    writer.writeByte(JsonWriter.COMMA);
+                }
+                writer.writeString(indexed.getKeyAt(i));
+                writer.writeByte(JsonWriter.SEMI);
+                writeContextValue(writer, indexed.getKeyAt(i), indexed.getValueAt(i), scratch);
+            }
+            return true;
+        }
+
+        contextData.forEach(new ContextPropertiesTriConsumer(this, scratch, prefixComma), writer);
+
+        return true;
+    }
+
+    /**
+     * Writes the value of a context property. When the key of the property is
+     * one of the redaction keys, the whole value is masked, because there is no
+     * separator in the value for the redactor to find.
+     */
+    protected void writeContextValue(final JsonWriter writer, final String key, final Object value,
+                                     final StringBuilder scratch) {
+        if (value == null) {
+            writer.writeNull();
+        } else if (redactor != null && redactor.isKey(key)) {
             try {
-                contextData.forEach(contextPropertiesTriConsumer, writer);
+                scratch.append(value);
+                redactor.mask(scratch);
+                writer.writeString(scratch);
             } finally {
-                buffer.get().setLength(0);
+                scratch.setLength(0);
             }
+        } else if (value instanceof String) {
+            writeSensitiveString(writer, (String) value, scratch);
+        } else {
+            writeSensitiveString(writer, value.toString(), scratch);
         }
+    }
 
-        return true;
+    /**
+     * Writes a string that may contain sensitive values. When redaction is
+     * enabled, the string is copied into the scratch builder and masked there
+     * so that it is still escaped only once and no new String is created.
+     */
+    protected void writeSensitiveString(final JsonWriter writer, final String value, final StringBuilder scratch) {
+        if (redactor == null || value == null) {
+            EscapeScanner.writeString(writer, value);
+            return;
+        }
+
+        try {
+            scratch.append(value);
+            redactor.redact(scratch);
+            writer.writeString(scratch);
+        } finally {
+            scratch.setLength(0);
+        }
+    }
+
+    protected void redact(final StringBuilder text) {
+        if (redactor != null) {
+            redactor.redact(text);
+        }
+    }
+
+    /**
+     * Resolves a value whose lookups never change, redacting it as it would
+     * have been if it were resolved for each event.
+     */
+    protected String resolveConstant(final String val) {
+        final String resolved = strSubstitutor.replace(val);
+        if (redactor == null || resolved == null) {
+            return resolved;
+        }
+        final StringBuilder text = new StringBuilder(resolved);
+        redactor.redact(text);
+        return text.toString();
     }
 
     protected boolean isAdditionalFieldDynamic(final String val) {
@@ -364,15 +940,60 @@ public class LogEventJsonWriter implements JsonWriter.WriteObject<LogEvent> {
         writer.writeByte(JsonWriter.SEMI);
     }
 
-    void writeTime(final JsonWriter writer, final LogEvent event) {
-        final StringBuilder builder = buffer.get();
+    protected static void writeKey(final JsonWriter writer, final byte[] keyBytes, final boolean prefixComma) {
+        if (prefixComma) {
+            writer.writeByte(JsonWriter.COMMA);
+        }
+        writer.writeRaw(keyBytes, 0, keyBytes.length);
+    }
+
+    protected static boolean writeRaw(final JsonWriter writer, final byte[] bytes, final boolean prefixComma) {
+        if (prefixComma) {
+            writer.writeByte(JsonWriter.COMMA);
+        }
+        writer.writeRaw(bytes, 0, bytes.length);
+        return true;
+    }
+
+    /**
+     * Encodes a key as a quoted JSON string followed by a colon.
+     */
+    protected static byte[] encodeKey(final String key) {
+        final JsonWriter writer = EncodeBuffers.newWriter();
+        writer.writeString(key);
+        writer.writeByte(JsonWriter.SEMI);
+        return writer.toByteArray();
+    }
+
+    /**
+     * Encodes a key and a constant string value so that it can be written as raw bytes.
+     */
+    protected static byte[] encodeKeyVal(final String key, final String val) {
+        final JsonWriter writer = EncodeBuffers.newWriter();
+        writer.writeString(key);
+        writer.writeByte(JsonWriter.SEMI);
+        writer.writeString(val);
+        return writer.toByteArray();
+    }
+
+    /**
+     * Encodes a key and a constant numeric value so that it can be written as raw bytes.
+     */
+    protected static byte[] encodeKeyVal(final String key, final long val) {
+        final JsonWriter writer = EncodeBuffers.newWriter();
+        writer.writeString(key);
+        writer.writeByte(JsonWriter.SEMI);
+        NumberConverter.serialize(val, writer);
+        return writer.toByteArray();
+    }
 
+    void writeTime(final JsonWriter writer, final LogEvent event, final StringBuilder scratch) {
         try {
-            writeKey(writer, "time");
-            datePatternConverter.format(event, builder);
-            writer.writeString(builder);
+            datePatternConverter.format(event, scratch);
+            scratch.append(DatePatternConverterFactory.UTC_DESIGNATOR);
+            writer.writeString(scratch);
         } finally {
-            builder.setLength(0);
+            scratch.setLength(0);
         }
     }
 
@@ -390,19 +1011,16 @@ public class LogEventJsonWriter implements JsonWriter.WriteObject<LogEvent> {
     }
 
     protected static long lookupPid() {
-        // Most JVMs return this runtime name in the format of: pid@hostname
-        final String runtimeMxBean = ManagementFactory.getRuntimeMXBean().getName();
-        final int position = runtimeMxBean.indexOf('@');
-
-        if (position >= 0) {
-            final String pidAsString = runtimeMxBean.substring(0, position);
-            try {
-                return Long.parseLong(pidAsString);
-            } catch (NumberFormatException ignored) {
-                return -2;
-            }
+        // Uses ProcessHandle on Java 9+ which avoids initializing the management beans
+        final String pidAsString = ProcessIdUtil.getProcessId();
+        if (ProcessIdUtil.DEFAULT_PROCESSID.equals(pidAsString)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(pidAsString);
+        } catch (NumberFormatException ignored) {
+            return -2;
         }
-        return -1;
     }
 
     protected static Set<String> reservedKeys() {
@@ -418,4 +1036,26 @@ public class LogEventJsonWriter implements JsonWriter.WriteObject<LogEvent> {
         reserved.add("thread");
         return Collections.unmodifiableSet(reserved);
     }
+
+    /**
+     * Fields that are written for events at a level or more severe.
+     */
+    public static final class FieldProfile {
+        final Level level;
+        final String fields;
+        final ThrowablePatternConverter throwablePatternConverter;
+
+        /**
+         * @param level the profile is used for events at this level or more severe
+         * @param fields comma delimited list of fields to output in order
+         * @param throwablePatternConverter converter to format stack traces with or
+         *                                  null to use the converter of the layout
+         */
+        public FieldProfile(final Level level, final String fields,
+                            final ThrowablePatternConverter throwablePatternConverter) {
+            this.level = level;
+            this.fields = fields;
+            this.throwablePatternConverter = throwablePatternConverter;
+        }
+    }
 }
@@ -0,0 +1,126 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package log4j.layout.bunyan;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Classifies the lookups in a value at configuration time by how often they
+ * need to be resolved. A value is classified by its most dynamic lookup, so
+ * <code>${env:REGION}-${ctx:tenant}</code> is resolved for each event.
+ */
+public class LookupClassifier {
+    /**
+     * Lookups that are cached by default because their values may change
+     * while the application runs, but not from one event to the next.
+     */
+    public static final String DEFAULT_CACHED_LOOKUPS = "spring";
+    public static final int DEFAULT_CACHE_SECONDS = 60;
+
+    /**
+     * Lookups that resolve to the same value for the life of the configuration.
+     * <code>lower</code> and <code>upper</code> only transform the lookups
+     * nested in them, which are classified separately.
+     */
+    static final Set<String> CONSTANT_LOOKUPS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "env", "sys", "java", "main", "log4j", "docker", "k8s", "bundle", "lower", "upper")));
+    /**
+     * Matches the prefix of each lookup, skipping default values like <code>${name:-default}</code>.
+     */
+    private static final Pattern LOOKUP_PREFIX = Pattern.compile("\\$\\{([A-Za-z0-9_.\\-]+):(?!-)");
+
+    /**
+     * How often the value of a lookup needs to be resolved.
+     */
+    public enum Scope {
+        /**
+         * Resolved once when the layout is configured.
+         */
+        CONSTANT,
+        /**
+         * Resolved when the layout is configured and refreshed once expired, by
+         * the first event that finds the cached value older than the cache
+         * duration.
+         */
+        CACHED,
+        /**
+         * Resolved for each event.
+         */
+        EVENT
+    }
+
+    private final Set<String> cachedLookups;
+    private final long cacheMillis;
+
+    /**
+     * @param cachedLookups comma delimited list of lookup prefixes to cache,
+     *                      including constant lookups that should be refreshed
+     * @param cacheMillis time in milliseconds after which cached values are refreshed
+     */
+    public LookupClassifier(final String cachedLookups, final long cacheMillis) {
+        if (cacheMillis <= 0) {
+            String msg = String.format("Lookup cache duration must be greater than zero [cacheMillis=%d]",
+                    cacheMillis);
+            throw new IllegalArgumentException(msg);
+        }
+        final Set<String> prefixes = new HashSet<>();
+        if (cachedLookups != null) {
+            for (String prefix : cachedLookups.split(",")) {
+                if (!prefix.trim().isEmpty()) {
+                    prefixes.add(prefix.trim().toLowerCase(Locale.ROOT));
+                }
+            }
+        }
+        this.cachedLookups = Collections.unmodifiableSet(prefixes);
+        this.cacheMillis = cacheMillis;
+    }
+
+    /**
+     * Classifies a value by its lookups. Lookups without a prefix resolve
+     * configuration properties and are constant. Lookups that are neither
+     * known to be constant nor configured to be cached, such as
+     * <code>ctx</code>, <code>map</code> or <code>date</code>, are resolved
+     * for each event because they may depend on it.
+     *
+     * @param value value with lookups
+     * @return scope of the most dynamic lookup in the value
+     */
+    public Scope classify(final String value) {
+        Scope scope = Scope.CONSTANT;
+        final Matcher matcher = LOOKUP_PREFIX.matcher(value);
+        while (matcher.find()) {
+            final String prefix = matcher.group(1).toLowerCase(Locale.ROOT);
+            if (cachedLookups.contains(prefix)) {
+                scope = Scope.CACHED;
+            } else if (!CONSTANT_LOOKUPS.contains(prefix)) {
+                return Scope.EVENT;
+            }
+        }
+        return scope;
+    }
+
+    public Set<String> getCachedLookups() {
+        return cachedLookups;
+    }
+
+    public long getCacheMillis() {
+        return cacheMillis;
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package log4j.layout.bunyan;
+
+/**
+ * Bounded cache of pre-encoded fragments of constant messages keyed by the
+ * identity of the message string. Applications typically log constant
+ * messages with the same string instance, so a hit costs one identity
+ * comparison instead of escaping and encoding the message.
+ *
+ * <p>The cache is direct-mapped: each message can only be stored in the slot
+ * selected by its identity hash. A message is only admitted after it has been
+ * seen {@value #ADMISSION_THRESHOLD} times in a row for its slot, and only
+ * replaces the resident message of the slot if it has been seen more often
+ * than the resident has been hit. The hits of a resident are halved each time
+ * a challenger is rejected, so residents that are no longer hot are replaced.
+ * Counters are updated without synchronization because lost updates only make
+ * admission slightly less precise. Entries are immutable apart from their hit
+ * count, so they are safely published through the data race.</p>
+ */
+public class MessageCache {
+    public static final int DEFAULT_SIZE = 256;
+    /**
+     * Messages longer than this are never cached.
+     */
+    public static final int MAX_MESSAGE_LENGTH = 1024;
+    static final int ADMISSION_THRESHOLD = 4;
+    private static final int MAX_HITS = 1 << 16;
+
+    private final int mask;
+    private final Entry[] entries;
+    private final String[] candidates;
+    private final int[] candidateCounts;
+
+    /**
+     * Encodes the fragment of a message that is admitted to the cache.
+     */
+    @FunctionalInterface
+    public interface Encoder {
+        byte[] encode(String message);
+    }
+
+    /**
+     * @param size number of slots, rounded up to a power of two
+     */
+    public MessageCache(final int size) {
+        if (size <= 0) {
+            String msg = String.format("Message cache size must be greater than zero: %d", size);
+            throw new IllegalArgumentException(msg);
+        }
+
+        final int slots = size == 1 ? 1 : Integer.highestOneBit(size - 1) << 1;
+        this.mask = slots - 1;
+        this.entries = new Entry[slots];
+        this.candidates = new String[slots];
+        this.candidateCounts = new int[slots];
+    }
+
+    /**
+     * @param message constant message string
+     * @param encoder encoder used when the message is admitted
+     * @return fragment of the message or null if the message isn't cached
+     */
+    public byte[] get(final String message, final Encoder encoder) {
+        final int index = System.identityHashCode(message) & mask;
+        final Entry entry = entries[index];
+        if (entry != null && entry.message == message) {
+            if (entry.hits < MAX_HITS) {
+                entry.hits++;
+            }
+            return entry.fragment;
+        }
+
+        if (candidates[index] != message) {
+            candidates[index] = message;
+            candidateCounts[index] = 1;
+            return null;
+        }
+
+        final int count = ++candidateCounts[index];
+        if (count < ADMISSION_THRESHOLD) {
+            return null;
+        }
+
+        candidates[index] = null;
+        candidateCounts[index] = 0;
+        if (entry != null && entry.hits >= count) {
+            entry.hits >>>= 1;
+            return null;
+        }
+
+        final byte[] fragment = encoder.encode(message);
+        entries[index] = new Entry(message, fragment, count);
+        return fragment;
+    }
+
+    /**
+     * @return number of slots of the cache
+     */
+    public int getSize() {
+        return entries.length;
+    }
+
+    static final class Entry {
+        final String message;
+        final byte[] fragment;
+        int hits;
+
+        Entry(final String message, final byte[] fragment, final int hits) {
+            this.message = message;
+            this.fragment = fragment;
+            this.hits = hits;
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package log4j.layout.bunyan;
+
+import com.dslplatform.json.JsonWriter;
+import com.dslplatform.json.NumberConverter;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.status.StatusLogger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Writes values that are larger than a threshold to side files named after
+ * the SHA-256 digest of their content and writes a reference to the file in
+ * their place:
+ * <code>{"ref":"&lt;sha&gt;.txt","size":&lt;bytes&gt;,"sha":"&lt;sha&gt;"}</code>.
+ * Identical values share a single file. Values are streamed to a temporary
+ * file in the same directory that is renamed once complete, so readers never
+ * see partially written files.
+ */
+public class PayloadSpiller {
+    private static final Logger LOGGER = StatusLogger.getLogger();
+    private static final String FILE_SUFFIX = ".txt";
+    private static final int CHUNK_SIZE = 8 * 1024;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Path directory;
+    private final int threshold;
+
+    public PayloadSpiller(final Path directory, final int threshold) {
+        this.directory = directory;
+        this.threshold = threshold;
+    }
+
+    /**
+     * @param value value to check
+     * @return true if the value is larger than the threshold when encoded as UTF-8
+     */
+    public boolean exceeds(final CharSequence value) {
+        final int length = value.length();
+        if (length > threshold) {
+            return true;
+        }
+        // No character encodes to more than three bytes, so short values are never measured
+        if ((long) length * 3 <= threshold) {
+            return false;
+        }
+        return utf8Length(value) > threshold;
+    }
+
+    static long utf8Length(final CharSequence value) {
+        long bytes = 0;
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c < 0x80) {
+                bytes++;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Spills the value to its side file and writes the reference to it.
+     *
+     * @param writer JSON writer to write the reference to
+     * @param value value to spill
+     * @return true if the reference was written, false if the value could not
+     *         be spilled and nothing was written
+     */
+    public boolean writeReference(final JsonWriter writer, final CharSequence value) {
+        final byte[] digest;
+        final long size;
+        Path temporary = null;
+
+        try {
+            Files.createDirectories(directory);
+            temporary = Files.createTempFile(directory, "spill", ".tmp");
+            final MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            size = stream(value, temporary, sha256);
+            digest = sha256.digest();
+
+            final Path target = directory.resolve(hex(digest) + FILE_SUFFIX);
+            if (Files.exists(target)) {
+                Files.delete(temporary);
+            } else {
+                move(temporary, target);
+            }
+        } catch (IOException | NoSuchAlgorithmException e) {
+            LOGGER.error("Unable to spill value to directory [directory={}]", directory, e);
+            deleteQuietly(temporary);
+            return false;
+        }
+
+        final String sha = hex(digest);
+        writer.writeByte(JsonWriter.OBJECT_START);
+        writer.writeString("ref");
+        writer.writeByte(JsonWriter.SEMI);
+        writer.writeString(sha + FILE_SUFFIX);
+        writer.writeByte(JsonWriter.COMMA);
+        writer.writeString("size");
+        writer.writeByte(JsonWriter.SEMI);
+        NumberConverter.serialize(size, writer);
+        writer.writeByte(JsonWriter.COMMA);
+        writer.writeString("sha");
+        writer.writeByte(JsonWriter.SEMI);
+        writer.writeString(sha);
+        writer.writeByte(JsonWriter.OBJECT_END);
+        return true;
+    }
+
+    /**
+     * Encodes the value as UTF-8 in chunks, so that the encoded value is never
+     * held in memory in full.
+     *
+     * @return number of bytes written
+     */
+    static long stream(final CharSequence value, final Path file, final MessageDigest digest) throws IOException {
+        final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        final CharBuffer chars = CharBuffer.wrap(value);
+        final ByteBuffer bytes = ByteBuffer.allocate(CHUNK_SIZE);
+        long size = 0;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            boolean flushed = false;
+            while (!flushed) {
+                final CoderResult result;
+                if (chars.hasRemaining()) {
+                    result = encoder.encode(chars, bytes, true);
+                } else if (encoder.flush(bytes).isUnderflow()) {
+                    flushed = true;
+                    result = CoderResult.UNDERFLOW;
+                } else {
+                    result = CoderResult.OVERFLOW;
+                }
+                if (result.isError()) {
+                    result.throwException();
+                }
+
+                bytes.flip();
+                digest.update(bytes.array(), 0, bytes.limit());
+                while (bytes.hasRemaining()) {
+                    size += channel.write(bytes);
+                }
+                bytes.clear();
+            }
+        }
+
+        return size;
+    }
+
+    static void move(final Path source, final Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    static void deleteQuietly(final Path file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOGGER.warn("Unable to delete temporary spill file [file={}]", file, e);
+        }
+    }
+
+    static String hex(final byte[] bytes) {
+        final char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0x0F];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0x0F];
+        }
+        return new String(chars);
+    }
+}
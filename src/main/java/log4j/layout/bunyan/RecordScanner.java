@@ -0,0 +1,193 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package log4j.layout.bunyan;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Finds and parses values in the bytes of Bunyan records without parsing the
+ * records, for tools that only need a few fields of each record.
+ */
+final class RecordScanner {
+    /**
+     * Time of records that don't have a time field that could be parsed.
+     */
+    static final long NO_TIME = Long.MIN_VALUE;
+
+    private RecordScanner() {
+    }
+
+    /**
+     * Finds the value of a top level or nested key in a line without parsing
+     * it. Keys inside string values are skipped because their quotes are
+     * escaped.
+     *
+     * @param key quoted key followed by a colon
+     * @return index of the first byte of the value or -1 if the key isn't found
+     */
+    static int findValue(final byte[] line, final int start, final int end, final byte[] key) {
+        final int last = end - key.length;
+        for (int i = start; i < last; i++) {
+            if (line[i] != '"' || !regionMatches(line, i, key)) {
+                continue;
+            }
+            int backslashes = 0;
+            for (int j = i - 1; j >= start && line[j] == '\\'; j--) {
+                backslashes++;
+            }
+            if (backslashes % 2 != 0) {
+                continue;
+            }
+            int value = i + key.length;
+            while (value < end && line[value] == ' ') {
+                value++;
+            }
+            return value < end ? value : -1;
+        }
+        return -1;
+    }
+
+    /**
+     * Parses a quoted ISO 8601 time such as <code>"2021-11-25T21:18:27.754Z"</code>
+     * into milliseconds since the epoch. Fractions of any precision and
+     * offsets from UTC are accepted.
+     *
+     * @return milliseconds since the epoch or {@link #NO_TIME} if the value
+     *         isn't a time
+     */
+    static long parseTime(final byte[] b, final int start, final int end) {
+        int i = start + 1;
+        if (end - i < 20 || b[start] != '"'
+                || b[i + 4] != '-' || b[i + 7] != '-' || b[i + 10] != 'T' || b[i + 13] != ':' || b[i + 16] != ':') {
+            return NO_TIME;
+        }
+        final int year = digits(b, i, 4);
+        final int month = digits(b, i + 5, 2);
+        final int day = digits(b, i + 8, 2);
+        final int hour = digits(b, i + 11, 2);
+        final int minute = digits(b, i + 14, 2);
+        final int second = digits(b, i + 17, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31
+                || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 60) {
+            return NO_TIME;
+        }
+        i += 19;
+
+        int millis = 0;
+        if (b[i] == '.') {
+            int precision = 0;
+            for (i++; i < end && b[i] >= '0' && b[i] <= '9'; i++, precision++) {
+                if (precision < 3) {
+                    millis = millis * 10 + (b[i] - '0');
+                }
+            }
+            if (precision == 0) {
+                return NO_TIME;
+            }
+            for (; precision < 3; precision++) {
+                millis *= 10;
+            }
+        }
+
+        int offsetMinutes = 0;
+        if (i < end && b[i] == 'Z') {
+            i++;
+        } else if (i + 6 <= end && (b[i] == '+' || b[i] == '-') && b[i + 3] == ':') {
+            final int offsetHours = digits(b, i + 1, 2);
+            final int offsetRest = digits(b, i + 4, 2);
+            if (offsetHours < 0 || offsetRest < 0) {
+                return NO_TIME;
+            }
+            offsetMinutes = (offsetHours * 60 + offsetRest) * (b[i] == '-' ? -1 : 1);
+            i += 6;
+        } else {
+            return NO_TIME;
+        }
+        if (i >= end || b[i] != '"') {
+            return NO_TIME;
+        }
+
+        final long seconds = (((daysFromCivil(year, month, day) * 24 + hour) * 60 + minute - offsetMinutes) * 60)
+                + second;
+        return seconds * 1000 + millis;
+    }
+
+    /**
+     * @return days since 1970-01-01 of a date in the proleptic Gregorian calendar
+     */
+    static long daysFromCivil(final int year, final int month, final int day) {
+        final long y = month <= 2 ? year - 1 : year;
+        final long era = Math.floorDiv(y, 400);
+        final long yearOfEra = y - era * 400;
+        final long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        final long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    static int parseLevel(final byte[] b, final int start, final int end) {
+        int level = 0;
+        int i = start;
+        for (; i < end && b[i] >= '0' && b[i] <= '9' && level < 100_000; i++) {
+            level = level * 10 + (b[i] - '0');
+        }
+        return i == start ? -1 : level;
+    }
+
+    static int digits(final byte[] b, final int start, final int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            if (b[i] < '0' || b[i] > '9') {
+                return -1;
+            }
+            value = value * 10 + (b[i] - '0');
+        }
+        return value;
+    }
+
+    static boolean regionMatches(final byte[] b, final int start, final byte[] expected) {
+        if (start + expected.length > b.length) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (b[start + i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param start index of the first byte inside a string value
+     * @return index of the quote that ends the string or -1 if it doesn't end
+     *         before the end of the line
+     */
+    static int stringEnd(final byte[] b, final int start, final int end) {
+        for (int i = start; i < end; i++) {
+            if (b[i] == '\\') {
+                i++;
+            } else if (b[i] == '"') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return quoted key followed by a colon, as keys are found by
+     *         {@link #findValue(byte[], int, int, byte[])}
+     */
+    static byte[] key(final String name) {
+        return ('"' + name + "\":").getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,368 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package log4j.layout.bunyan;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Masks sensitive values in text. All literal keys and token prefixes are
+ * compiled into a single Aho-Corasick automaton so that text is scanned once
+ * regardless of the number of configured patterns. Card numbers are detected
+ * in the same pass by tracking runs of digits, which are validated with the
+ * Luhn checksum before being masked.
+ *
+ * <p>Matching is case-insensitive for ASCII letters. Masking is done in
+ * place by replacing characters with the mask character, so the length of
+ * the text never changes and nothing is allocated.</p>
+ */
+public final class Redactor {
+    /**
+     * Patterns may only contain ASCII characters so that transitions can be
+     * stored in dense arrays.
+     */
+    private static final int ALPHABET_SIZE = 128;
+    private static final int MIN_CARD_DIGITS = 13;
+    private static final int MAX_CARD_DIGITS = 19;
+    private static final int CARD_DIGITS_SHOWN = 4;
+
+    /**
+     * Transition table of the automaton with failure transitions resolved, so
+     * that each character is a single array lookup.
+     */
+    private final int[][] transitions;
+    /**
+     * Index of the pattern that ends at each state or -1.
+     */
+    private final int[] patternAt;
+    /**
+     * Nearest state reachable through failure links at which a pattern ends,
+     * or 0 when there is none.
+     */
+    private final int[] outputLink;
+    /**
+     * True for patterns that are keys whose value is masked, false for
+     * prefixes of tokens that are masked.
+     */
+    private final boolean[] isKey;
+    private final int[] patternLength;
+    private final boolean cardNumbers;
+    private final char mask;
+
+    /**
+     * @param keys keys such as <code>password</code> whose values are masked when
+     *             followed by <code>=</code> or <code>:</code>
+     * @param tokenPrefixes prefixes such as <code>ghp_</code> of tokens that are
+     *                      masked after the prefix
+     * @param cardNumbers true to mask all but the last four digits of card numbers
+     * @param mask character to mask values with
+     */
+    public Redactor(final List<String> keys, final List<String> tokenPrefixes,
+                    final boolean cardNumbers, final char mask) {
+        this.cardNumbers = cardNumbers;
+        this.mask = mask;
+
+        final List<String> patterns = new ArrayList<>(keys.size() + tokenPrefixes.size());
+        patterns.addAll(keys);
+        patterns.addAll(tokenPrefixes);
+        this.isKey = new boolean[patterns.size()];
+        Arrays.fill(this.isKey, 0, keys.size(), true);
+        this.patternLength = new int[patterns.size()];
+
+        // Build the trie of all patterns
+        final List<int[]> trie = new ArrayList<>();
+        final List<Integer> terminals = new ArrayList<>();
+        trie.add(newState());
+        terminals.add(-1);
+
+        for (int p = 0; p < patterns.size(); p++) {
+            final String pattern = patterns.get(p);
+            if (pattern.isEmpty()) {
+                throw new IllegalArgumentException("Redaction patterns must not be empty");
+            }
+
+            int state = 0;
+            for (int i = 0; i < pattern.length(); i++) {
+                final char c = pattern.charAt(i);
+                if (c >= ALPHABET_SIZE) {
+                    String msg = String.format("Redaction pattern (%s) must only contain ASCII characters",
+                            pattern);
+                    throw new IllegalArgumentException(msg);
+                }
+                final int index = toLowerCase(c);
+                if (trie.get(state)[index] < 0) {
+                    trie.get(state)[index] = trie.size();
+                    trie.add(newState());
+                    terminals.add(-1);
+                }
+                state = trie.get(state)[index];
+            }
+            terminals.set(state, p);
+            patternLength[p] = pattern.length();
+        }
+
+        // Resolve failure links breadth first into a complete transition table
+        final int stateCount = trie.size();
+        this.transitions = trie.toArray(new int[stateCount][]);
+        this.patternAt = new int[stateCount];
+        this.outputLink = new int[stateCount];
+        final int[] failure = new int[stateCount];
+        for (int s = 0; s < stateCount; s++) {
+            patternAt[s] = terminals.get(s);
+        }
+
+        final ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int c = 0; c < ALPHABET_SIZE; c++) {
+            final int next = transitions[0][c];
+            if (next < 0) {
+                transitions[0][c] = 0;
+            } else {
+                queue.add(next);
+            }
+        }
+
+        while (!queue.isEmpty()) {
+            final int state = queue.poll();
+            final int fail = failure[state];
+            outputLink[state] = patternAt[fail] >= 0 ? fail : outputLink[fail];
+
+            for (int c = 0; c < ALPHABET_SIZE; c++) {
+                final int next = transitions[state][c];
+                if (next < 0) {
+                    transitions[state][c] = transitions[fail][c];
+                } else {
+                    failure[next] = transitions[fail][c];
+                    queue.add(next);
+                }
+            }
+        }
+    }
+
+    private static int[] newState() {
+        final int[] state = new int[ALPHABET_SIZE];
+        Arrays.fill(state, -1);
+        return state;
+    }
+
+    private static int toLowerCase(final char c) {
+        return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+    }
+
+    /**
+     * Masks all sensitive values in the given text in place.
+     *
+     * @param text text to redact
+     */
+    public void redact(final StringBuilder text) {
+        final int length = text.length();
+        int state = 0;
+        int digitRunStart = -1;
+        int digitRunEnd = -1;
+        int digits = 0;
+
+        for (int i = 0; i < length; i++) {
+            final char c = text.charAt(i);
+
+            if (cardNumbers) {
+                if (c >= '0' && c <= '9') {
+                    if (digitRunStart < 0) {
+                        digitRunStart = i;
+                        digits = 0;
+                    }
+                    digits++;
+                    digitRunEnd = i + 1;
+                } else if (digitRunStart >= 0 && !((c == ' ' || c == '-') && digitRunEnd == i)) {
+                    // A single space or dash may separate groups of digits
+                    maskCardNumber(text, digitRunStart, digitRunEnd, digits);
+                    digitRunStart = -1;
+                }
+            }
+
+            if (c >= ALPHABET_SIZE) {
+                state = 0;
+                continue;
+            }
+            state = transitions[state][toLowerCase(c)];
+
+            int match = patternAt[state] >= 0 ? state : outputLink[state];
+            while (match > 0) {
+                final int pattern = patternAt[match];
+                final int end = isKey[pattern] ? maskKeyValue(text, i + 1) : maskToken(text, i + 1);
+                if (end > i + 1) {
+                    // Resume scanning after the masked value
+                    i = end - 1;
+                    state = 0;
+                    digitRunStart = -1;
+                    break;
+                }
+                match = outputLink[match];
+            }
+        }
+
+        if (digitRunStart >= 0) {
+            maskCardNumber(text, digitRunStart, digitRunEnd, digits);
+        }
+    }
+
+    /**
+     * Checks whether a name, such as the key of a context property, is one of
+     * the configured keys, ignoring case. The name is walked through the
+     * automaton, so nothing is allocated.
+     *
+     * @param name name to check
+     * @return true if the name is a configured key
+     */
+    public boolean isKey(final CharSequence name) {
+        final int length = name.length();
+        int state = 0;
+        for (int i = 0; i < length; i++) {
+            final char c = name.charAt(i);
+            if (c >= ALPHABET_SIZE) {
+                return false;
+            }
+            state = transitions[state][toLowerCase(c)];
+        }
+        // The state may have been reached through a failure link, in which case the
+        // pattern that ends there is only a suffix of the name
+        final int pattern = patternAt[state];
+        return pattern >= 0 && isKey[pattern] && patternLength[pattern] == length;
+    }
+
+    /**
+     * Masks every character of the given text in place.
+     *
+     * @param text text to mask
+     */
+    public void mask(final StringBuilder text) {
+        fill(text, 0, text.length());
+    }
+
+    /**
+     * Masks the value that follows a key when the key is followed by a
+     * separator, for example <code>password=value</code>,
+     * <code>password: value</code> or <code>"password":"value"</code>.
+     *
+     * @return index after the masked value or <code>start</code> if nothing was masked
+     */
+    private int maskKeyValue(final StringBuilder text, final int start) {
+        final int length = text.length();
+        int i = start;
+
+        if (i < length && isQuote(text.charAt(i))) {
+            i++;
+        }
+        while (i < length && text.charAt(i) == ' ') {
+            i++;
+        }
+        if (i >= length || (text.charAt(i) != '=' && text.charAt(i) != ':')) {
+            return start;
+        }
+        i++;
+        while (i < length && text.charAt(i) == ' ') {
+            i++;
+        }
+
+        final int valueStart;
+        if (i < length && isQuote(text.charAt(i))) {
+            final char quote = text.charAt(i);
+            valueStart = ++i;
+            while (i < length && text.charAt(i) != quote) {
+                i++;
+            }
+        } else {
+            valueStart = i;
+            while (i < length && !isValueDelimiter(text.charAt(i))) {
+                i++;
+            }
+        }
+
+        if (i == valueStart) {
+            return start;
+        }
+        fill(text, valueStart, i);
+        return i;
+    }
+
+    /**
+     * Masks the characters of a token that follow its prefix.
+     *
+     * @return index after the masked token or <code>start</code> if nothing was masked
+     */
+    private int maskToken(final StringBuilder text, final int start) {
+        final int length = text.length();
+        int i = start;
+        while (i < length && isTokenChar(text.charAt(i))) {
+            i++;
+        }
+        fill(text, start, i);
+        return i;
+    }
+
+    private void maskCardNumber(final StringBuilder text, final int start, final int end, final int digits) {
+        if (digits < MIN_CARD_DIGITS || digits > MAX_CARD_DIGITS || !isLuhnValid(text, start, end)) {
+            return;
+        }
+
+        int shown = 0;
+        for (int i = end - 1; i >= start; i--) {
+            final char c = text.charAt(i);
+            if (c >= '0' && c <= '9' && ++shown > CARD_DIGITS_SHOWN) {
+                text.setCharAt(i, mask);
+            }
+        }
+    }
+
+    static boolean isLuhnValid(final CharSequence text, final int start, final int end) {
+        int sum = 0;
+        boolean doubled = false;
+        for (int i = end - 1; i >= start; i--) {
+            final char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                continue;
+            }
+            int digit = c - '0';
+            if (doubled) {
+                digit *= 2;
+                if (digit > 9) {
+                    digit -= 9;
+                }
+            }
+            sum += digit;
+            doubled = !doubled;
+        }
+        return sum % 10 == 0;
+    }
+
+    private void fill(final StringBuilder text, final int start, final int end) {
+        for (int i = start; i < end; i++) {
+            text.setCharAt(i, mask);
+        }
+    }
+
+    private static boolean isQuote(final char c) {
+        return c == '"' || c == '\'';
+    }
+
+    private static boolean isValueDelimiter(final char c) {
+        return Character.isWhitespace(c) || isQuote(c) || c == ',' || c == ';' || c == '&'
+                || c == '}' || c == ']' || c == ')';
+    }
+
+    private static boolean isTokenChar(final char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || c == '_' || c == '-';
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package log4j.layout.bunyan;
+
+import com.dslplatform.json.JsonWriter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, lock-free table of stack trace fingerprints that allows repeated
+ * stack traces to be written as a back-reference to the first occurrence
+ * within a time window. The table is direct-mapped: a fingerprint that
+ * collides with another fingerprint simply evicts it, which results in the
+ * stack trace being written in full again.
+ */
+public class StackTraceFingerprints {
+    /**
+     * Default number of slots in the fingerprint table.
+     */
+    public static final int DEFAULT_TABLE_SIZE = 1024;
+
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private final AtomicReferenceArray<Entry> table;
+    private final int mask;
+    private final long windowMillis;
+
+    private static final class Entry {
+        private final long fingerprint;
+        private final long windowStart;
+        private final AtomicInteger repeats = new AtomicInteger();
+
+        private Entry(final long fingerprint, final long windowStart) {
+            this.fingerprint = fingerprint;
+            this.windowStart = windowStart;
+        }
+    }
+
+    public StackTraceFingerprints(final long windowMillis, final int tableSize) {
+        if (windowMillis <= 0) {
+            throw new IllegalArgumentException("Back-reference window must be greater than zero");
+        }
+        if (tableSize <= 0) {
+            throw new IllegalArgumentException("Back-reference table size must be greater than zero");
+        }
+        // Round up to a power of two so that slots can be selected with a mask
+        final int size = Integer.highestOneBit(tableSize - 1) << 1;
+        this.table = new AtomicReferenceArray<>(Math.max(size, 1));
+        this.mask = this.table.length() - 1;
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * Records an occurrence of the given fingerprint.
+     *
+     * @param fingerprint fingerprint as returned by {@link #fingerprint(Throwable)}
+     * @param timeMillis time of the log event in epoch milliseconds
+     * @return 0 if this is the first occurrence within the window and the stack
+     *         trace should be written in full, otherwise the number of times the
+     *         fingerprint has been repeated within the window
+     */
+    public int record(final long fingerprint, final long timeMillis) {
+        final int slot = (int) (fingerprint ^ (fingerprint >>> 32)) & mask;
+        Entry current = table.get(slot);
+
+        while (true) {
+            if (current != null && current.fingerprint == fingerprint
+                    && timeMillis - current.windowStart < windowMillis
+                    && timeMillis >= current.windowStart) {
+                return current.repeats.incrementAndGet();
+            }
+
+            final Entry fresh = new Entry(fingerprint, timeMillis);
+            if (table.compareAndSet(slot, current, fresh)) {
+                return 0;
+            }
+            // Another thread replaced the slot - retry against its entry
+            current = table.get(slot);
+        }
+    }
+
+    /**
+     * Calculates a fingerprint of the structure of a throwable. The fingerprint
+     * covers the class names and stack frames of the throwable and all of its
+     * causes, but not the messages because messages commonly contain values
+     * that differ between occurrences of the same error.
+     *
+     * @param throwable throwable to fingerprint
+     * @return 64-bit fingerprint
+     */
+    public static long fingerprint(final Throwable throwable) {
+        long hash = 1125899906842597L;
+        Throwable current = throwable;
+        int depth = 0;
+
+        // Limit the depth so that circular cause chains can't loop forever
+        while (current != null && depth++ < 32) {
+            hash = 31 * hash + current.getClass().getName().hashCode();
+            for (StackTraceElement element : current.getStackTrace()) {
+                hash = 31 * hash + element.hashCode();
+            }
+            current = current.getCause();
+        }
+
+        return mix(hash);
+    }
+
+    /**
+     * Writes a fingerprint as a fixed width lowercase hex string.
+     */
+    static void writeHex(final JsonWriter writer, final long fingerprint) {
+        writer.writeByte(JsonWriter.QUOTE);
+        for (int shift = 60; shift >= 0; shift -= 4) {
+            writer.writeByte(HEX_DIGITS[(int) (fingerprint >>> shift) & 0xF]);
+        }
+        writer.writeByte(JsonWriter.QUOTE);
+    }
+
+    /**
+     * Finalization step from MurmurHash3 so that similar stacks spread
+     * evenly across the table.
+     */
+    private static long mix(final long value) {
+        long h = value;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb3f99e3b97cbL;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -22,13 +22,22 @@ import java.util.Objects;
 
 /**
  * Utilities class that provides Java unescape methods.
- * This class will attempt to find an unescape method by:
+ * Strings that only contain simple escapes such as <code>\n</code> or
+ * <code>\t</code> are unescaped directly. For other escapes, this class will
+ * attempt to find an unescape method by:
  * 1. Looking for a method available within the JRE (String.translateEscapes)
  * 2. Looking for the Apache Commons Text class org.apache.commons.text.StringEscapeUtils
  * 3. If none of the above are available, it will use a naive function to escape the string
  */
 public class StringEscapeUtils {
-    protected static final Class<?> JAVA_UNESCAPE_CLASS = findStringUnescapeClass();
+    /**
+     * Defers probing for an unescape method until a string needs one, so
+     * that configurations with simple line separators don't pay for the
+     * reflection or for loading Commons Text.
+     */
+    private static final class UnescapeClassHolder {
+        static final Class<?> JAVA_UNESCAPE_CLASS = findStringUnescapeClass();
+    }
 
     @SuppressWarnings("JavaReflectionMemberAccess")
     protected static Class<?> findStringUnescapeClass() {
@@ -46,9 +55,17 @@ public class StringEscapeUtils {
     }
 
     protected static String unescape(final String string) {
-        if (JAVA_UNESCAPE_CLASS.equals(String.class)) {
+        if (string.indexOf('\\') < 0) {
+            return string;
+        }
+        if (hasOnlySimpleEscapes(string)) {
+            return unescapeJava(string);
+        }
+
+        final Class<?> unescapeClass = UnescapeClassHolder.JAVA_UNESCAPE_CLASS;
+        if (unescapeClass.equals(String.class)) {
             try {
-                final Method method = JAVA_UNESCAPE_CLASS.getMethod("translateEscapes");
+                final Method method = unescapeClass.getMethod("translateEscapes");
                 return Objects.toString(method.invoke(string));
             } catch (NoSuchMethodException e) {
                 throw new RuntimeException("Cannot find valid translateEscapes method", e);
@@ -58,7 +75,7 @@ public class StringEscapeUtils {
         }
 
         try {
-            final Method method = JAVA_UNESCAPE_CLASS.getMethod("unescapeJava", String.class);
+            final Method method = unescapeClass.getMethod("unescapeJava", String.class);
             return Objects.toString(method.invoke(null, string));
         }  catch (NoSuchMethodException e) {
             throw new RuntimeException("Cannot find valid unescapeJava method", e);
@@ -67,17 +84,70 @@ public class StringEscapeUtils {
         }
     }
 
+    /**
+     * @return true if every escape in the string is supported by {@link #unescapeJava(String)}
+     */
+    protected static boolean hasOnlySimpleEscapes(final String string) {
+        for (int i = 0; i < string.length(); i++) {
+            if (string.charAt(i) != '\\') {
+                continue;
+            }
+            if (++i >= string.length()) {
+                return false;
+            }
+            final char escaped = string.charAt(i);
+            if (escaped == '0') {
+                // \0 followed by another octal digit is an octal escape
+                if (i + 1 < string.length() && string.charAt(i + 1) >= '0' && string.charAt(i + 1) <= '7') {
+                    return false;
+                }
+            } else if (simpleEscape(escaped) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Naive implementation of Java string unescape that supports only a subset of unescapes.
      */
-    @SuppressWarnings("unused")
     public static String unescapeJava(final String string) {
-        return string
-                .replace("\\n", "\n")
-                .replace("\\r", "\r")
-                .replace("\\f", "\f")
-                .replace("\\t", "\t")
-                .replace("\\b", "\b")
-                .replace("\\0", "\0");
+        final StringBuilder builder = new StringBuilder(string.length());
+        for (int i = 0; i < string.length(); i++) {
+            final char c = string.charAt(i);
+            if (c == '\\' && i + 1 < string.length()) {
+                final int unescaped = simpleEscape(string.charAt(i + 1));
+                if (unescaped >= 0) {
+                    builder.append((char) unescaped);
+                    i++;
+                    continue;
+                }
+            }
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+
+    private static int simpleEscape(final char escaped) {
+        switch (escaped) {
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 'f':
+                return '\f';
+            case 't':
+                return '\t';
+            case 'b':
+                return '\b';
+            case '0':
+                return '\0';
+            case '\\':
+            case '"':
+            case '\'':
+                return escaped;
+            default:
+                return -1;
+        }
     }
 }
@@ -0,0 +1,100 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package log4j.layout.bunyan;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, lock-free buffer pool that is shared between threads. This mode
+ * suits applications with very large numbers of threads (such as virtual
+ * threads) where keeping buffers per thread would retain too much memory.
+ *
+ * <p>Threads start probing the slots at an index derived from their thread id
+ * so that concurrent threads rarely contend for the same slot. When no pooled
+ * buffers are found nearby, new buffers are created, and when no free slot is
+ * found on release, the buffers are left to the garbage collector.</p>
+ */
+public class StripedBufferPool implements BufferPool {
+    /**
+     * Maximum number of slots probed when acquiring or releasing buffers.
+     */
+    private static final int MAX_PROBES = 8;
+
+    private final AtomicReferenceArray<EncodeBuffers> slots;
+    private final int mask;
+    private final int probes;
+    private final BufferShrinkPolicy shrinkPolicy;
+
+    public StripedBufferPool(final int poolSize, final BufferShrinkPolicy shrinkPolicy) {
+        if (poolSize <= 0) {
+            throw new IllegalArgumentException("Writer pool size must be greater than zero");
+        }
+        // Round up to a power of two so that slots can be selected with a mask
+        final int size = Math.max(Integer.highestOneBit(poolSize - 1) << 1, 1);
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.probes = Math.min(size, MAX_PROBES);
+        this.shrinkPolicy = shrinkPolicy;
+    }
+
+    @Override
+    public EncodeBuffers acquire() {
+        final int start = stripe();
+        for (int i = 0; i < probes; i++) {
+            final int index = (start + i) & mask;
+            final EncodeBuffers pooled = slots.get(index);
+            if (pooled != null && slots.compareAndSet(index, pooled, null)) {
+                return pooled;
+            }
+        }
+
+        return new EncodeBuffers();
+    }
+
+    @Override
+    public void release(final EncodeBuffers buffers) {
+        final EncodeBuffers retained = shrinkPolicy.shrink(buffers);
+        final int start = stripe();
+        for (int i = 0; i < probes; i++) {
+            final int index = (start + i) & mask;
+            if (slots.get(index) == null && slots.compareAndSet(index, null, retained)) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public long getShrinkCount() {
+        return shrinkPolicy.getShrinkCount();
+    }
+
+    /**
+     * @return number of buffers currently held by the pool
+     */
+    public int size() {
+        int count = 0;
+        for (int i = 0; i < slots.length(); i++) {
+            if (slots.get(i) != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private int stripe() {
+        // Spread sequential thread ids across the slots
+        final long id = Thread.currentThread().getId();
+        return (int) (id * 0x9E3779B97F4A7C15L >>> 40) & mask;
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package log4j.layout.bunyan;
+
+/**
+ * Buffer pool that keeps one set of buffers for each thread that logs. This
+ * is the fastest mode when a small, fixed number of threads log, but every
+ * thread retains its buffers for as long as it is alive.
+ */
+public class ThreadLocalBufferPool implements BufferPool {
+    private final ThreadLocal<EncodeBuffers> buffers;
+    private final BufferShrinkPolicy shrinkPolicy;
+
+    public ThreadLocalBufferPool(final BufferShrinkPolicy shrinkPolicy) {
+        this.buffers = ThreadLocal.withInitial(EncodeBuffers::new);
+        this.shrinkPolicy = shrinkPolicy;
+    }
+
+    @Override
+    public EncodeBuffers acquire() {
+        return buffers.get();
+    }
+
+    @Override
+    public void release(final EncodeBuffers released) {
+        // Buffers stay with their thread unless they need to be replaced with smaller ones
+        final EncodeBuffers retained = shrinkPolicy.shrink(released);
+        if (retained != released) {
+            buffers.set(retained);
+        }
+    }
+
+    @Override
+    public long getShrinkCount() {
+        return shrinkPolicy.getShrinkCount();
+    }
+}
@@ -0,0 +1,212 @@
+package log4j.layout.bunyan;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.MarkerManager;
+import org.apache.logging.log4j.core.config.NullConfiguration;
+import org.apache.logging.log4j.core.impl.MutableLogEvent;
+import org.apache.logging.log4j.core.util.KeyValuePair;
+import org.apache.logging.log4j.message.FormattedMessage;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.apache.logging.log4j.spi.MutableThreadContextStack;
+import org.apache.logging.log4j.util.SortedArrayStringMap;
+import org.apache.logging.log4j.util.StringMap;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Verifies the number of bytes allocated on the heap per encoded event for
+ * each supported event shape. Most shapes must be encoded without allocating,
+ * the remaining shapes have an explicit budget because they depend on Log4j
+ * components that allocate.
+ */
+public class AllocationTest {
+    private static final int WARMUP_ITERATIONS = 20_000;
+    private static final int MEASURED_ITERATIONS = 10_000;
+
+    /**
+     * Event shape paired with the layout that encodes it and its allocation budget.
+     */
+    static final class Shape {
+        final String name;
+        final BunyanJsonLayout layout;
+        final MutableLogEvent event;
+        final long budgetBytesPerEvent;
+
+        Shape(final String name, final BunyanJsonLayout layout, final MutableLogEvent event,
+              final long budgetBytesPerEvent) {
+            this.name = name;
+            this.layout = layout;
+            this.event = event;
+            this.budgetBytesPerEvent = budgetBytesPerEvent;
+        }
+    }
+
+    @Test
+    @DisplayName("Given a warmed up layout, encoding each event shape allocates no more than its budget")
+    void encodingStaysWithinAllocationBudget() {
+        final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        Assumptions.assumeTrue(threadMXBean instanceof com.sun.management.ThreadMXBean,
+                "Thread allocation measurement is not supported by this JVM");
+        final com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadMXBean;
+        Assumptions.assumeTrue(allocationBean.isThreadAllocatedMemorySupported(),
+                "Thread allocation measurement is not supported by this JVM");
+        allocationBean.setThreadAllocatedMemoryEnabled(true);
+
+        final List<String> errors = new LinkedList<>();
+        final CapturingByteBufferDestination destination = new CapturingByteBufferDestination(64 * 1024);
+
+        for (Shape shape : shapes()) {
+            final long bytesPerEvent = measure(allocationBean, shape, destination);
+            if (bytesPerEvent > shape.budgetBytesPerEvent) {
+                String msg = String.format("Event shape [%s] allocated more than its budget "
+                                + "[actual=%d bytes/event,budget=%d bytes/event]",
+                        shape.name, bytesPerEvent, shape.budgetBytesPerEvent);
+                errors.add(msg);
+            }
+        }
+
+        if (!errors.isEmpty()) {
+            Assertions.fail(String.join("\n", errors));
+        }
+    }
+
+    static long measure(final com.sun.management.ThreadMXBean allocationBean, final Shape shape,
+                        final CapturingByteBufferDestination destination) {
+        final long threadId = Thread.currentThread().getId();
+
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            shape.layout.encode(shape.event, destination);
+            destination.clear();
+        }
+
+        // Measure the cost of the measurement itself so that it can be subtracted
+        final long overheadStart = allocationBean.getThreadAllocatedBytes(threadId);
+        final long overhead = allocationBean.getThreadAllocatedBytes(threadId) - overheadStart;
+
+        final long start = allocationBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            shape.layout.encode(shape.event, destination);
+            destination.clear();
+        }
+        final long allocated = allocationBean.getThreadAllocatedBytes(threadId) - start - overhead;
+
+        return Math.max(0, allocated) / MEASURED_ITERATIONS;
+    }
+
+    static List<Shape> shapes() {
+        final List<Shape> shapes = new LinkedList<>();
+
+        shapes.add(new Shape("simple message", layout(false), event(Level.INFO), 0));
+
+        shapes.add(new Shape("custom level", layout(false), event(Level.forName("LVL99", 99)), 0));
+
+        final MutableLogEvent truncated = event(Level.INFO);
+        final char[] chars = new char[BunyanJsonLayout.DEFAULT_MAX_MESSAGE_LENGTH + 100];
+        Arrays.fill(chars, 'x');
+        truncated.setMessage(new SimpleMessage(new String(chars)));
+        shapes.add(new Shape("truncated message", layout(false), truncated, 0));
+
+        final MutableLogEvent marker = event(Level.INFO);
+        marker.setMarker(MarkerManager.getMarker("AUDIT"));
+        shapes.add(new Shape("marker", layout(false), marker, 0));
+
+        final MutableLogEvent source = event(Level.INFO);
+        source.setSource(new StackTraceElement(AllocationTest.class.getName(), "shapes",
+                "AllocationTest.java", 42));
+        final BunyanJsonLayout located = BunyanJsonLayout.newBuilder()
+                .setAppName("allocation-test")
+                .setIncludeLocation(true)
+                .setConfiguration(new NullConfiguration())
+                .build();
+        shapes.add(new Shape("source location", located, source, 0));
+
+        final MutableLogEvent contextStack = event(Level.INFO);
+        final MutableThreadContextStack stack = new MutableThreadContextStack(Arrays.asList("outer", "inner"));
+        stack.freeze();
+        contextStack.setContextStack(stack);
+        shapes.add(new Shape("context stack", layout(false), contextStack, 0));
+
+        final MutableLogEvent properties = event(Level.INFO);
+        final StringMap contextData = new SortedArrayStringMap();
+        contextData.putValue("traceId", "c0160ca6-50ba-11ec-a64b-fbca1ea30083");
+        contextData.putValue("userId", "42");
+        properties.setContextData(contextData);
+        shapes.add(new Shape("context properties", layout(true), properties, 0));
+
+        final KeyValuePair[] staticFields = new KeyValuePair[] {
+                new KeyValuePair("region", "us-west-2")
+        };
+        shapes.add(new Shape("static additional fields", layout(staticFields), event(Level.INFO), 0));
+
+        // Lookups are resolved by Log4j's StrSubstitutor which allocates while parsing
+        final KeyValuePair[] dynamicFields = new KeyValuePair[] {
+                new KeyValuePair("traceId", "${ctx:traceId:-}")
+        };
+        final MutableLogEvent dynamic = event(Level.INFO);
+        dynamic.setContextData(contextData);
+        shapes.add(new Shape("dynamic additional fields", layout(dynamicFields), dynamic, 2 * 1024));
+
+        // Stack traces are rendered by Log4j's ThrowablePatternConverter which allocates heavily
+        final MutableLogEvent thrown = event(Level.ERROR);
+        final Throwable t = new RuntimeException("failure");
+        thrown.setMessage(new FormattedMessage("failure", "", t));
+        thrown.setThrown(t);
+        shapes.add(new Shape("throwable", layout(false), thrown, 96 * 1024));
+
+        final BunyanJsonLayout redacted = BunyanJsonLayout.newBuilder()
+                .setAppName("allocation-test")
+                .setRedaction(BunyanRedaction.newBuilder().setKeys("password").setCardNumbers(true).build())
+                .setConfiguration(new NullConfiguration())
+                .build();
+        final MutableLogEvent sensitive = event(Level.INFO);
+        sensitive.setMessage(new SimpleMessage("login password=hunter2 card 4111111111111111"));
+        shapes.add(new Shape("redacted message", redacted, sensitive, 0));
+
+        final BunyanJsonLayout pooled = BunyanJsonLayout.newBuilder()
+                .setAppName("allocation-test")
+                .setWriterPool(BufferPool.POOLED)
+                .setConfiguration(new NullConfiguration())
+                .build();
+        shapes.add(new Shape("simple message with pooled writers", pooled, event(Level.INFO), 0));
+
+        return shapes;
+    }
+
+    static BunyanJsonLayout layout(final boolean includeAllContextProperties) {
+        return layout(new KeyValuePair[0], includeAllContextProperties);
+    }
+
+    static BunyanJsonLayout layout(final KeyValuePair[] additionalFields) {
+        return layout(additionalFields, false);
+    }
+
+    static BunyanJsonLayout layout(final KeyValuePair[] additionalFields,
+                                   final boolean includeAllContextProperties) {
+        return BunyanJsonLayout.newBuilder()
+                .setAppName("allocation-test")
+                .setAdditionalFields(additionalFields)
+                .setIncludeAllContextProperties(includeAllContextProperties)
+                .setConfiguration(new NullConfiguration())
+                .build();
+    }
+
+    static MutableLogEvent event(final Level level) {
+        final MutableLogEvent event = new MutableLogEvent();
+        event.setLevel(level);
+        event.setLoggerName(AllocationTest.class.getName());
+        event.setTimeMillis(1637875107754L);
+        event.setThreadName("main");
+        event.setThreadId(1);
+        event.setThreadPriority(5);
+        event.setMessage(new SimpleMessage("request completed"));
+        return event;
+    }
+}
@@ -0,0 +1,179 @@
+package log4j.layout.bunyan;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.config.NullConfiguration;
+import org.apache.logging.log4j.core.impl.MutableLogEvent;
+import org.apache.logging.log4j.core.net.Protocol;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BatchingSocketAppenderTest {
+    @Test
+    void recordsAreDeliveredOverTcp() throws Exception {
+        try (ServerSocket server = new ServerSocket(0)) {
+            final CompletableFuture<String> received = CompletableFuture.supplyAsync(() -> readAll(server));
+            final BatchingSocketAppender appender = appender(Protocol.TCP, server.getLocalPort())
+                    .setBatchSize(4096)
+                    .build();
+            appender.start();
+
+            for (int i = 0; i < 1000; i++) {
+                appender.append(event(Level.INFO, "event " + i));
+            }
+            assertTrue(appender.stop(10, TimeUnit.SECONDS));
+
+            final String[] lines = received.get(10, TimeUnit.SECONDS).split("\n");
+            assertEquals(1000, lines.length);
+            for (int i = 0; i < lines.length; i++) {
+                assertTrue(lines[i].startsWith("{") && lines[i].contains("\"msg\":\"event " + i + "\""),
+                        lines[i]);
+            }
+            assertEquals(0, appender.getManager().getDroppedEventCount());
+        }
+    }
+
+    @Test
+    void datagramsContainWholeRecordsOverUdp() throws Exception {
+        try (DatagramChannel server = DatagramChannel.open()) {
+            server.bind(new InetSocketAddress("localhost", 0));
+            final int port = ((InetSocketAddress) server.getLocalAddress()).getPort();
+            final BatchingSocketAppender appender = appender(Protocol.UDP, port)
+                    .setBatchSize(1024)
+                    .build();
+            appender.start();
+
+            for (int i = 0; i < 100; i++) {
+                appender.append(event(Level.INFO, "event " + i));
+            }
+            assertTrue(appender.stop(10, TimeUnit.SECONDS));
+
+            server.configureBlocking(false);
+            final ByteBuffer datagram = ByteBuffer.allocate(BatchingSocketManager.MAX_DATAGRAM_SIZE);
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            int records = 0;
+            while (records < 100 && System.nanoTime() < deadline) {
+                datagram.clear();
+                if (server.receive(datagram) == null) {
+                    Thread.sleep(10);
+                    continue;
+                }
+                final String text = new String(datagram.array(), 0, datagram.position(), StandardCharsets.UTF_8);
+                assertTrue(text.length() <= 1024);
+                assertTrue(text.startsWith("{") && text.endsWith("}\n"), text);
+                records += text.split("\n").length;
+            }
+            assertEquals(100, records);
+        }
+    }
+
+    @Test
+    void droppableEventsDoNotBlockWhenPeerIsUnavailable() throws Exception {
+        final int port;
+        try (ServerSocket unused = new ServerSocket(0)) {
+            port = unused.getLocalPort();
+        }
+
+        final BatchingSocketAppender appender = appender(Protocol.TCP, port)
+                .setBatchSize(1024)
+                .setBatchCount(2)
+                .setDropLevel(Level.INFO)
+                .setMaxBlockMillis(100)
+                .setReconnectDelayMillis(60_000)
+                .build();
+        appender.start();
+
+        final long start = System.nanoTime();
+        for (int i = 0; i < 1000; i++) {
+            appender.append(event(Level.INFO, "event " + i));
+        }
+        final long infoMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        final long droppedInfo = appender.getManager().getDroppedEventCount();
+
+        appender.append(event(Level.ERROR, "important"));
+        final long droppedError = appender.getManager().getDroppedEventCount() - droppedInfo;
+        appender.stop(1, TimeUnit.SECONDS);
+
+        assertTrue(infoMillis < 1000, "Producers blocked for " + infoMillis + "ms");
+        assertTrue(droppedInfo > 900, "Dropped " + droppedInfo + " events");
+        assertEquals(1, droppedError, "Error events are dropped when no batch is free");
+    }
+
+    @Test
+    void severeEventsDoNotBlockWhenPeerIsUnavailableWithDefaultSettings() throws Exception {
+        final int port;
+        try (ServerSocket unused = new ServerSocket(0)) {
+            port = unused.getLocalPort();
+        }
+
+        final BatchingSocketAppender appender = appender(Protocol.TCP, port).build();
+        appender.start();
+
+        // Enough records to fill every batch twice, each of which would block for
+        // the maximum block time if producers waited for the peer
+        final String message = String.join("", Collections.nCopies(100, "unreachable "));
+        assertTimeoutPreemptively(Duration.ofMillis(BatchingSocketAppender.DEFAULT_MAX_BLOCK_MILLIS), () -> {
+            for (int i = 0; i < 400; i++) {
+                appender.append(event(i % 2 == 0 ? Level.WARN : Level.ERROR, message));
+            }
+        });
+        final long dropped = appender.getManager().getDroppedEventCount();
+        appender.stop(1, TimeUnit.SECONDS);
+
+        assertTrue(dropped > 100, "Dropped " + dropped + " events");
+    }
+
+    static BatchingSocketAppender.Builder<?> appender(final Protocol protocol, final int port) {
+        final BunyanJsonLayout layout = BunyanJsonLayout.newBuilder()
+                .setAppName("unit-test")
+                .setConfiguration(new NullConfiguration())
+                .build();
+        return BatchingSocketAppender.newBuilder()
+                .setName("batching")
+                .setLayout(layout)
+                .setHost("localhost")
+                .setPort(port)
+                .setProtocol(protocol)
+                .setConnectTimeoutMillis(1000);
+    }
+
+    static MutableLogEvent event(final Level level, final String message) {
+        final MutableLogEvent event = new MutableLogEvent();
+        event.setLevel(level);
+        event.setLoggerName(BatchingSocketAppenderTest.class.getName());
+        event.setTimeMillis(System.currentTimeMillis());
+        event.setMessage(new SimpleMessage(message));
+        return event;
+    }
+
+    static String readAll(final ServerSocket server) {
+        try (Socket socket = server.accept(); InputStream in = socket.getInputStream()) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
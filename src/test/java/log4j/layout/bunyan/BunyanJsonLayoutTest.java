@@ -8,8 +8,21 @@ import org.apache.logging.log4j.core.util.KeyValuePair;
 import org.apache.logging.log4j.message.SimpleMessage;
 import org.junit.jupiter.api.Test;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class BunyanJsonLayoutTest {
     @Test
@@ -72,4 +85,186 @@ public class BunyanJsonLayoutTest {
         assertEquals((byte)'\r', log[log.length-2]);
         assertEquals((byte)'\n', log[log.length-1]);
     }
+
+    @Test
+    void pooledWritersProduceSameOutputAsThreadLocalWriters() throws Exception {
+        final Configuration config = new NullConfiguration();
+        final BunyanJsonLayout threadLocal = BunyanJsonLayout.newBuilder()
+                .setAppName("unit-test")
+                .setConfiguration(config)
+                .build();
+        final BunyanJsonLayout pooled = BunyanJsonLayout.newBuilder()
+                .setAppName("unit-test")
+                .setWriterPool(BufferPool.POOLED)
+                .setWriterPoolSize(2)
+                .setConfiguration(config)
+                .build();
+
+        final MutableLogEvent event = new MutableLogEvent();
+        event.setLevel(Level.INFO);
+        event.setLoggerName(getClass().getName());
+        event.setTimeMillis(1637875107754L);
+        event.setMessage(new SimpleMessage("pooled"));
+        final String expected = threadLocal.toSerializable(event);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                results.add(executor.submit(() -> {
+                    final CapturingByteBufferDestination destination = new CapturingByteBufferDestination();
+                    pooled.encode(event, destination);
+                    return destination.toString();
+                }));
+            }
+            for (Future<String> result : results) {
+                assertEquals(expected, result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void unknownWriterPoolModeIsRejected() {
+        final BunyanJsonLayout.Builder builder = BunyanJsonLayout.newBuilder()
+                .setAppName("unit-test")
+                .setWriterPool("bogus")
+                .setConfiguration(new NullConfiguration());
+        assertThrows(IllegalArgumentException.class, builder::build);
+    }
+
+    @Test
+    void buffersAreShrunkAfterLargeEvents() {
+        for (String mode : new String[] { BufferPool.THREAD_LOCAL, BufferPool.POOLED }) {
+            final BunyanJsonLayout layout = BunyanJsonLayout.newBuilder()
+                    .setAppName("unit-test")
+                    .setWriterPool(mode)
+                    .setMaxRetainedBufferSize(16 * 1024)
+                    .setConfiguration(new NullConfiguration())
+                    .build();
+            final MutableLogEvent event = new MutableLogEvent();
+            event.setLevel(Level.INFO);
+            event.setLoggerName(getClass().getName());
+
+            event.setMessage(new SimpleMessage("small"));
+            layout.encode(event, new CapturingByteBufferDestination());
+            assertEquals(0, layout.getBufferShrinkCount(), mode);
+
+            final char[] chars = new char[200_000];
+            Arrays.fill(chars, 'x');
+            final String large = new String(chars);
+            event.setMessage(new SimpleMessage(large));
+            final CapturingByteBufferDestination destination = new CapturingByteBufferDestination();
+            layout.encode(event, destination);
+            assertTrue(destination.toString().contains(large.substring(0, BunyanJsonLayout.DEFAULT_MAX_MESSAGE_LENGTH)), mode);
+            assertEquals(1, layout.getBufferShrinkCount(), mode);
+
+            event.setMessage(new SimpleMessage("small again"));
+            layout.encode(event, new CapturingByteBufferDestination());
+            assertEquals(1, layout.getBufferShrinkCount(), mode);
+        }
+    }
+
+    @Test
+    void lengthPrefixedFramingPrefixesRecordsWithTheirLength() {
+        final BunyanJsonLayout layout = BunyanJsonLayout.newBuilder()
+                .setAppName("unit-test")
+                .setFraming("lengthPrefixed")
+                .setConfiguration(new NullConfiguration())
+                .build();
+        final MutableLogEvent event = framingEvent();
+
+        final String record = layout.toSerializable(event);
+        assertTrue(record.endsWith("}"), "No line separator is expected by default");
+        final byte[] json = record.getBytes(StandardCharsets.UTF_8);
+
+        final CapturingByteBufferDestination destination = new CapturingByteBufferDestination();
+        layout.encode(event, destination);
+        layout.encode(event, destination);
+        final ByteBuffer framed = ByteBuffer.wrap(destination.toByteArray());
+
+        for (int i = 0; i < 2; i++) {
+            assertEquals(json.length, framed.getInt());
+            final byte[] actual = new byte[json.length];
+            framed.get(actual);
+            assertArrayEquals(json, actual);
+        }
+        assertEquals(0, framed.remaining());
+
+        final byte[] bytes = layout.toByteArray(event);
+        assertEquals(json.length + 4, bytes.length);
+        assertEquals(json.length, ByteBuffer.wrap(bytes).getInt());
+    }
+
+    @Test
+    void octetCountingFramingPrefixesRecordsWithTheirLength() {
+        final BunyanJsonLayout layout = BunyanJsonLayout.newBuilder()
+                .setAppName("unit-test")
+                .setFraming("octetCounting")
+                .setLineSeparator("\\n")
+                .setConfiguration(new NullConfiguration())
+                .build();
+        final MutableLogEvent event = framingEvent();
+
+        final String record = layout.toSerializable(event);
+        assertTrue(record.endsWith("}\n"), "Explicit line separator is expected");
+        final int length = record.getBytes(StandardCharsets.UTF_8).length;
+
+        final CapturingByteBufferDestination destination = new CapturingByteBufferDestination();
+        layout.encode(event, destination);
+        assertEquals(length + " " + record, destination.toString());
+        assertEquals(length + " " + record, new String(layout.toByteArray(event), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void unknownFramingIsRejected() {
+        final BunyanJsonLayout.Builder builder = BunyanJsonLayout.newBuilder()
+                .setAppName("unit-test")
+                .setFraming("bogus")
+                .setConfiguration(new NullConfiguration());
+        assertThrows(IllegalArgumentException.class, builder::build);
+    }
+
+    @Test
+    void profilerRecordsCostOfEachWrittenField() {
+        final BunyanJsonLayout disabled = BunyanJsonLayout.newBuilder()
+                .setAppName("unit-test")
+                .setConfiguration(new NullConfiguration())
+                .build();
+        assertNull(disabled.getFieldProfiler());
+
+        final BunyanJsonLayout layout = BunyanJsonLayout.newBuilder()
+                .setAppName("unit-test")
+                .setFields("v,level,msg,err")
+                .setProfileSampleRate(1)
+                .setConfiguration(new NullConfiguration())
+                .build();
+        final MutableLogEvent event = framingEvent();
+        for (int i = 0; i < 10; i++) {
+            layout.encode(event, new CapturingByteBufferDestination());
+        }
+
+        final FieldProfiler profiler = layout.getFieldProfiler();
+        assertEquals(10, profiler.getSampledEventCount());
+        assertArrayEquals(new String[] { "v", "level", "msg", "err" }, profiler.getFieldNames());
+        assertArrayEquals(new long[] { 10, 10, 10, 0 }, profiler.getWrittenCounts());
+        final int msgBytes = "\"msg\":\"framed \u00e9v\u00e9nement\",".getBytes(StandardCharsets.UTF_8).length;
+        assertEquals(10L * msgBytes, profiler.getTotalBytes()[2]);
+        assertTrue(profiler.getNanosAtPercentile(2, 99.0) >= profiler.getNanosAtPercentile(2, 50.0));
+        assertTrue(profiler.getReport().contains("msg"));
+
+        profiler.reset();
+        assertEquals(0, profiler.getSampledEventCount());
+        assertEquals(0, profiler.getTotalBytes()[2]);
+    }
+
+    private MutableLogEvent framingEvent() {
+        final MutableLogEvent event = new MutableLogEvent();
+        event.setLevel(Level.INFO);
+        event.setLoggerName(getClass().getName());
+        event.setTimeMillis(1637875107754L);
+        event.setMessage(new SimpleMessage("framed \u00e9v\u00e9nement"));
+        return event;
+    }
 }
@@ -0,0 +1,100 @@
+package log4j.layout.bunyan;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class BunyanLogMergerTest {
+    static String record(final String time, final int level, final String component, final String msg) {
+        return String.format("{\"v\":0,\"level\":%d,\"component\":\"%s\",\"time\":\"%s\",\"msg\":\"%s\"}",
+                level, component, time, msg);
+    }
+
+    static Path write(final Path file, final boolean gzip, final String... lines) throws IOException {
+        try (OutputStream out = gzip ? new GZIPOutputStream(Files.newOutputStream(file))
+                : Files.newOutputStream(file)) {
+            out.write((String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        return file;
+    }
+
+    static String merge(final BunyanLogMerger merger, final Path... files) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        merger.merge(Arrays.asList(files), out);
+        return out.toString(StandardCharsets.UTF_8.name());
+    }
+
+    @Test
+    void linesAreInterleavedByTime(@TempDir final Path directory) throws IOException {
+        final String a1 = record("2021-11-25T21:18:27.100Z", 30, "a", "a1");
+        final String a2 = record("2021-11-25T21:18:27.300Z", 30, "a", "a2 \\\"time\\\":\\\"1999\\\"");
+        final String a3 = record("2021-11-25T21:18:27.500Z", 30, "a", "a3");
+        final String b1 = record("2021-11-25T21:18:27.200Z", 30, "b", "b1");
+        final String b2 = record("2021-11-25T21:18:27.300Z", 30, "b", "b2");
+        final String b3 = record("2021-11-25T22:18:27.400+01:00", 30, "b", "b3");
+        // Longer than the read buffer, so the buffer has to grow to hold it
+        final char[] padding = new char[LineReader.BUFFER_SIZE * 2];
+        Arrays.fill(padding, 'x');
+        final String c1 = record("2021-11-25T21:18:27.250Z", 30, "c", new String(padding));
+
+        final Path a = write(directory.resolve("a.log"), false, a1, a2, "not a record", a3);
+        final Path b = write(directory.resolve("b.log.gz"), true, b1, b2, b3);
+        final Path c = write(directory.resolve("c.log"), false, c1);
+        final Path empty = write(directory.resolve("empty.log"), false);
+
+        final String expected = String.join("\n", a1, b1, c1, a2, "not a record", b2, b3, a3) + "\n";
+        assertEquals(expected, merge(new BunyanLogMerger(), a, b, empty, c));
+    }
+
+    @Test
+    void linesAreFilteredByLevelAndComponent(@TempDir final Path directory) throws IOException {
+        final String debug = record("2021-11-25T21:18:27.100Z", 20, "orders", "debug");
+        final String warn = record("2021-11-25T21:18:27.200Z", 40, "orders", "warn");
+        final String error = record("2021-11-25T21:18:27.300Z", 50, "payments", "error");
+        final String other = record("2021-11-25T21:18:27.400Z", 60, "users", "fatal");
+        final Path a = write(directory.resolve("a.log"), false, debug, error);
+        final Path b = write(directory.resolve("b.log"), false, warn, other, "no level");
+
+        assertEquals(String.join("\n", warn, error, other) + "\n",
+                merge(new BunyanLogMerger(BunyanLogMerger.level("WARN"), null), a, b));
+        assertEquals(String.join("\n", debug, warn, error) + "\n",
+                merge(new BunyanLogMerger(0, Arrays.asList("orders", "payments")), a, b));
+        assertEquals(error + "\n",
+                merge(new BunyanLogMerger(45, Collections.singletonList("payments")), a, b));
+        assertThrows(IllegalArgumentException.class, () -> BunyanLogMerger.level("verbose"));
+    }
+
+    @Test
+    void timesAreParsedWithoutParsingRecords() {
+        final String[] times = {"2021-11-25T21:18:27.754Z", "2021-11-25T21:18:27Z", "1969-12-31T23:59:59.9Z",
+                "2000-02-29T12:00:00.123456789Z", "2021-01-01T00:30:00.5-08:30", "1600-03-01T00:00:00+14:00"};
+        for (String time : times) {
+            final byte[] quoted = ('"' + time + '"').getBytes(StandardCharsets.UTF_8);
+            assertEquals(OffsetDateTime.parse(time).toInstant().toEpochMilli(),
+                    RecordScanner.parseTime(quoted, 0, quoted.length), time);
+        }
+        assertEquals(Instant.parse("2021-11-25T21:18:27.754Z").toEpochMilli(),
+                RecordScanner.parseTime("x\"2021-11-25T21:18:27.754Z\"".getBytes(StandardCharsets.UTF_8), 1, 27));
+
+        final String[] invalid = {"\"2021-11-25 21:18:27Z\"", "\"2021-13-25T21:18:27Z\"", "\"2021-11-25T21:18:27\"",
+                "\"2021-11-25T21:18:27.Z\"", "1637875107754", "\"yesterday\""};
+        for (String time : invalid) {
+            final byte[] bytes = time.getBytes(StandardCharsets.UTF_8);
+            assertEquals(RecordScanner.NO_TIME, RecordScanner.parseTime(bytes, 0, bytes.length), time);
+        }
+    }
+}
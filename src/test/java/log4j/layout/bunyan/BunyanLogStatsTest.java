@@ -0,0 +1,137 @@
+package log4j.layout.bunyan;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import log4j.layout.bunyan.BunyanLogStats.Dimension;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class BunyanLogStatsTest {
+    private static final String[] COMPONENTS = {"com.example.Orders", "com.example.Payments", "a,b \\\"quoted\\\""};
+    private static final String[] ERRORS = {"java.io.IOException", "java.lang.IllegalStateException"};
+
+    static List<String> records(final int count, final long seed) {
+        final Random random = new Random(seed);
+        final List<String> lines = new ArrayList<>(count);
+        long time = Instant.parse("2021-11-25T21:18:27.754Z").toEpochMilli();
+        for (int i = 0; i < count; i++) {
+            time += random.nextInt(5_000);
+            final StringBuilder line = new StringBuilder("{\"v\":0,\"level\":")
+                    .append(10 * (1 + random.nextInt(6)))
+                    .append(",\"name\":\"app\",\"component\":\"").append(COMPONENTS[random.nextInt(COMPONENTS.length)])
+                    .append("\",\"time\":\"").append(Instant.ofEpochMilli(time))
+                    .append("\",\"msg\":\"message ").append(i).append(" \\\"name\\\":\\\"fake\\\"\"");
+            if (random.nextInt(4) == 0) {
+                line.append(",\"err\":{\"message\":\"failed \\\"name\\\":\\\"fake\\\"\",\"name\":\"")
+                        .append(ERRORS[random.nextInt(ERRORS.length)])
+                        .append("\",\"stack\":\"at Foo.bar(Foo.java:1)\"}");
+            }
+            lines.add(line.append('}').toString());
+        }
+        return lines;
+    }
+
+    static Map<String, Map<String, Long>> parsed(final List<String> lines) throws IOException {
+        final ObjectMapper mapper = new ObjectMapper();
+        final Map<String, Map<String, Long>> counts = new TreeMap<>();
+        for (Dimension dimension : Dimension.values()) {
+            counts.put(dimension.getKey(), new TreeMap<>());
+        }
+        for (String line : lines) {
+            final JsonNode record = mapper.readTree(line);
+            counts.get("level").merge(record.get("level").asText(), 1L, Long::sum);
+            counts.get("component").merge(record.get("component").asText(), 1L, Long::sum);
+            if (record.has("err")) {
+                counts.get("err").merge(record.get("err").get("name").asText(), 1L, Long::sum);
+            }
+            final String time = record.get("time").asText();
+            counts.get("minute").merge(time.substring(0, 16) + "Z", 1L, Long::sum);
+        }
+        return counts;
+    }
+
+    static Map<String, Map<String, Long>> sorted(final BunyanLogStats.Histograms histograms) {
+        final Map<String, Map<String, Long>> counts = new TreeMap<>();
+        for (Dimension dimension : Dimension.values()) {
+            counts.put(dimension.getKey(), new TreeMap<>(histograms.get(dimension)));
+        }
+        return counts;
+    }
+
+    @Test
+    void countsMatchParsedRecordsForAnyChunkSize(@TempDir final Path directory) throws IOException {
+        final List<String> first = records(2_000, 1);
+        final List<String> second = records(500, 2);
+        final Path plain = directory.resolve("a.log");
+        Files.write(plain, first, StandardCharsets.UTF_8);
+        final Path gzip = BunyanLogMergerTest.write(directory.resolve("b.log.gz"), true,
+                second.toArray(new String[0]));
+
+        final List<String> all = new ArrayList<>(first);
+        all.addAll(second);
+        final Map<String, Map<String, Long>> expected = parsed(all);
+
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (long chunkSize : new long[] {1, 97, 4096, BunyanLogStats.DEFAULT_CHUNK_SIZE}) {
+                final BunyanLogStats.Histograms histograms = new BunyanLogStats(
+                        EnumSet.allOf(Dimension.class), chunkSize).aggregate(Arrays.asList(plain, gzip), pool);
+                assertEquals(all.size(), histograms.getRecordCount(), "chunk size " + chunkSize);
+                assertEquals(expected, sorted(histograms), "chunk size " + chunkSize);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void histogramsAreWrittenAsJsonAndCsv(@TempDir final Path directory) throws IOException {
+        final Path file = BunyanLogMergerTest.write(directory.resolve("a.log"), false,
+                BunyanLogMergerTest.record("2021-11-25T21:18:27.100Z", 30, "orders", "a"),
+                BunyanLogMergerTest.record("2021-11-25T21:19:01.100Z", 50, "a,b \\\"c\\\"", "b"),
+                BunyanLogMergerTest.record("2021-11-25T21:18:59.900Z", 30, "orders", "c"),
+                "not a record");
+        final BunyanLogStats.Histograms histograms = new BunyanLogStats(
+                EnumSet.of(Dimension.LEVEL, Dimension.COMPONENT, Dimension.MINUTE))
+                .aggregate(Collections.singletonList(file));
+
+        final ByteArrayOutputStream json = new ByteArrayOutputStream();
+        histograms.writeJson(json);
+        assertEquals("{\"records\":4,\"level\":{\"30\":2,\"50\":1},"
+                + "\"component\":{\"orders\":2,\"a,b \\\"c\\\"\":1},"
+                + "\"minute\":{\"2021-11-25T21:18Z\":2,\"2021-11-25T21:19Z\":1}}\n",
+                json.toString(StandardCharsets.UTF_8.name()));
+
+        final ByteArrayOutputStream csv = new ByteArrayOutputStream();
+        histograms.writeCsv(csv);
+        assertEquals("dimension,key,count\n"
+                + "level,30,2\nlevel,50,1\n"
+                + "component,orders,2\ncomponent,\"a,b \"\"c\"\"\",1\n"
+                + "minute,2021-11-25T21:18Z,2\nminute,2021-11-25T21:19Z,1\n",
+                csv.toString(StandardCharsets.UTF_8.name()));
+
+        assertEquals(Collections.emptyMap(), histograms.get(Dimension.ERROR));
+        assertThrows(IllegalArgumentException.class, () -> Dimension.forKey("host"));
+        assertThrows(IllegalArgumentException.class,
+                () -> new BunyanLogStats(EnumSet.noneOf(Dimension.class)));
+    }
+}
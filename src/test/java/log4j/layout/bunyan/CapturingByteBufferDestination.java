@@ -0,0 +1,68 @@
+package log4j.layout.bunyan;
+
+import org.apache.logging.log4j.core.layout.ByteBufferDestination;
+import org.apache.logging.log4j.core.layout.ByteBufferDestinationHelper;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * {@link ByteBufferDestination} that captures everything written to it in memory.
+ */
+public class CapturingByteBufferDestination implements ByteBufferDestination {
+    private final ByteBuffer buffer;
+    private final ByteArrayOutputStream drained = new ByteArrayOutputStream();
+
+    public CapturingByteBufferDestination() {
+        this(8192);
+    }
+
+    public CapturingByteBufferDestination(final int capacity) {
+        this.buffer = ByteBuffer.allocate(capacity);
+    }
+
+    @Override
+    public ByteBuffer getByteBuffer() {
+        return buffer;
+    }
+
+    @Override
+    public ByteBuffer drain(final ByteBuffer buf) {
+        buf.flip();
+        drained.write(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+        buf.clear();
+        return buf;
+    }
+
+    @Override
+    public void writeBytes(final ByteBuffer data) {
+        ByteBufferDestinationHelper.writeToUnsynchronized(data, this);
+    }
+
+    @Override
+    public void writeBytes(final byte[] data, final int offset, final int length) {
+        ByteBufferDestinationHelper.writeToUnsynchronized(data, offset, length, this);
+    }
+
+    /**
+     * @return all bytes written so far
+     */
+    public byte[] toByteArray() {
+        drain(buffer);
+        return drained.toByteArray();
+    }
+
+    @Override
+    public String toString() {
+        return new String(toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Discards all bytes written so far.
+     */
+    public void clear() {
+        buffer.clear();
+        drained.reset();
+    }
+}
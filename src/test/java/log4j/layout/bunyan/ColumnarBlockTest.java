@@ -0,0 +1,161 @@
+package log4j.layout.bunyan;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.MarkerManager;
+import org.apache.logging.log4j.core.config.NullConfiguration;
+import org.apache.logging.log4j.core.impl.MutableLogEvent;
+import org.apache.logging.log4j.core.util.KeyValuePair;
+import org.apache.logging.log4j.message.FormattedMessage;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.apache.logging.log4j.util.SortedArrayStringMap;
+import org.apache.logging.log4j.util.StringMap;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ColumnarBlockTest {
+    private static final String[] COMPONENTS = {"com.example.Orders", "com.example.Payments", "com.example.Users"};
+    private static final Level[] LEVELS = {Level.INFO, Level.DEBUG, Level.WARN, Level.ERROR,
+            Level.forName("NOTICE", 350)};
+
+    static BunyanJsonLayout layout() {
+        return BunyanJsonLayout.newBuilder()
+                .setAppName("columnar-test")
+                .setIncludeAllContextProperties(true)
+                .setAdditionalFields(new KeyValuePair[] {new KeyValuePair("region", "us-west-2")})
+                .setLevelMappings(new BunyanLevelMapping[] {
+                        BunyanLevelMapping.newBuilder().setLevel("NOTICE").setBunyanLevel(35)
+                                .setName("notice").build()})
+                .setFieldProfiles(new BunyanFieldProfile[] {
+                        BunyanFieldProfile.newBuilder()
+                                .setLevel(Level.ERROR)
+                                .setFields("time:ts,level,component,msg,err,properties")
+                                .build()})
+                .setConfiguration(new NullConfiguration())
+                .build();
+    }
+
+    static List<MutableLogEvent> events(final int count) {
+        final List<MutableLogEvent> events = new ArrayList<>(count);
+        long time = 1637875107754L;
+        for (int i = 0; i < count; i++) {
+            final MutableLogEvent event = new MutableLogEvent();
+            final Level level = LEVELS[i % LEVELS.length];
+            event.setLevel(level);
+            event.setLoggerName(COMPONENTS[(i * 7) % COMPONENTS.length]);
+            // Clocks can go backwards
+            time += i % 11 == 10 ? -5 : (i * 13) % 50;
+            event.setTimeMillis(time);
+            event.setThreadName("worker-" + (i % 4));
+            event.setThreadId(10 + i % 4);
+            event.setThreadPriority(5);
+            if (level == Level.ERROR) {
+                final Throwable t = new IllegalStateException("failure " + i);
+                event.setMessage(new FormattedMessage("request {} failed", new Object[] {i}, t));
+                event.setThrown(t);
+            } else {
+                event.setMessage(new SimpleMessage("request " + i + " completed"));
+            }
+            if (i % 3 == 0) {
+                event.setMarker(MarkerManager.getMarker("AUDIT"));
+            }
+            final StringMap contextData = new SortedArrayStringMap();
+            contextData.putValue("requestId", Integer.toString(1000 + i));
+            event.setContextData(contextData);
+            events.add(event);
+        }
+        return events;
+    }
+
+    static byte[] rows(final BunyanJsonLayout layout, final List<MutableLogEvent> events) {
+        final ByteArrayOutputStream rows = new ByteArrayOutputStream();
+        for (MutableLogEvent event : events) {
+            final byte[] record = layout.toByteArray(event);
+            rows.write(record, 0, record.length);
+        }
+        return rows.toByteArray();
+    }
+
+    static byte[] blocks(final BunyanJsonLayout layout, final List<MutableLogEvent> events,
+                         final int rowsPerBlock) throws IOException {
+        final ByteArrayOutputStream blocks = new ByteArrayOutputStream();
+        try (ColumnarBlockWriter writer = new ColumnarBlockWriter(layout, blocks, rowsPerBlock)) {
+            for (MutableLogEvent event : events) {
+                assertTrue(writer.append(event));
+            }
+        }
+        return blocks.toByteArray();
+    }
+
+    @Test
+    void blocksAreReadBackAsTheRecordsOfTheLayout() throws IOException {
+        final BunyanJsonLayout layout = layout();
+        final List<MutableLogEvent> events = events(25);
+        final byte[] blocks = blocks(layout, events, 10);
+
+        final ByteArrayOutputStream records = new ByteArrayOutputStream();
+        int blockCount = 0;
+        try (ColumnarBlockReader reader = new ColumnarBlockReader(new ByteArrayInputStream(blocks))) {
+            for (ColumnarBlockReader.Block block = reader.next(); block != null; block = reader.next()) {
+                block.writeRecords(records);
+                blockCount++;
+            }
+        }
+
+        assertEquals(3, blockCount);
+        assertEquals(new String(rows(layout, events), StandardCharsets.UTF_8),
+                new String(records.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void columnsCanBeReadOneAtATime() throws IOException {
+        final BunyanJsonLayout layout = layout();
+        final byte[] blocks = blocks(layout, events(5), 10);
+
+        try (ColumnarBlockReader reader = new ColumnarBlockReader(new ByteArrayInputStream(blocks))) {
+            final ColumnarBlockReader.Block block = reader.next();
+            assertEquals(5, block.getRowCount());
+            assertTrue(block.getColumnKeys().contains("ts"));
+
+            final byte[][] levels = block.readColumn("level");
+            assertArrayEquals("30".getBytes(StandardCharsets.UTF_8), levels[0]);
+            assertArrayEquals("35,\"level_name\":\"notice\"".getBytes(StandardCharsets.UTF_8), levels[4]);
+
+            final byte[][] times = block.readColumn("time");
+            assertArrayEquals("\"2021-11-25T21:18:27.754Z\"".getBytes(StandardCharsets.UTF_8), times[0]);
+            assertNull(times[3], "ERROR events are written with the ts key");
+            assertFalse(block.readColumn("ts")[3] == null);
+
+            assertThrows(IllegalArgumentException.class, () -> block.readColumn("missing"));
+            assertNull(reader.next());
+        }
+    }
+
+    @Test
+    void blocksAreSmallerThanCompressedRecords() throws IOException {
+        final BunyanJsonLayout layout = layout();
+        final List<MutableLogEvent> events = events(2000);
+
+        final ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(gzipped)) {
+            gzip.write(rows(layout, events));
+        }
+        final byte[] blocks = blocks(layout, events, ColumnarBlockWriter.DEFAULT_ROWS_PER_BLOCK);
+
+        assertTrue(blocks.length < gzipped.size(),
+                String.format("columnar=%d bytes, gzip=%d bytes", blocks.length, gzipped.size()));
+    }
+}
@@ -0,0 +1,88 @@
+package log4j.layout.bunyan;
+
+import com.dslplatform.json.JsonWriter;
+import com.dslplatform.json.SerializationException;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class EscapeScannerTest {
+    private final JsonWriter expected = EncodeBuffers.newWriter();
+    private final JsonWriter actual = EncodeBuffers.newWriter();
+
+    void assertWrittenAsByWriter(final String value) {
+        expected.reset();
+        actual.reset();
+        expected.writeString(value);
+        EscapeScanner.writeString(actual, value);
+        assertArrayEquals(expected.toByteArray(), actual.toByteArray(), value);
+    }
+
+    @Test
+    void naughtyStringsAreWrittenAsByTheWriter() throws IOException {
+        try (NaughtyStrings naughtyStrings = new NaughtyStrings()) {
+            for (String naughty : naughtyStrings) {
+                assertWrittenAsByWriter(naughty);
+                assertWrittenAsByWriter("request completed: " + naughty);
+            }
+        }
+    }
+
+    @Test
+    void everyCharacterIsDetectedInEveryLane() {
+        final char[] chars = "request completed".toCharArray();
+        for (int c = Character.MIN_VALUE; c <= Character.MAX_VALUE; c++) {
+            final boolean plain = c >= 0x20 && c < '~' && c != '"' && c != '\\';
+            for (int position = 0; position < 5; position++) {
+                final char original = chars[position];
+                chars[position] = (char) c;
+                final String value = new String(chars);
+                assertEquals(plain ? value.length() : position, EscapeScanner.firstEscape(value),
+                        String.format("U+%04X at %d", c, position));
+                chars[position] = original;
+            }
+        }
+        // Only check the output of a sample of characters because it is checked above for each lane
+        for (int c = 0; c < 0x100; c++) {
+            assertWrittenAsByWriter("request " + (char) c + " completed");
+        }
+    }
+
+    @Test
+    void charactersAfterTheFirstEscapeAreEscapedAsByTheWriter() {
+        final String prefix = "a long clean prefix that is bulk copied ";
+        for (int c = Character.MIN_VALUE; c <= Character.MAX_VALUE; c++) {
+            if (!Character.isSurrogate((char) c)) {
+                assertWrittenAsByWriter(prefix + "\t" + (char) c + " and then some");
+            }
+        }
+        assertWrittenAsByWriter(prefix + "\u00e9t\u00e9 \uD83D\uDE00 \u2028 \u007F~\\\"\u0000\u001F");
+        assertWrittenAsByWriter(prefix + "\uD83D\uDE00");
+        // Tails that make the writer grow while they are escaped
+        final StringBuilder tail = new StringBuilder(prefix);
+        for (int i = 0; i < 5000; i++) {
+            tail.append("\t\u00e9\uD83D\uDE00\u0001\"x");
+            if (i % 997 == 0) {
+                assertWrittenAsByWriter(tail.toString());
+            }
+        }
+        assertWrittenAsByWriter(tail.toString());
+        assertThrows(SerializationException.class, () -> expected.writeString(prefix + "\uD83D end"));
+        assertThrows(SerializationException.class, () -> EscapeScanner.writeString(actual, prefix + "\uD83D end"));
+        assertThrows(SerializationException.class, () -> EscapeScanner.writeString(actual, prefix + "\uDE00"));
+    }
+
+    @Test
+    void shortAndEmptyStringsAreWrittenDirectly() {
+        assertEquals(0, EscapeScanner.firstEscape(""));
+        assertEquals(3, EscapeScanner.firstEscape("tab\tin a long string"));
+        assertEquals(22, EscapeScanner.firstEscape("no escapes in this one"));
+        assertWrittenAsByWriter("");
+        assertWrittenAsByWriter("a\"b");
+        assertWrittenAsByWriter("exactly8");
+    }
+}
@@ -0,0 +1,90 @@
+package log4j.layout.bunyan;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class EventSequencerTest {
+    @Test
+    void sequenceNumbersAreUniqueAndIncreaseWithinEachThread() throws InterruptedException {
+        final EventSequencer sequencer = new EventSequencer(8);
+        final Set<Long> numbers = ConcurrentHashMap.newKeySet();
+        final List<Thread> threads = new ArrayList<>();
+        final List<AssertionError> errors = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final Thread thread = new Thread(() -> {
+                long previous = 0;
+                for (int i = 0; i < 10_000; i++) {
+                    final long next = sequencer.next();
+                    if (next <= previous || !numbers.add(next)) {
+                        synchronized (errors) {
+                            errors.add(new AssertionError("Sequence number repeated or decreased: " + next));
+                        }
+                        return;
+                    }
+                    previous = next;
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertTrue(errors.isEmpty(), errors.toString());
+        assertEquals(40_000, numbers.size());
+        // Every thread used all of its blocks, so no numbers were skipped
+        assertEquals(40_000L, numbers.stream().mapToLong(Long::longValue).max().getAsLong());
+    }
+
+    @Test
+    void blockSizeOfOneNumbersEventsInOrder() {
+        final EventSequencer sequencer = new EventSequencer(1);
+        for (long expected = 1; expected <= 100; expected++) {
+            assertEquals(expected, sequencer.next());
+        }
+        assertThrows(IllegalArgumentException.class, () -> new EventSequencer(0));
+    }
+
+    @Test
+    void threadSequenceNumbersAreCountedPerLoggingThread() {
+        final EventSequencer sequencer = new EventSequencer(EventSequencer.DEFAULT_BLOCK_SIZE);
+        final long current = Thread.currentThread().getId();
+        assertEquals(1, sequencer.nextForThread(current));
+        assertEquals(2, sequencer.nextForThread(current));
+
+        // Events of other threads, as encoded by the thread of an asynchronous logger
+        final long others = 1_000_000L;
+        for (int round = 1; round <= 3; round++) {
+            for (long id = others; id < others + 100; id++) {
+                assertEquals(round, sequencer.nextForThread(id));
+            }
+        }
+        assertEquals(3, sequencer.nextForThread(current));
+    }
+
+    @Test
+    void threadsThatKeepLoggingKeepTheirCountsWhenManyThreadsComeAndGo() {
+        final EventSequencer sequencer = new EventSequencer(EventSequencer.DEFAULT_BLOCK_SIZE);
+        final long longLived = 42;
+        final long shortLived = 1_000_000L;
+        long expected = 0;
+        for (long id = shortLived; id < shortLived + EventSequencer.MAX_FOREIGN_THREADS * 5L; id++) {
+            assertEquals(1, sequencer.nextForThread(id), "Short-lived threads log once");
+            if (id % 100 == 0) {
+                assertEquals(++expected, sequencer.nextForThread(longLived), "No false restart");
+            }
+        }
+
+        // Threads that logged least recently are forgotten and start over
+        assertEquals(1, sequencer.nextForThread(shortLived));
+    }
+}
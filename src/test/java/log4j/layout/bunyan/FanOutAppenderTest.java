@@ -0,0 +1,101 @@
+package log4j.layout.bunyan;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.appender.OutputStreamAppender;
+import org.apache.logging.log4j.core.config.AppenderRef;
+import org.apache.logging.log4j.core.config.NullConfiguration;
+import org.apache.logging.log4j.core.impl.MutableLogEvent;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static log4j.layout.bunyan.BatchingSocketAppenderTest.event;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class FanOutAppenderTest {
+    @Test
+    void eventsAreEncodedOnceAndWrittenToEachDestination() {
+        final NullConfiguration configuration = new NullConfiguration();
+        final ByteArrayOutputStream file = new ByteArrayOutputStream();
+        final ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        addDestination(configuration, "file", file);
+        addDestination(configuration, "errors", errors);
+        addDestination(configuration, "broken", new OutputStream() {
+            @Override
+            public void write(final int b) throws IOException {
+                throw new IOException("disk full");
+            }
+
+            @Override
+            public void write(final byte[] b, final int off, final int len) throws IOException {
+                throw new IOException("disk full");
+            }
+        });
+
+        // Every event is profiled, so the profiler counts the number of times events are encoded
+        final BunyanJsonLayout layout = BunyanJsonLayout.newBuilder()
+                .setAppName("unit-test")
+                .setProfileSampleRate(1)
+                .setConfiguration(configuration)
+                .build();
+        final FanOutAppender fanOut = FanOutAppender.newBuilder()
+                .setName("fanOut")
+                .setLayout(layout)
+                .setConfiguration(configuration)
+                .setAppenderRefs(AppenderRef.createAppenderRef("broken", null, null),
+                        AppenderRef.createAppenderRef("file", null, null),
+                        AppenderRef.createAppenderRef("errors", Level.ERROR, null),
+                        AppenderRef.createAppenderRef("missing", null, null))
+                .build();
+        fanOut.start();
+
+        final MutableLogEvent info = event(Level.INFO, "started");
+        final MutableLogEvent error = event(Level.ERROR, "failed");
+        fanOut.append(info);
+        fanOut.append(error);
+        fanOut.stop();
+
+        final String infoRecord = new String(layout.toByteArray(info), StandardCharsets.UTF_8);
+        final String errorRecord = new String(layout.toByteArray(error), StandardCharsets.UTF_8);
+        assertEquals(infoRecord + errorRecord, new String(file.toByteArray(), StandardCharsets.UTF_8),
+                "Failing destinations don't affect the others");
+        assertEquals(errorRecord, new String(errors.toByteArray(), StandardCharsets.UTF_8));
+        assertEquals(2, fanOut.getFailureCount("broken"));
+        assertEquals(0, fanOut.getFailureCount("file"));
+        assertEquals(-1, fanOut.getFailureCount("missing"));
+        assertEquals(4, layout.getFieldProfiler().getSampledEventCount(),
+                "Each event is encoded once by the fan-out and once by the assertions");
+    }
+
+    @Test
+    void stagingBufferIsReplacedAfterAnOversizedEvent() {
+        final FanOutAppender.StagingDestination staging = new FanOutAppender.StagingDestination();
+        final ByteBuffer initial = staging.getByteBuffer();
+        staging.writeBytes(new byte[1000], 0, 1000);
+        staging.clear();
+        assertSame(initial, staging.getByteBuffer(), "Buffers that didn't grow past the limit are kept");
+
+        staging.writeBytes(new byte[1 << 20], 0, 1 << 20);
+        assertTrue(staging.getByteBuffer().capacity() > FanOutAppender.StagingDestination.MAX_RETAINED_SIZE);
+        staging.clear();
+        assertEquals(FanOutAppender.StagingDestination.INITIAL_SIZE, staging.getByteBuffer().capacity());
+        assertEquals(0, staging.getByteBuffer().position());
+    }
+
+    static void addDestination(final NullConfiguration configuration, final String name, final OutputStream out) {
+        final OutputStreamAppender appender = OutputStreamAppender.newBuilder()
+                .setName(name)
+                .setTarget(out)
+                .setLayout(FlightRecorderAppenderTest.layout(configuration))
+                .setConfiguration(configuration)
+                .build();
+        appender.start();
+        configuration.addAppender(appender);
+    }
+}
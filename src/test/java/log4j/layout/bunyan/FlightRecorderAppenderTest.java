@@ -0,0 +1,189 @@
+package log4j.layout.bunyan;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.appender.FileAppender;
+import org.apache.logging.log4j.core.config.NullConfiguration;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static log4j.layout.bunyan.BatchingSocketAppenderTest.event;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class FlightRecorderAppenderTest {
+    @Test
+    void debugRecordsPrecedingAnErrorAreDumped(@TempDir final Path directory) throws Exception {
+        final Path file = directory.resolve("dump.log");
+        final NullConfiguration configuration = new NullConfiguration();
+        final FileAppender fileAppender = FileAppender.newBuilder()
+                .setName("dump")
+                .withFileName(file.toString())
+                .setLayout(layout(configuration))
+                .setConfiguration(configuration)
+                .build();
+        fileAppender.start();
+        configuration.addAppender(fileAppender);
+
+        final FlightRecorderAppender recorder = FlightRecorderAppender.newBuilder()
+                .setName("recorder")
+                .setLayout(layout(configuration))
+                .setConfiguration(configuration)
+                .setDestination("dump")
+                .setSize(64 * 1024)
+                .build();
+        recorder.start();
+
+        recorder.append(event(Level.DEBUG, "first"));
+        recorder.append(event(Level.INFO, "second"));
+        assertEquals(0, Files.size(file), "Nothing is dumped before the trigger");
+        recorder.append(event(Level.ERROR, "failure"));
+        recorder.append(event(Level.DEBUG, "after"));
+        recorder.append(event(Level.ERROR, "another failure"));
+        recorder.stop();
+        fileAppender.stop();
+
+        final List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        assertEquals(5, lines.size(), "Records are dumped once: " + lines);
+        final String[] messages = { "first", "second", "failure", "after", "another failure" };
+        for (int i = 0; i < messages.length; i++) {
+            assertTrue(lines.get(i).contains("\"msg\":\"" + messages[i] + "\""), lines.get(i));
+        }
+        assertEquals(2, recorder.getDumpCount());
+    }
+
+    @Test
+    void ringKeepsMostRecentCompleteRecords() throws Exception {
+        final FlightRecorderRing ring = new FlightRecorderRing(4096, 64);
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final int id = t;
+            final Thread writer = new Thread(() -> {
+                long n = 0;
+                while (running.get()) {
+                    // Records of varying length that span one to three slots
+                    final StringBuilder record = new StringBuilder().append(id).append(':').append(n++).append(':');
+                    for (int i = 0; i < n % 150; i++) {
+                        record.append((char) ('a' + id));
+                    }
+                    final byte[] bytes = record.toString().getBytes(StandardCharsets.UTF_8);
+                    ring.write(System.currentTimeMillis(), bytes, 0, bytes.length);
+                }
+            });
+            writer.start();
+            writers.add(writer);
+        }
+
+        try {
+            for (int i = 0; i < 200; i++) {
+                final FlightRecorderRing.Snapshot snapshot = ring.snapshot(0, 0);
+                for (byte[] data : snapshot.getRecords()) {
+                    final String[] parts = new String(data, StandardCharsets.UTF_8).split(":", 3);
+                    final int id = Integer.parseInt(parts[0]);
+                    final long n = Long.parseLong(parts[1]);
+                    assertEquals((n + 1) % 150, parts[2].length(), "Torn record");
+                    for (char c : parts[2].toCharArray()) {
+                        assertEquals('a' + id, c, "Torn record");
+                    }
+                }
+                assertTrue(snapshot.getRecords().size() * 64 <= ring.getCapacity());
+            }
+        } finally {
+            running.set(false);
+            for (Thread writer : writers) {
+                writer.join();
+            }
+        }
+
+        // Writers that lapped a writer still copying have dropped their records too
+        final long dropped = ring.getDroppedRecordCount();
+        final byte[] tooLarge = new byte[ring.getCapacity()];
+        assertFalse(ring.write(0, tooLarge, 0, tooLarge.length));
+        assertEquals(dropped + 1, ring.getDroppedRecordCount());
+    }
+
+    @Test
+    void writersDoNotWaitForAWriterParkedMidCopy() throws Exception {
+        final CountDownLatch parked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final FlightRecorderRing ring = new FlightRecorderRing(256, 64) {
+            @Override
+            void copy(final long first, final long timeMillis, final byte[] data, final int offset,
+                      final int length) {
+                if (first == 0) {
+                    parked.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                super.copy(first, timeMillis, data, offset, length);
+            }
+        };
+        final byte[] record = "record".getBytes(StandardCharsets.UTF_8);
+        final Thread slow = new Thread(() -> ring.write(0, record, 0, record.length));
+        slow.start();
+        assertTrue(parked.await(5, TimeUnit.SECONDS));
+
+        try {
+            // Every fourth record laps the first slot, which the parked writer still holds
+            assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+                final List<Thread> writers = new ArrayList<>();
+                for (int t = 0; t < 4; t++) {
+                    final Thread writer = new Thread(() -> {
+                        for (int i = 0; i < 100; i++) {
+                            ring.write(0, record, 0, record.length);
+                        }
+                    });
+                    writer.start();
+                    writers.add(writer);
+                }
+                for (Thread writer : writers) {
+                    writer.join();
+                }
+            });
+            assertTrue(ring.getDroppedRecordCount() > 0, "Records that lapped the parked writer are dropped");
+        } finally {
+            release.countDown();
+            slow.join();
+        }
+    }
+
+    @Test
+    void stagingBufferIsReleasedAfterAnOversizedEvent() {
+        final FlightRecorderRing ring = new FlightRecorderRing(4 << 20, 1024);
+        final FlightRecorderAppender.RingDestination destination = new FlightRecorderAppender.RingDestination(ring);
+        final ByteBuffer initial = destination.getByteBuffer();
+        destination.writeBytes(ByteBuffer.wrap(new byte[1000]));
+        destination.flushStaged();
+        assertSame(initial, destination.getByteBuffer(), "Buffers that didn't grow past the limit are kept");
+
+        destination.writeBytes(ByteBuffer.wrap(new byte[1 << 20]));
+        destination.flushStaged();
+        assertEquals(2, ring.snapshot(0, 0).getRecords().size());
+        assertEquals(FlightRecorderAppender.RingDestination.INITIAL_STAGING_SIZE,
+                destination.getByteBuffer().capacity());
+    }
+
+    static BunyanJsonLayout layout(final NullConfiguration configuration) {
+        return BunyanJsonLayout.newBuilder()
+                .setAppName("unit-test")
+                .setConfiguration(configuration)
+                .build();
+    }
+}
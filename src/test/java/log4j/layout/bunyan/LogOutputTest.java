@@ -10,25 +10,38 @@ import org.apache.logging.log4j.core.Layout;
 import org.apache.logging.log4j.core.LogEvent;
 import org.apache.logging.log4j.core.config.Configuration;
 import org.apache.logging.log4j.core.config.NullConfiguration;
+import org.apache.logging.log4j.core.impl.JdkMapAdapterStringMap;
 import org.apache.logging.log4j.core.impl.MutableLogEvent;
 import org.apache.logging.log4j.core.util.KeyValuePair;
 import org.apache.logging.log4j.message.FormattedMessage;
 import org.apache.logging.log4j.message.Message;
+import org.apache.logging.log4j.message.ParameterizedMessage;
 import org.apache.logging.log4j.message.SimpleMessage;
 import org.apache.logging.log4j.spi.DefaultThreadContextStack;
 import org.apache.logging.log4j.util.SortedArrayStringMap;
 import org.apache.logging.log4j.util.StringMap;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
 import java.time.Instant;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class LogOutputTest {
@@ -132,7 +145,12 @@ public class LogOutputTest {
 
     @Test
     void canLogNaughtyStrings() throws IOException {
-        final BunyanJsonLayout layout = instance(true);
+        final BunyanJsonLayout layout = BunyanJsonLayout.newBuilder()
+                .setAppName(appName)
+                .setIncludeAllContextProperties(true)
+                .setIncludeLocation(true)
+                .setConfiguration(new NullConfiguration())
+                .build();
 
         try (NaughtyStrings naughtyStrings = new NaughtyStrings()) {
             final StringMap contextData = new SortedArrayStringMap();
@@ -158,6 +176,12 @@ public class LogOutputTest {
                 String json = fauxLogger.formatEvent(event, layout);
                 contextData.clear();
                 validateEvent(event, json);
+
+                final JsonNode src = objectMapper.readValue(json, JsonNode.class).get("src");
+                assertNotNull(src, json);
+                assertEquals(string, src.get("file").asText());
+                assertEquals(7, src.get("line").asInt());
+                assertEquals(string + "." + string, src.get("func").asText());
             }
         }
     }
@@ -204,6 +228,414 @@ public class LogOutputTest {
         validateEvent(event, json);
     }
 
+    @Test
+    void repeatedStackTracesAreWrittenAsBackReferences() throws IOException {
+        final BunyanThrowableFormat.Builder builder = BunyanThrowableFormat.newBuilder();
+        builder.setBackReferenceWindow(60);
+        final BunyanJsonLayout layout = instance(new KeyValuePair[0], builder.build(), false);
+        final long timestamp = System.currentTimeMillis();
+        final Throwable t = new RuntimeException("repeated");
+
+        final JsonNode[] errs = new JsonNode[3];
+        for (int i = 0; i < errs.length; i++) {
+            final MutableLogEvent event = new MutableLogEvent();
+            event.setTimeMillis(timestamp + i);
+            event.setLoggerName(getClass().getName());
+            event.setLevel(Level.ERROR);
+            event.setMessage(new FormattedMessage("failure", "", t));
+            event.setThrown(t);
+            final String json = fauxLogger.formatEvent(event, layout);
+            validateEvent(event, json);
+            errs[i] = objectMapper.readValue(json, JsonNode.class).get("err");
+        }
+
+        final String stackId = errs[0].get("stack_id").asText();
+        assertEquals(16, stackId.length());
+        assertTrue(errs[0].hasNonNull("stack"));
+        assertFalse(errs[0].has("stack_repeat"));
+
+        for (int i = 1; i < errs.length; i++) {
+            assertEquals(stackId, errs[i].get("stack_id").asText());
+            assertFalse(errs[i].has("stack"));
+            assertEquals(i, errs[i].get("stack_repeat").asInt());
+        }
+
+        // Once the window elapses the stack trace is written in full again
+        final MutableLogEvent later = new MutableLogEvent();
+        later.setTimeMillis(timestamp + 61_000L);
+        later.setLoggerName(getClass().getName());
+        later.setLevel(Level.ERROR);
+        later.setMessage(new FormattedMessage("failure", "", t));
+        later.setThrown(t);
+        final JsonNode err = objectMapper.readValue(fauxLogger.formatEvent(later, layout), JsonNode.class)
+                .get("err");
+        assertEquals(stackId, err.get("stack_id").asText());
+        assertTrue(err.hasNonNull("stack"));
+    }
+
+    @Test
+    void canSelectOrderAndRenameFields() throws IOException {
+        final BunyanJsonLayout layout = BunyanJsonLayout.newBuilder()
+                .setAppName(appName)
+                .setFields("v, level, name, time, component:logger, msg, err, properties")
+                .setIncludeAllContextProperties(true)
+                .setConfiguration(new NullConfiguration())
+                .build();
+        final MutableLogEvent event = new MutableLogEvent();
+        event.setTimeMillis(Instant.parse("2021-11-25T21:18:27.754Z").toEpochMilli());
+        event.setLoggerName(getClass().getName());
+        event.setLevel(Level.INFO);
+        event.setMessage(new SimpleMessage("hello"));
+        event.setThreadName("main");
+        final StringMap contextData = new SortedArrayStringMap();
+        contextData.putValue("traceId", "c0160ca6");
+        event.setContextData(contextData);
+
+        final String json = fauxLogger.formatEvent(event, layout);
+        assertEquals("{\"v\":0,\"level\":30,\"name\":\"output-test\",\"time\":\"2021-11-25T21:18:27.754Z\","
+                + "\"logger\":\"" + getClass().getName() + "\",\"msg\":\"hello\",\"traceId\":\"c0160ca6\"}\n",
+                json);
+    }
+
+    @Test
+    void unknownFieldsAreRejected() {
+        final BunyanJsonLayout.Builder builder = BunyanJsonLayout.newBuilder()
+                .setAppName(appName)
+                .setFields("v,level,name,nonsense")
+                .setConfiguration(new NullConfiguration());
+        assertThrows(IllegalArgumentException.class, builder::build);
+    }
+
+    @Test
+    void sensitiveValuesAreRedacted() throws IOException {
+        final BunyanRedaction redaction = BunyanRedaction.newBuilder()
+                .setKeys("password,token")
+                .setCardNumbers(true)
+                .build();
+        final BunyanJsonLayout layout = BunyanJsonLayout.newBuilder()
+                .setAppName(appName)
+                .setRedaction(redaction)
+                .setIncludeAllContextProperties(true)
+                .setConfiguration(new NullConfiguration())
+                .build();
+        final MutableLogEvent event = new MutableLogEvent();
+        event.setLoggerName(getClass().getName());
+        event.setLevel(Level.ERROR);
+        final Throwable t = new IllegalStateException("login failed for password=hunter2");
+        event.setMessage(new FormattedMessage("charging card 4111 1111 1111 1111", new Object[0], t));
+        event.setThrown(t);
+        final StringMap contextData = new SortedArrayStringMap();
+        contextData.putValue("request", "token=abc123&user=bob");
+        event.setContextData(contextData);
+
+        final String json = fauxLogger.formatEvent(event, layout);
+        final JsonNode jsonNode = objectMapper.readValue(json, JsonNode.class);
+        assertEquals("charging card **** **** **** 1111", jsonNode.get("msg").asText());
+        assertEquals("login failed for password=*******", jsonNode.get("err").get("message").asText());
+        assertFalse(jsonNode.get("err").get("stack").asText().contains("hunter2"));
+        assertEquals("token=******&user=bob", jsonNode.get("request").asText());
+    }
+
+    @Test
+    void contextPropertiesWithSensitiveKeysAreMasked() throws IOException {
+        final BunyanJsonLayout layout = BunyanJsonLayout.newBuilder()
+                .setAppName(appName)
+                .setRedaction(BunyanRedaction.newBuilder().setKeys("password").build())
+                .setIncludeAllContextProperties(true)
+                .setConfiguration(new NullConfiguration())
+                .build();
+        final Map<String, String> mdc = new HashMap<>();
+        mdc.put("password", "hunter2");
+        mdc.put("user", "bob");
+        final StringMap indexed = new SortedArrayStringMap();
+        indexed.putAll(new JdkMapAdapterStringMap(mdc));
+
+        // Sorted maps are written by index and other maps with forEach
+        for (StringMap contextData : Arrays.asList(indexed, new JdkMapAdapterStringMap(mdc))) {
+            final MutableLogEvent event = new MutableLogEvent();
+            event.setLoggerName(getClass().getName());
+            event.setLevel(Level.INFO);
+            event.setMessage(new SimpleMessage("logged in"));
+            event.setContextData(contextData);
+
+            final String json = fauxLogger.formatEvent(event, layout);
+            final JsonNode jsonNode = objectMapper.readValue(json, JsonNode.class);
+            assertEquals("*******", jsonNode.get("password").asText(), json);
+            assertEquals("bob", jsonNode.get("user").asText());
+        }
+    }
+
+    @Test
+    void oversizedValuesAreSpilledToSideFiles(@TempDir final Path directory) throws Exception {
+        final BunyanJsonLayout layout = BunyanJsonLayout.newBuilder()
+                .setAppName(appName)
+                .setSpill(BunyanSpill.newBuilder().setDirectory(directory.toString()).setThreshold(1024).build())
+                .setConfiguration(new NullConfiguration())
+                .build();
+        final char[] chars = new char[100_000];
+        Arrays.fill(chars, '\u00e9');
+        final String payload = new String(chars);
+        final Throwable t = new IllegalStateException("failure");
+        final MutableLogEvent event = new MutableLogEvent();
+        event.setLoggerName(getClass().getName());
+        event.setLevel(Level.ERROR);
+        event.setMessage(new FormattedMessage(payload, new Object[0], t));
+        event.setThrown(t);
+
+        final JsonNode first = objectMapper.readValue(fauxLogger.formatEvent(event, layout), JsonNode.class);
+        final JsonNode second = objectMapper.readValue(fauxLogger.formatEvent(event, layout), JsonNode.class);
+
+        final JsonNode msg = first.get("msg");
+        final byte[] expected = payload.getBytes(StandardCharsets.UTF_8);
+        final byte[] sha = MessageDigest.getInstance("SHA-256").digest(expected);
+        assertEquals(expected.length, msg.get("size").asLong());
+        assertEquals(PayloadSpiller.hex(sha), msg.get("sha").asText());
+        assertArrayEquals(expected, Files.readAllBytes(directory.resolve(msg.get("ref").asText())));
+        assertEquals(msg, second.get("msg"));
+
+        final JsonNode stack = first.get("err").get("stack");
+        assertTrue(stack.isObject(), "Stack traces larger than the threshold are spilled");
+        assertEquals("failure", first.get("err").get("message").asText());
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(2, files.count(), "Identical values share a side file");
+        }
+    }
+
+    @Test
+    void fieldProfilesAreSelectedByLevel() throws IOException {
+        final BunyanThrowableFormat.Builder shortStack = BunyanThrowableFormat.newBuilder();
+        shortStack.setFormat("short.message");
+        final BunyanFieldProfile[] profiles = new BunyanFieldProfile[] {
+                BunyanFieldProfile.newBuilder()
+                        .setLevel(Level.ERROR)
+                        .setFields("level,msg,err,properties")
+                        .build(),
+                BunyanFieldProfile.newBuilder()
+                        .setLevel(Level.WARN)
+                        .setFields("level,msg,err")
+                        .setThrowableFormat(shortStack.build())
+                        .build()
+        };
+        final BunyanJsonLayout layout = BunyanJsonLayout.newBuilder()
+                .setAppName(appName)
+                .setFields("level,msg")
+                .setFieldProfiles(profiles)
+                .setIncludeAllContextProperties(true)
+                .setConfiguration(new NullConfiguration())
+                .build();
+        final Throwable t = new IllegalStateException("failure");
+        final StringMap contextData = new SortedArrayStringMap();
+        contextData.putValue("traceId", "c0160ca6");
+
+        final JsonNode info = objectMapper.readValue(fauxLogger.formatEvent(
+                profileEvent(Level.INFO, t, contextData), layout), JsonNode.class);
+        assertEquals(2, info.size(), info.toString());
+
+        final JsonNode custom = objectMapper.readValue(fauxLogger.formatEvent(
+                profileEvent(Level.forName("NOTICE", 350), t, contextData), layout), JsonNode.class);
+        assertFalse(custom.has("err"), "Levels less severe than WARN use the default fields");
+
+        final JsonNode warn = objectMapper.readValue(fauxLogger.formatEvent(
+                profileEvent(Level.WARN, t, contextData), layout), JsonNode.class);
+        assertEquals("failure", warn.get("err").get("stack").asText());
+        assertFalse(warn.has("traceId"));
+
+        final JsonNode error = objectMapper.readValue(fauxLogger.formatEvent(
+                profileEvent(Level.FATAL, t, contextData), layout), JsonNode.class);
+        assertTrue(error.get("err").get("stack").asText().contains("\tat "), "Full stack trace at ERROR and above");
+        assertEquals("c0160ca6", error.get("traceId").asText());
+    }
+
+    @Test
+    void fieldProfilesAtCustomLevelsApplyToTheirLevelAndMoreSevereLevels() throws IOException {
+        final Level alert = Level.forName("ALERT", 250);
+        final BunyanJsonLayout layout = BunyanJsonLayout.newBuilder()
+                .setAppName(appName)
+                .setFields("level,msg")
+                .setFieldProfiles(new BunyanFieldProfile[] {
+                        BunyanFieldProfile.newBuilder()
+                                .setLevel(alert)
+                                .setFields("level,msg,err")
+                                .build()
+                })
+                .setConfiguration(new NullConfiguration())
+                .build();
+        final Throwable t = new IllegalStateException("failure");
+        final StringMap contextData = new SortedArrayStringMap();
+
+        final JsonNode warn = objectMapper.readValue(fauxLogger.formatEvent(
+                profileEvent(Level.WARN, t, contextData), layout), JsonNode.class);
+        assertFalse(warn.has("err"), "WARN is less severe than the profile");
+
+        final JsonNode own = objectMapper.readValue(fauxLogger.formatEvent(
+                profileEvent(alert, t, contextData), layout), JsonNode.class);
+        assertTrue(own.has("err"), "Events at the level of the profile use it");
+
+        final JsonNode between = objectMapper.readValue(fauxLogger.formatEvent(
+                profileEvent(Level.forName("SEVERE", 220), t, contextData), layout), JsonNode.class);
+        assertTrue(between.has("err"), "Custom levels more severe than the profile use it");
+
+        final JsonNode below = objectMapper.readValue(fauxLogger.formatEvent(
+                profileEvent(Level.forName("CONCERN", 260), t, contextData), layout), JsonNode.class);
+        assertFalse(below.has("err"), "Custom levels less severe than the profile don't use it");
+
+        final JsonNode error = objectMapper.readValue(fauxLogger.formatEvent(
+                profileEvent(Level.ERROR, t, contextData), layout), JsonNode.class);
+        assertTrue(error.has("err"), "ERROR is more severe than the profile");
+    }
+
+    MutableLogEvent profileEvent(final Level level, final Throwable t, final StringMap contextData) {
+        final MutableLogEvent event = levelEvent(level);
+        event.setMessage(new FormattedMessage("hello", new Object[0], t));
+        event.setThrown(t);
+        event.setContextData(contextData);
+        return event;
+    }
+
+    @Test
+    void constantLookupsAreResolvedOnce() throws IOException {
+        final String property = "bunyan.test.version." + System.nanoTime();
+        System.setProperty(property, "1.0");
+        try {
+            final BunyanJsonLayout layout = BunyanJsonLayout.newBuilder()
+                    .setAppName(appName)
+                    .setFields("level,additional")
+                    .setAdditionalFields(new KeyValuePair[] {
+                            new KeyValuePair("version", "${sys:" + property + "}"),
+                            new KeyValuePair("traceId", "${ctx:traceId:-none}")
+                    })
+                    .setConfiguration(new NullConfiguration())
+                    .build();
+            final MutableLogEvent event = levelEvent(Level.INFO);
+            final StringMap contextData = new SortedArrayStringMap();
+            contextData.putValue("traceId", "c0160ca6");
+            event.setContextData(contextData);
+
+            final JsonNode first = objectMapper.readValue(fauxLogger.formatEvent(event, layout), JsonNode.class);
+            assertEquals("1.0", first.get("version").asText());
+            assertEquals("c0160ca6", first.get("traceId").asText());
+
+            System.setProperty(property, "2.0");
+            event.setContextData(new SortedArrayStringMap());
+            final JsonNode second = objectMapper.readValue(fauxLogger.formatEvent(event, layout), JsonNode.class);
+            assertEquals("1.0", second.get("version").asText(), "System properties are resolved once");
+            assertEquals("none", second.get("traceId").asText(), "Context lookups are resolved per event");
+        } finally {
+            System.clearProperty(property);
+        }
+    }
+
+    @Test
+    void cachedConstantMessagesAreWrittenUnchanged() throws IOException {
+        final BunyanJsonLayout layout = BunyanJsonLayout.newBuilder()
+                .setAppName(appName)
+                .setFields("level,msg:message")
+                .setRedaction(BunyanRedaction.newBuilder().setKeys("password").build())
+                .setConfiguration(new NullConfiguration())
+                .build();
+        final String constant = "login with password=hunter2 \"quoted\" \u00e9";
+        final MutableLogEvent event = levelEvent(Level.INFO);
+        event.setMessage(new SimpleMessage(constant));
+
+        final String expected = "{\"level\":30,\"message\":\"login with password=******* "
+                + "\\\"quoted\\\" \u00e9\"}\n";
+        for (int i = 0; i < MessageCache.ADMISSION_THRESHOLD * 4; i++) {
+            assertEquals(expected, fauxLogger.formatEvent(event, layout));
+        }
+
+        event.setMessage(new ParameterizedMessage("user {} logged in", "bob"));
+        for (int i = 0; i < MessageCache.ADMISSION_THRESHOLD * 4; i++) {
+            assertEquals("{\"level\":30,\"message\":\"user bob logged in\"}\n",
+                    fauxLogger.formatEvent(event, layout));
+        }
+    }
+
+    @Test
+    void customLevelsAreMappedOntoConfiguredBunyanLevels() throws IOException {
+        final BunyanLevelMapping[] mappings = new BunyanLevelMapping[] {
+                BunyanLevelMapping.newBuilder().setLevel("lvl99").setBunyanLevel(35).setName("audit").build(),
+                BunyanLevelMapping.newBuilder().setLevel("NOTICE").setBunyanLevel(32).build()
+        };
+        final BunyanJsonLayout layout = BunyanJsonLayout.newBuilder()
+                .setAppName(appName)
+                .setFields("level:lvl,msg")
+                .setLevelMappings(mappings)
+                .setConfiguration(new NullConfiguration())
+                .build();
+
+        assertEquals("{\"lvl\":35,\"level_name\":\"audit\",\"msg\":\"hello\"}\n",
+                fauxLogger.formatEvent(levelEvent(Level.forName("LVL99", 99)), layout));
+        assertEquals("{\"lvl\":30,\"msg\":\"hello\"}\n",
+                fauxLogger.formatEvent(levelEvent(Level.INFO), layout));
+        // Levels defined after the layout was configured are still mapped by name
+        assertEquals("{\"lvl\":32,\"level_name\":\"NOTICE\",\"msg\":\"hello\"}\n",
+                fauxLogger.formatEvent(levelEvent(Level.forName("NOTICE", 350)), layout));
+        assertEquals("{\"lvl\":450,\"level_name\":\"UNMAPPED\",\"msg\":\"hello\"}\n",
+                fauxLogger.formatEvent(levelEvent(Level.forName("UNMAPPED", 450)), layout));
+    }
+
+    @Test
+    void duplicateLevelMappingsAreRejected() {
+        final BunyanLevelMapping[] mappings = new BunyanLevelMapping[] {
+                BunyanLevelMapping.newBuilder().setLevel("AUDIT").setBunyanLevel(35).build(),
+                BunyanLevelMapping.newBuilder().setLevel("audit").setBunyanLevel(36).build()
+        };
+        final BunyanJsonLayout.Builder builder = BunyanJsonLayout.newBuilder()
+                .setAppName(appName)
+                .setLevelMappings(mappings)
+                .setConfiguration(new NullConfiguration());
+        assertThrows(IllegalArgumentException.class, builder::build);
+    }
+
+    @Test
+    void sourceLocationIsOnlyWrittenWhenRequested() throws IOException {
+        final MutableLogEvent event = levelEvent(Level.INFO);
+        event.setSource(new StackTraceElement("com.example.Service", "handle", "Service.java", 42));
+
+        final BunyanJsonLayout.Builder builder = BunyanJsonLayout.newBuilder()
+                .setAppName(appName)
+                .setFields("level,msg,src")
+                .setConfiguration(new NullConfiguration());
+        final BunyanJsonLayout withoutLocation = builder.build();
+        assertFalse(withoutLocation.requiresLocation());
+        assertEquals("{\"level\":30,\"msg\":\"hello\"}\n", fauxLogger.formatEvent(event, withoutLocation));
+
+        final BunyanJsonLayout withLocation = builder.setIncludeLocation(true).build();
+        assertTrue(withLocation.requiresLocation());
+        assertEquals("{\"level\":30,\"msg\":\"hello\",\"src\":{\"file\":\"Service.java\",\"line\":42,"
+                + "\"func\":\"com.example.Service.handle\"}}\n", fauxLogger.formatEvent(event, withLocation));
+
+        // Location isn't required when the src field isn't selected
+        assertFalse(builder.setFields("level,msg").build().requiresLocation());
+    }
+
+    @Test
+    void sequenceNumbersAreWrittenWhenSelected() throws IOException {
+        final BunyanJsonLayout layout = BunyanJsonLayout.newBuilder()
+                .setAppName(appName)
+                .setFields("seq,thread_seq:tseq,msg")
+                .setSequenceBlockSize(1)
+                .setConfiguration(new NullConfiguration())
+                .build();
+        final MutableLogEvent first = levelEvent(Level.INFO);
+        first.setThreadId(Thread.currentThread().getId());
+        final MutableLogEvent other = levelEvent(Level.INFO);
+        other.setThreadId(Thread.currentThread().getId() + 1);
+
+        assertEquals("{\"seq\":1,\"tseq\":1,\"msg\":\"hello\"}\n", fauxLogger.formatEvent(first, layout));
+        assertEquals("{\"seq\":2,\"tseq\":1,\"msg\":\"hello\"}\n", fauxLogger.formatEvent(other, layout));
+        assertEquals("{\"seq\":3,\"tseq\":2,\"msg\":\"hello\"}\n", fauxLogger.formatEvent(first, layout));
+        assertFalse(fauxLogger.formatEvent(first, instance()).contains("seq"), "Sequence numbers are optional");
+    }
+
+    MutableLogEvent levelEvent(final Level level) {
+        final MutableLogEvent event = new MutableLogEvent();
+        event.setLoggerName(getClass().getName());
+        event.setLevel(level);
+        event.setMessage(new SimpleMessage("hello"));
+        return event;
+    }
+
     void validateEvent(final LogEvent event, final String json) throws IOException {
         if (event.getLevel().equals(Level.OFF)) {
             assertTrue(json.isEmpty(), "Nothing should be logged when level is OFF");
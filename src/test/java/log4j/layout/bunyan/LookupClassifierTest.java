@@ -0,0 +1,49 @@
+package log4j.layout.bunyan;
+
+import org.apache.logging.log4j.core.config.NullConfiguration;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class LookupClassifierTest {
+    private final LookupClassifier classifier = new LookupClassifier("spring, Web", 1000);
+
+    @Test
+    void lookupsAreClassifiedByTheirMostDynamicPrefix() {
+        assertEquals(LookupClassifier.Scope.CONSTANT, classifier.classify("${env:REGION}"));
+        assertEquals(LookupClassifier.Scope.CONSTANT, classifier.classify("${sys:app.version}-${docker:containerId}"));
+        assertEquals(LookupClassifier.Scope.CONSTANT, classifier.classify("${lower:${env:REGION}}"));
+        assertEquals(LookupClassifier.Scope.CONSTANT, classifier.classify("${appName:-default}"));
+        assertEquals(LookupClassifier.Scope.CACHED, classifier.classify("${spring:app.mode}"));
+        assertEquals(LookupClassifier.Scope.CACHED, classifier.classify("${env:REGION}/${web:contextPath}"));
+        assertEquals(LookupClassifier.Scope.EVENT, classifier.classify("${ctx:traceId:-}"));
+        assertEquals(LookupClassifier.Scope.EVENT, classifier.classify("${env:REGION}-${ctx:tenant}"));
+        assertEquals(LookupClassifier.Scope.EVENT, classifier.classify("${env:REGION:-${map:region}}"));
+        assertEquals(LookupClassifier.Scope.EVENT, classifier.classify("${date:yyyy-MM-dd}"));
+        assertEquals(LookupClassifier.Scope.EVENT, classifier.classify("${custom:key}"),
+                "Unknown lookups may depend on the event");
+    }
+
+    @Test
+    void cacheDurationMustBePositive() {
+        assertThrows(IllegalArgumentException.class, () -> new LookupClassifier("spring", 0));
+    }
+
+    @Test
+    void cachedLookupsAreRefreshedOnceExpired() throws InterruptedException {
+        final String property = "bunyan.test.cached." + System.nanoTime();
+        System.setProperty(property, "blue");
+        try {
+            final CachedLookup lookup = new CachedLookup(new NullConfiguration().getStrSubstitutor(),
+                    "${sys:" + property + "}", 1);
+            assertEquals("blue", lookup.get());
+
+            System.setProperty(property, "green");
+            Thread.sleep(5);
+            assertEquals("green", lookup.get(), "The first caller after expiry refreshes the value");
+        } finally {
+            System.clearProperty(property);
+        }
+    }
+}
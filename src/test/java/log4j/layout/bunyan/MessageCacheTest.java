@@ -0,0 +1,58 @@
+package log4j.layout.bunyan;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class MessageCacheTest {
+    @Test
+    void messagesAreAdmittedAfterRepeatedUse() {
+        final MessageCache cache = new MessageCache(16);
+        final AtomicInteger encoded = new AtomicInteger();
+        final MessageCache.Encoder encoder = message -> {
+            encoded.incrementAndGet();
+            return message.getBytes(StandardCharsets.UTF_8);
+        };
+        final String message = "request completed";
+
+        for (int i = 1; i < MessageCache.ADMISSION_THRESHOLD; i++) {
+            assertNull(cache.get(message, encoder));
+        }
+        final byte[] fragment = cache.get(message, encoder);
+        assertNotNull(fragment);
+        for (int i = 0; i < 100; i++) {
+            assertSame(fragment, cache.get(message, encoder));
+        }
+        assertEquals(1, encoded.get(), "Messages are encoded once when admitted");
+
+        // Equal strings that are different instances are not the same constant message
+        assertNull(cache.get(new String(message.toCharArray()), encoder));
+    }
+
+    @Test
+    void hotterMessagesReplaceResidents() {
+        final MessageCache cache = new MessageCache(1);
+        final MessageCache.Encoder encoder = message -> message.getBytes(StandardCharsets.UTF_8);
+        final String resident = "cache miss";
+        final String challenger = "cache hit";
+
+        for (int i = 0; i < MessageCache.ADMISSION_THRESHOLD + 10; i++) {
+            cache.get(resident, encoder);
+        }
+        assertNotNull(cache.get(resident, encoder));
+
+        // The resident stops being logged, so it loses its hits each time the challenger is rejected
+        byte[] fragment = null;
+        for (int i = 0; i < 100 && fragment == null; i++) {
+            fragment = cache.get(challenger, encoder);
+        }
+        assertNotNull(fragment);
+        assertNull(cache.get(resident, encoder));
+    }
+}
@@ -0,0 +1,93 @@
+package log4j.layout.bunyan;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RedactorTest {
+    private final Redactor redactor = new Redactor(
+            Arrays.asList("password", "pass", "secret", "api_key"),
+            Arrays.asList("ghp_", "sk_live_"),
+            true, '*');
+
+    @Test
+    @DisplayName("Given keys followed by a separator, their values are masked")
+    void masksValuesOfKeys() {
+        assertEquals("login password=****** user=bob", redact("login password=hunter user=bob"));
+        assertEquals("PASSWORD: ******, next", redact("PASSWORD: hunter, next"));
+        assertEquals("{\"secret\":\"*******\",\"id\":1}", redact("{\"secret\":\"top key\",\"id\":1}"));
+        assertEquals("api_key='*****'", redact("api_key='abcde'"));
+        assertEquals("pass=****&password=****", redact("pass=abcd&password=efgh"));
+    }
+
+    @Test
+    @DisplayName("Given keys that aren't followed by a separator, nothing is masked")
+    void doesNotMaskKeysWithoutSeparator() {
+        assertEquals("password reset requested", redact("password reset requested"));
+        assertEquals("secret", redact("secret"));
+        assertEquals("secret=", redact("secret="));
+    }
+
+    @Test
+    @DisplayName("Given tokens with configured prefixes, the token after the prefix is masked")
+    void masksTokens() {
+        assertEquals("token ghp_************ used", redact("token ghp_abcDEF123456 used"));
+        assertEquals("sk_live_****,sk_test_abcd", redact("sk_live_abcd,sk_test_abcd"));
+    }
+
+    @Test
+    @DisplayName("Given card numbers that pass the Luhn check, all but the last four digits are masked")
+    void masksValidCardNumbers() {
+        assertEquals("card ************1111 charged", redact("card 4111111111111111 charged"));
+        assertEquals("card ****-****-****-1111", redact("card 4111-1111-1111-1111"));
+        assertEquals("card **** **** **** 1111.", redact("card 4111 1111 1111 1111."));
+        assertEquals("card 4111111111111112", redact("card 4111111111111112"));
+        assertEquals("order 123456789012", redact("order 123456789012"));
+        assertEquals("ts 2021-11-25 12:00", redact("ts 2021-11-25 12:00"));
+    }
+
+    @Test
+    @DisplayName("Given non-ASCII text, matching still works around it")
+    void handlesNonAsciiText() {
+        assertEquals("été password=**** ü", redact("été password=sécr ü"));
+    }
+
+    @Test
+    @DisplayName("Given names of values, only configured keys match, ignoring case")
+    void matchesKeys() {
+        assertTrue(redactor.isKey("password"));
+        assertTrue(redactor.isKey("Api_Key"));
+        assertTrue(redactor.isKey("pass"));
+        assertFalse(redactor.isKey("passwd"));
+        assertFalse(redactor.isKey("mypassword"));
+        assertFalse(redactor.isKey("secrets"));
+        assertFalse(redactor.isKey("ghp_"));
+        assertFalse(redactor.isKey("sécret"));
+        assertFalse(redactor.isKey(""));
+    }
+
+    @Test
+    void luhnValidation() {
+        assertTrue(Redactor.isLuhnValid("79927398713", 0, 11));
+        assertFalse(Redactor.isLuhnValid("79927398710", 0, 11));
+    }
+
+    @Test
+    void nonAsciiPatternsAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new Redactor(
+                Collections.singletonList("möt"), Collections.emptyList(), false, '*'));
+    }
+
+    private String redact(final String text) {
+        final StringBuilder builder = new StringBuilder(text);
+        redactor.redact(builder);
+        return builder.toString();
+    }
+}
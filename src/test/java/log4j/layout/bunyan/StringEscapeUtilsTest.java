@@ -0,0 +1,32 @@
+package log4j.layout.bunyan;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class StringEscapeUtilsTest {
+    @Test
+    void stringsWithoutEscapesAreReturnedAsIs() {
+        final String value = "plain";
+        assertSame(value, StringEscapeUtils.unescape(value));
+    }
+
+    @Test
+    void simpleEscapesAreUnescapedDirectly() {
+        assertTrue(StringEscapeUtils.hasOnlySimpleEscapes("\\r\\n"));
+        assertTrue(StringEscapeUtils.hasOnlySimpleEscapes("\\t\\0\\\\\\\""));
+        assertEquals("\r\n", StringEscapeUtils.unescape("\\r\\n"));
+        assertEquals("\t\0\\\"", StringEscapeUtils.unescape("\\t\\0\\\\\\\""));
+        assertEquals("\\n", StringEscapeUtils.unescape("\\\\n"));
+    }
+
+    @Test
+    void otherEscapesAreNotSimple() {
+        assertFalse(StringEscapeUtils.hasOnlySimpleEscapes("\\u0041"));
+        assertFalse(StringEscapeUtils.hasOnlySimpleEscapes("\\012"));
+        assertFalse(StringEscapeUtils.hasOnlySimpleEscapes("trailing\\"));
+    }
+}
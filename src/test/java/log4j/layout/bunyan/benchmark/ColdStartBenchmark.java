@@ -0,0 +1,179 @@
+package log4j.layout.bunyan.benchmark;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.apache.logging.log4j.core.config.builder.api.ConfigurationBuilder;
+import org.apache.logging.log4j.core.config.builder.api.ConfigurationBuilderFactory;
+import org.apache.logging.log4j.core.config.builder.api.LayoutComponentBuilder;
+import org.apache.logging.log4j.core.config.builder.impl.BuiltConfiguration;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of initializing logging in a fresh JVM, which dominates
+ * for short-lived processes. Each iteration starts a new JVM that configures
+ * Log4j with a file appender and logs a single event, then reports the time
+ * taken from the start of <code>main</code> to the first event being written,
+ * the JVM uptime at that point and the number of loaded classes.
+ *
+ * <p>The <code>pattern</code> scenario uses Log4j's <code>PatternLayout</code>
+ * as a baseline, so that the cost of the Bunyan layout can be told apart from
+ * the cost of Log4j itself. Class counts include the classes loaded to read
+ * them, which is the same for both scenarios.</p>
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=log4j.layout.bunyan.benchmark.ColdStartBenchmark \
+ *     -Dexec.args="[iterations] [scenarios]"
+ * </pre>
+ */
+public class ColdStartBenchmark {
+    private static final String CHILD = "child";
+    private static final String RESULT_PREFIX = "RESULT ";
+
+    public static void main(final String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals(CHILD)) {
+            child(args[1], Paths.get(args[2]));
+            return;
+        }
+
+        final int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        final List<String> scenarios = Arrays.asList((args.length > 1 ? args[1] : "pattern,bunyan").split(","));
+
+        System.out.printf("Java %s (%s), iterations: %d%n", System.getProperty("java.version"),
+                System.getProperty("java.vm.name"), iterations);
+        System.out.printf("%-10s %22s %22s %16s%n", "scenario", "first log ms (median)",
+                "JVM uptime ms (median)", "loaded classes");
+
+        final String classpath = classpath();
+        final Path logFile = Files.createTempFile("cold-start", ".log");
+        try {
+            for (String scenario : scenarios) {
+                final double[] firstLog = new double[iterations];
+                final double[] uptime = new double[iterations];
+                final double[] classes = new double[iterations];
+
+                for (int i = 0; i < iterations; i++) {
+                    final double[] result = runChild(classpath, scenario, logFile);
+                    firstLog[i] = result[0];
+                    uptime[i] = result[1];
+                    classes[i] = result[2];
+                }
+
+                System.out.printf("%-10s %22.1f %22.0f %16.0f%n", scenario, median(firstLog),
+                        median(uptime), median(classes));
+            }
+        } finally {
+            Files.deleteIfExists(logFile);
+        }
+    }
+
+    static void child(final String scenario, final Path logFile) {
+        final long start = System.nanoTime();
+
+        final ConfigurationBuilder<BuiltConfiguration> builder =
+                ConfigurationBuilderFactory.newConfigurationBuilder();
+        builder.setStatusLevel(Level.WARN);
+        final LayoutComponentBuilder layout;
+        if (scenario.equals("bunyan")) {
+            layout = builder.newLayout("BunyanJsonLayout").addAttribute("appName", "cold-start");
+        } else if (scenario.equals("pattern")) {
+            layout = builder.newLayout("PatternLayout").addAttribute("pattern", "%d %p %c - %m%n");
+        } else {
+            String msg = String.format("Unknown scenario specified: %s", scenario);
+            throw new IllegalArgumentException(msg);
+        }
+        builder.add(builder.newAppender("file", "File")
+                .addAttribute("fileName", logFile.toString())
+                .add(layout));
+        builder.add(builder.newRootLogger(Level.INFO).add(builder.newAppenderRef("file")));
+
+        final LoggerContext context = Configurator.initialize(builder.build());
+        final Logger logger = context.getLogger(ColdStartBenchmark.class.getName());
+        logger.info("first event");
+        final long firstLogNanos = System.nanoTime() - start;
+
+        final long uptimeMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+        final int loadedClasses = ManagementFactory.getClassLoadingMXBean().getLoadedClassCount();
+        System.out.printf("%s%d %d %d%n", RESULT_PREFIX, TimeUnit.NANOSECONDS.toMicros(firstLogNanos),
+                uptimeMillis, loadedClasses);
+
+        Configurator.shutdown(context);
+    }
+
+    static double[] runChild(final String classpath, final String scenario, final Path logFile) throws Exception {
+        final String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        final Process process = new ProcessBuilder(java, "-cp", classpath,
+                ColdStartBenchmark.class.getName(), CHILD, scenario, logFile.toString())
+                .redirectErrorStream(true)
+                .start();
+
+        String result = null;
+        final StringBuilder output = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(RESULT_PREFIX)) {
+                    result = line.substring(RESULT_PREFIX.length());
+                } else {
+                    output.append(line).append('\n');
+                }
+            }
+        }
+
+        if (process.waitFor() != 0 || result == null) {
+            throw new IllegalStateException("Child JVM failed:\n" + output);
+        }
+
+        final String[] values = result.split(" ");
+        return new double[] {
+                Long.parseLong(values[0]) / 1000.0, Long.parseLong(values[1]), Long.parseLong(values[2])
+        };
+    }
+
+    /**
+     * Finds the classpath of this class. The exec plugin runs benchmarks in
+     * the Maven JVM with an isolated class loader, so the system property
+     * alone doesn't contain the test classpath.
+     */
+    static String classpath() throws Exception {
+        final Set<String> entries = new LinkedHashSet<>();
+        ClassLoader loader = ColdStartBenchmark.class.getClassLoader();
+        while (loader != null) {
+            if (loader instanceof URLClassLoader) {
+                for (URL url : ((URLClassLoader) loader).getURLs()) {
+                    entries.add(Paths.get(url.toURI()).toString());
+                }
+            }
+            loader = loader.getParent();
+        }
+        if (entries.isEmpty()) {
+            entries.addAll(Arrays.asList(System.getProperty("java.class.path").split(File.pathSeparator)));
+        }
+        return String.join(File.pathSeparator, entries);
+    }
+
+    static double median(final double[] values) {
+        final double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        final int middle = sorted.length / 2;
+        return sorted.length % 2 == 0 ? (sorted[middle - 1] + sorted[middle]) / 2 : sorted[middle];
+    }
+}
@@ -0,0 +1,44 @@
+package log4j.layout.bunyan.benchmark;
+
+import org.apache.logging.log4j.core.layout.ByteBufferDestination;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe {@link ByteBufferDestination} that counts and then discards
+ * everything written to it, so that benchmarks only measure the layout.
+ */
+public class DiscardingByteBufferDestination implements ByteBufferDestination {
+    private final ThreadLocal<ByteBuffer> buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocate(256));
+    private final LongAdder bytesWritten = new LongAdder();
+
+    /**
+     * @return number of bytes written with {@link #writeBytes}
+     */
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    @Override
+    public ByteBuffer getByteBuffer() {
+        return buffers.get();
+    }
+
+    @Override
+    public ByteBuffer drain(final ByteBuffer buf) {
+        buf.clear();
+        return buf;
+    }
+
+    @Override
+    public void writeBytes(final ByteBuffer data) {
+        bytesWritten.add(data.remaining());
+        data.position(data.limit());
+    }
+
+    @Override
+    public void writeBytes(final byte[] data, final int offset, final int length) {
+        bytesWritten.add(length);
+    }
+}
@@ -0,0 +1,300 @@
+package log4j.layout.bunyan.benchmark;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.config.Configuration;
+import org.apache.logging.log4j.core.config.builder.api.AppenderComponentBuilder;
+import org.apache.logging.log4j.core.config.builder.api.ConfigurationBuilder;
+import org.apache.logging.log4j.core.config.builder.api.ConfigurationBuilderFactory;
+import org.apache.logging.log4j.core.config.builder.api.LayoutComponentBuilder;
+import org.apache.logging.log4j.core.config.builder.impl.BuiltConfiguration;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures the latency of logging calls and the throughput of producer threads
+ * when logging through real Log4j configurations that use the layout, so that
+ * the interaction with appenders, their managers and asynchronous loggers is
+ * part of the measurement.
+ *
+ * <p>Each scenario is run with every requested number of producer threads.
+ * All threads start together, warm up and then record the latency of each
+ * logging call into a per-thread {@link LatencyHistogram} for a fixed duration.
+ * The histograms are merged and reported as percentiles together with the JVM
+ * and machine details needed to reproduce the run.</p>
+ *
+ * <p>Producers call the logger in a closed loop, so latencies of calls that
+ * would have been issued while a slow call was blocked are not recorded. The
+ * reported percentiles are therefore a lower bound of what an application
+ * issuing log calls at a fixed rate would observe.</p>
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=log4j.layout.bunyan.benchmark.EndToEndLatencyBenchmark \
+ *     -Dexec.args="[scenarios] [threads] [seconds] [warmupSeconds] [reportFile]"
+ * </pre>
+ */
+public class EndToEndLatencyBenchmark {
+    private static final String DEFAULT_SCENARIOS = "file,randomAccessFile,memoryMappedFile,asyncLogger";
+    private static final String DEFAULT_THREADS = "1,2,4,8,16,32,64";
+    private static final String APPENDER_NAME = "benchmark";
+    /**
+     * Region mapped by the memory mapped file appender. Remapping requires
+     * <code>--add-opens java.base/java.nio=ALL-UNNAMED</code> on Java 9+, so
+     * the region is large enough that most runs never remap.
+     */
+    private static final int MAPPED_REGION_LENGTH = 1 << 30;
+
+    /**
+     * Appender configurations that are benchmarked.
+     */
+    enum Scenario {
+        FILE("file"),
+        RANDOM_ACCESS_FILE("randomAccessFile"),
+        MEMORY_MAPPED_FILE("memoryMappedFile"),
+        /**
+         * Asynchronous root logger backed by the LMAX Disruptor in front of a
+         * random access file appender.
+         */
+        ASYNC_LOGGER("asyncLogger");
+
+        final String scenarioName;
+
+        Scenario(final String scenarioName) {
+            this.scenarioName = scenarioName;
+        }
+
+        static Scenario fromScenarioName(final String scenarioName) {
+            for (Scenario scenario : values()) {
+                if (scenario.scenarioName.equals(scenarioName)) {
+                    return scenario;
+                }
+            }
+
+            String msg = String.format("Unknown scenario specified: %s", scenarioName);
+            throw new IllegalArgumentException(msg);
+        }
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final List<Scenario> scenarios = new LinkedList<>();
+        for (String name : (args.length > 0 ? args[0] : DEFAULT_SCENARIOS).split(",")) {
+            scenarios.add(Scenario.fromScenarioName(name.trim()));
+        }
+        final List<Integer> threadCounts = new LinkedList<>();
+        for (String count : (args.length > 1 ? args[1] : DEFAULT_THREADS).split(",")) {
+            threadCounts.add(Integer.parseInt(count.trim()));
+        }
+        final int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        final int warmupSeconds = args.length > 3 ? Integer.parseInt(args[3]) : 2;
+        final Path reportFile = args.length > 4 ? Paths.get(args[4]) : null;
+
+        final StringBuilder report = new StringBuilder();
+        appendEnvironment(report, seconds, warmupSeconds);
+        report.append(String.format("| %-16s | %7s | %14s | %10s | %10s | %10s | %12s |%n",
+                "scenario", "threads", "events/s", "p50 ns", "p99 ns", "p99.9 ns", "max ns"));
+        report.append(String.format("|%s|%s|%s|%s|%s|%s|%s|%n",
+                dashes(18), dashes(9), dashes(16), dashes(12), dashes(12), dashes(12), dashes(14)));
+        System.out.print(report);
+
+        final Path directory = Files.createTempDirectory("bunyan-latency");
+        try {
+            for (Scenario scenario : scenarios) {
+                for (int threads : threadCounts) {
+                    final Result result = run(scenario, threads, seconds, warmupSeconds, directory);
+                    final String row = String.format("| %-16s | %7d | %14.0f | %10d | %10d | %10d | %12d |%n",
+                            scenario.scenarioName, threads, result.eventsPerSecond,
+                            result.histogram.getValueAtPercentile(50.0),
+                            result.histogram.getValueAtPercentile(99.0),
+                            result.histogram.getValueAtPercentile(99.9),
+                            result.histogram.getMax());
+                    report.append(row);
+                    System.out.print(row);
+                }
+            }
+        } finally {
+            deleteRecursively(directory);
+        }
+
+        if (reportFile != null) {
+            Files.write(reportFile, report.toString().getBytes(StandardCharsets.UTF_8));
+            System.out.printf("%nReport written to %s%n", reportFile.toAbsolutePath());
+        }
+    }
+
+    static Result run(final Scenario scenario, final int threads, final int seconds,
+                      final int warmupSeconds, final Path directory) throws Exception {
+        final Path logFile = directory.resolve(String.format("%s-%d.log", scenario.scenarioName, threads));
+        final LoggerContext context = new LoggerContext(scenario.scenarioName + "-" + threads);
+        context.start(configuration(scenario, logFile));
+
+        try {
+            final Logger logger = context.getLogger(EndToEndLatencyBenchmark.class.getName());
+            final LatencyHistogram[] histograms = new LatencyHistogram[threads];
+            final long[] counts = new long[threads];
+            final CountDownLatch ready = new CountDownLatch(threads);
+            final CountDownLatch start = new CountDownLatch(1);
+            final CountDownLatch finished = new CountDownLatch(threads);
+            final long warmupNanos = TimeUnit.SECONDS.toNanos(warmupSeconds);
+            final long measuredNanos = TimeUnit.SECONDS.toNanos(seconds);
+
+            for (int t = 0; t < threads; t++) {
+                final int index = t;
+                final Thread producer = new Thread(() -> {
+                    final LatencyHistogram histogram = new LatencyHistogram();
+                    ready.countDown();
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+
+                    final long warmupEnd = System.nanoTime() + warmupNanos;
+                    while (System.nanoTime() < warmupEnd) {
+                        log(logger);
+                    }
+
+                    final long end = System.nanoTime() + measuredNanos;
+                    long count = 0;
+                    long now = System.nanoTime();
+                    while (now < end) {
+                        log(logger);
+                        final long after = System.nanoTime();
+                        histogram.record(after - now);
+                        now = after;
+                        count++;
+                    }
+
+                    histograms[index] = histogram;
+                    counts[index] = count;
+                    finished.countDown();
+                }, "producer-" + t);
+                producer.start();
+            }
+
+            ready.await();
+            start.countDown();
+            finished.await();
+
+            final LatencyHistogram merged = new LatencyHistogram();
+            long total = 0;
+            for (int t = 0; t < threads; t++) {
+                merged.add(histograms[t]);
+                total += counts[t];
+            }
+
+            return new Result(total / (double) seconds, merged);
+        } finally {
+            // Stopping drains the ring buffer of asynchronous loggers before the next run
+            context.stop(1, TimeUnit.MINUTES);
+        }
+    }
+
+    static void log(final Logger logger) {
+        logger.info("request completed [method={},path={},status={}]", "GET", "/api/items", "200");
+    }
+
+    static Configuration configuration(final Scenario scenario, final Path logFile) {
+        final ConfigurationBuilder<BuiltConfiguration> builder =
+                ConfigurationBuilderFactory.newConfigurationBuilder();
+        builder.setStatusLevel(Level.WARN);
+        builder.setConfigurationName("EndToEndLatencyBenchmark-" + scenario.scenarioName);
+
+        final LayoutComponentBuilder layout = builder.newLayout("BunyanJsonLayout")
+                .addAttribute("appName", "benchmark");
+        final AppenderComponentBuilder appender;
+
+        switch (scenario) {
+            case FILE:
+                appender = builder.newAppender(APPENDER_NAME, "File")
+                        .addAttribute("fileName", logFile.toString())
+                        .addAttribute("bufferedIO", true)
+                        .addAttribute("immediateFlush", false);
+                break;
+            case RANDOM_ACCESS_FILE:
+            case ASYNC_LOGGER:
+                appender = builder.newAppender(APPENDER_NAME, "RandomAccessFile")
+                        .addAttribute("fileName", logFile.toString())
+                        .addAttribute("immediateFlush", false);
+                break;
+            case MEMORY_MAPPED_FILE:
+                appender = builder.newAppender(APPENDER_NAME, "MemoryMappedFile")
+                        .addAttribute("fileName", logFile.toString())
+                        .addAttribute("regionLength", MAPPED_REGION_LENGTH)
+                        .addAttribute("immediateFlush", false);
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported scenario: " + scenario);
+        }
+
+        builder.add(appender.add(layout));
+
+        if (scenario == Scenario.ASYNC_LOGGER) {
+            builder.add(builder.newAsyncRootLogger(Level.INFO)
+                    .add(builder.newAppenderRef(APPENDER_NAME)));
+        } else {
+            builder.add(builder.newRootLogger(Level.INFO)
+                    .add(builder.newAppenderRef(APPENDER_NAME)));
+        }
+
+        return builder.build(false);
+    }
+
+    static void appendEnvironment(final StringBuilder report, final int seconds, final int warmupSeconds) {
+        final Runtime runtime = Runtime.getRuntime();
+        report.append(String.format("End-to-end latency benchmark (%s)%n%n", Instant.now()));
+        report.append(String.format("* JVM: %s %s (%s)%n", System.getProperty("java.vm.name"),
+                System.getProperty("java.vm.version"), System.getProperty("java.vendor")));
+        report.append(String.format("* JVM arguments: %s%n",
+                ManagementFactory.getRuntimeMXBean().getInputArguments()));
+        report.append(String.format("* OS: %s %s (%s)%n", System.getProperty("os.name"),
+                System.getProperty("os.version"), System.getProperty("os.arch")));
+        report.append(String.format("* Available processors: %d%n", runtime.availableProcessors()));
+        report.append(String.format("* Max heap: %d MB%n", runtime.maxMemory() / (1024 * 1024)));
+        report.append(String.format("* Warmup: %d s, measured: %d s per run%n%n", warmupSeconds, seconds));
+    }
+
+    static String dashes(final int count) {
+        final char[] chars = new char[count];
+        Arrays.fill(chars, '-');
+        return new String(chars);
+    }
+
+    static void deleteRecursively(final Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.delete(path);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+    }
+
+    static final class Result {
+        final double eventsPerSecond;
+        final LatencyHistogram histogram;
+
+        Result(final double eventsPerSecond, final LatencyHistogram histogram) {
+            this.eventsPerSecond = eventsPerSecond;
+            this.histogram = histogram;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package log4j.layout.bunyan.benchmark;
+
+import com.dslplatform.json.JsonWriter;
+import log4j.layout.bunyan.BunyanJsonLayout;
+import log4j.layout.bunyan.EncodeBuffers;
+import log4j.layout.bunyan.EscapeScanner;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.config.NullConfiguration;
+import org.apache.logging.log4j.core.impl.MutableLogEvent;
+import org.apache.logging.log4j.message.SimpleMessage;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compares writing strings with {@link JsonWriter#writeString(String)}, which
+ * escapes a character at a time, to {@link EscapeScanner}, which scans eight
+ * characters at a time and bulk copies plain ASCII strings. Then measures the
+ * throughput of the layout on events with long messages.
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=log4j.layout.bunyan.benchmark.EscapeScanBenchmark \
+ *     -Dexec.args="[seconds]"
+ * </pre>
+ */
+public class EscapeScanBenchmark {
+    public static void main(final String[] args) {
+        final double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 2.0;
+        final long runNanos = (long) (seconds * 1_000_000_000L);
+
+        final Map<String, String> corpus = new LinkedHashMap<>();
+        corpus.put("ascii 16", "request complete");
+        corpus.put("ascii 80", WriterPoolingBenchmark.repeat("GET /api/orders 200 ", 4));
+        corpus.put("ascii 400", WriterPoolingBenchmark.repeat("GET /api/orders 200 ", 20));
+        corpus.put("ascii 400, escape at end", WriterPoolingBenchmark.repeat("GET /api/orders 200 ", 20) + "\n");
+        corpus.put("non-ascii 400", WriterPoolingBenchmark.repeat("GET /api/bücher 200 ", 20));
+
+        System.out.printf("Java %s, %.1f seconds per run%n", System.getProperty("java.version"), seconds);
+        System.out.printf("%-26s %18s %18s %9s%n", "string", "writer ns/string", "scanner ns/string", "speedup");
+        final JsonWriter writer = EncodeBuffers.newWriter();
+        for (Map.Entry<String, String> entry : corpus.entrySet()) {
+            final String value = entry.getValue();
+            // Run each method twice and report the second run so that the JIT has warmed up
+            runStrings(writer, value, false, runNanos);
+            final double direct = runStrings(writer, value, false, runNanos);
+            runStrings(writer, value, true, runNanos);
+            final double scanned = runStrings(writer, value, true, runNanos);
+            System.out.printf("%-26s %18.1f %18.1f %8.2fx%n", entry.getKey(), direct, scanned, direct / scanned);
+        }
+
+        final BunyanJsonLayout layout = BunyanJsonLayout.newBuilder()
+                .setAppName("benchmark")
+                .setConfiguration(new NullConfiguration())
+                .build();
+        final DiscardingByteBufferDestination destination = new DiscardingByteBufferDestination();
+        final MutableLogEvent event = new MutableLogEvent();
+        event.setLevel(Level.INFO);
+        event.setLoggerName(EscapeScanBenchmark.class.getName());
+        event.setThreadName("main");
+        event.setMessage(new SimpleMessage(WriterPoolingBenchmark.repeat("GET /api/orders?page=2 200 12ms ", 30)));
+
+        runEvents(layout, event, destination, runNanos);
+        final double eventsPerSecond = runEvents(layout, event, destination, runNanos);
+        final int recordSize = layout.toByteArray(event).length;
+        System.out.printf("%nLayout with %d character messages: %.0f events/s, %.1f MB/s%n",
+                event.getMessage().getFormattedMessage().length(), eventsPerSecond,
+                eventsPerSecond * recordSize / (1024.0 * 1024.0));
+    }
+
+    static double runStrings(final JsonWriter writer, final String value, final boolean scan, final long runNanos) {
+        long count = 0;
+        final long start = System.nanoTime();
+        long elapsed;
+        do {
+            for (int i = 0; i < 1000; i++) {
+                writer.reset();
+                if (scan) {
+                    EscapeScanner.writeString(writer, value);
+                } else {
+                    writer.writeString(value);
+                }
+            }
+            count += 1000;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < runNanos);
+        return (double) elapsed / count;
+    }
+
+    static double runEvents(final BunyanJsonLayout layout, final MutableLogEvent event,
+                            final DiscardingByteBufferDestination destination, final long runNanos) {
+        long count = 0;
+        final long start = System.nanoTime();
+        long elapsed;
+        do {
+            for (int i = 0; i < 100; i++) {
+                event.setTimeMillis(System.currentTimeMillis());
+                layout.encode(event, destination);
+            }
+            count += 100;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < runNanos);
+        return count / (elapsed / 1_000_000_000.0);
+    }
+}
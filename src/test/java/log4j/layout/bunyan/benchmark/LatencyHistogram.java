@@ -0,0 +1,79 @@
+package log4j.layout.bunyan.benchmark;
+
+/**
+ * Log-linear histogram of latencies in nanoseconds with a relative error of
+ * about 3%. Each bucket range starting at a power of two is divided into 32
+ * linear sub-buckets. Histograms are not thread-safe; record into one
+ * histogram per thread and {@link #add(LatencyHistogram) merge} them afterwards.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final long[] counts = new long[64 * SUB_BUCKETS];
+    private long totalCount;
+    private long max;
+
+    public void record(final long nanos) {
+        final long value = Math.max(0, nanos);
+        counts[index(value)]++;
+        totalCount++;
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    public void add(final LatencyHistogram other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        max = Math.max(max, other.max);
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * @param percentile percentile between 0 and 100
+     * @return upper bound of the bucket that contains the given percentile
+     */
+    public long getValueAtPercentile(final double percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+        final long target = Math.max(1, (long) Math.ceil(totalCount * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.min(upperBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    static int index(final long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int shift = exponent - SUB_BUCKET_BITS;
+        final int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long upperBound(final int index) {
+        final int shift = index / SUB_BUCKETS - 1;
+        final int subBucket = index % SUB_BUCKETS;
+        if (shift < 0) {
+            return subBucket;
+        }
+        return (((long) (SUB_BUCKETS | subBucket) + 1) << shift) - 1;
+    }
+}
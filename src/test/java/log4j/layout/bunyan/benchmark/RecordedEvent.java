@@ -0,0 +1,295 @@
+package log4j.layout.bunyan.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import log4j.layout.bunyan.BunyanLevel;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Marker;
+import org.apache.logging.log4j.MarkerManager;
+import org.apache.logging.log4j.ThreadContext;
+import org.apache.logging.log4j.core.impl.MutableLogEvent;
+import org.apache.logging.log4j.message.Message;
+import org.apache.logging.log4j.message.ParameterizedMessage;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.apache.logging.log4j.spi.MutableThreadContextStack;
+import org.apache.logging.log4j.util.SortedArrayStringMap;
+import org.apache.logging.log4j.util.StringMap;
+
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Log event reconstructed from a Bunyan record written by the layout. The
+ * reconstructed event has the same message, level, logger, thread, marker,
+ * context data, context stack and throwable (including its stack frames and
+ * causes) as the original, so encoding it costs about the same as encoding
+ * the original event did.
+ */
+public class RecordedEvent {
+    private static final Set<String> RECORD_KEYS = new HashSet<>(Arrays.asList(
+            "v", "level", "level_name", "name", "component", "hostname", "pid", "time", "msg",
+            "err", "marker", "src", "context_stack", "thread", "seq", "thread_seq"));
+    private static final Pattern THREAD = Pattern.compile("^(.*)\\[id=(-?\\d+),priority=(-?\\d+)]$");
+    private static final Pattern FRAME = Pattern.compile("^\\s*at (?:.*/)?([^\\s(]+)\\.([^.\\s(]+)\\(([^)]*)\\).*$");
+    private static final Pattern CAUSE = Pattern.compile("^\\s*Caused by: ([^:\\s]+)(?:: (.*))?$");
+    private static final Pattern COMMON_FRAMES = Pattern.compile("^\\s*\\.\\.\\. (\\d+) more$");
+
+    final Level level;
+    final String loggerName;
+    final long timeMillis;
+    final Message message;
+    final Throwable thrown;
+    final Marker marker;
+    final StringMap contextData;
+    final ThreadContext.ContextStack contextStack;
+    final String threadName;
+    final long threadId;
+    final int threadPriority;
+    final StackTraceElement source;
+
+    RecordedEvent(final Level level, final String loggerName, final long timeMillis, final Message message,
+                  final Throwable thrown, final Marker marker, final StringMap contextData,
+                  final ThreadContext.ContextStack contextStack, final String threadName,
+                  final long threadId, final int threadPriority, final StackTraceElement source) {
+        this.level = level;
+        this.loggerName = loggerName;
+        this.timeMillis = timeMillis;
+        this.message = message;
+        this.thrown = thrown;
+        this.marker = marker;
+        this.contextData = contextData;
+        this.contextStack = contextStack;
+        this.threadName = threadName;
+        this.threadId = threadId;
+        this.threadPriority = threadPriority;
+        this.source = source;
+    }
+
+    /**
+     * Reconstructs an event from a parsed Bunyan record.
+     *
+     * @param record parsed record
+     * @return reconstructed event
+     * @throws IllegalArgumentException if the record has no level or message
+     */
+    public static RecordedEvent fromRecord(final JsonNode record) {
+        if (!record.hasNonNull("level") || !record.has("msg")) {
+            throw new IllegalArgumentException("Record is missing the level or msg field");
+        }
+
+        final Level level = level(record.get("level").asInt(), text(record, "level_name"));
+        final String loggerName = record.hasNonNull("component") ? record.get("component").asText() : "replay";
+        final long timeMillis = time(text(record, "time"));
+        final Throwable thrown = record.hasNonNull("err") ? throwable(record.get("err")) : null;
+        // Spilled messages are written as references, which are replayed as their JSON
+        final JsonNode msg = record.get("msg");
+        final String text = msg.isTextual() ? msg.asText() : msg.toString();
+        final Message message = thrown == null
+                ? new SimpleMessage(text) : new ParameterizedMessage(text, new Object[0], thrown);
+        final Marker marker = record.hasNonNull("marker") ? MarkerManager.getMarker(record.get("marker").asText()) : null;
+
+        final StringMap contextData = new SortedArrayStringMap();
+        final Iterator<Map.Entry<String, JsonNode>> fields = record.fields();
+        while (fields.hasNext()) {
+            final Map.Entry<String, JsonNode> field = fields.next();
+            if (!RECORD_KEYS.contains(field.getKey())) {
+                final JsonNode value = field.getValue();
+                contextData.putValue(field.getKey(), value.isTextual() ? value.asText() : value.toString());
+            }
+        }
+        contextData.freeze();
+
+        ThreadContext.ContextStack contextStack = null;
+        if (record.hasNonNull("context_stack")) {
+            final List<String> values = new ArrayList<>();
+            for (JsonNode value : record.get("context_stack")) {
+                values.add(value.asText());
+            }
+            final MutableThreadContextStack stack = new MutableThreadContextStack(values);
+            stack.freeze();
+            contextStack = stack;
+        }
+
+        String threadName = null;
+        long threadId = 0;
+        int threadPriority = Thread.NORM_PRIORITY;
+        final String thread = text(record, "thread");
+        if (thread != null && !thread.equals("unknown")) {
+            final Matcher matcher = THREAD.matcher(thread);
+            if (matcher.matches()) {
+                threadName = matcher.group(1);
+                threadId = Long.parseLong(matcher.group(2));
+                threadPriority = Integer.parseInt(matcher.group(3));
+            } else {
+                threadName = thread;
+            }
+        }
+
+        StackTraceElement source = null;
+        if (record.hasNonNull("src")) {
+            final JsonNode src = record.get("src");
+            final String func = src.path("func").asText("");
+            final int dot = func.lastIndexOf('.');
+            source = new StackTraceElement(dot < 0 ? "" : func.substring(0, dot), func.substring(dot + 1),
+                    src.path("file").asText(null), src.path("line").asInt(-1));
+        }
+
+        return new RecordedEvent(level, loggerName, timeMillis, message, thrown, marker, contextData,
+                contextStack, threadName, threadId, threadPriority, source);
+    }
+
+    /**
+     * Copies this event into a reusable event, the way Log4j populates the
+     * events of reusable event factories and asynchronous loggers.
+     *
+     * @param event event to populate
+     */
+    public void populate(final MutableLogEvent event) {
+        event.clear();
+        event.setLevel(level);
+        event.setLoggerName(loggerName);
+        event.setTimeMillis(timeMillis);
+        event.setMessage(message);
+        event.setThrown(thrown);
+        event.setMarker(marker);
+        event.setContextData(contextData);
+        event.setContextStack(contextStack);
+        event.setThreadName(threadName);
+        event.setThreadId(threadId);
+        event.setThreadPriority(threadPriority);
+        event.setSource(source);
+    }
+
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+
+    public String getFormattedMessage() {
+        return message.getFormattedMessage();
+    }
+
+    public boolean hasThrown() {
+        return thrown != null;
+    }
+
+    public int getContextDataSize() {
+        return contextData.size();
+    }
+
+    static Level level(final int bunyanLevel, final String levelName) {
+        if (levelName != null) {
+            final Level existing = Level.getLevel(levelName);
+            return existing != null ? existing : Level.forName(levelName, bunyanLevel);
+        }
+        for (BunyanLevel known : BunyanLevel.values()) {
+            if (known.bunyanLevel == bunyanLevel) {
+                return known.log4jLevel;
+            }
+        }
+        return Level.INFO;
+    }
+
+    static long time(final String time) {
+        if (time == null) {
+            return 0;
+        }
+        try {
+            return Instant.parse(time).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return 0;
+        }
+    }
+
+    static String text(final JsonNode record, final String field) {
+        return record.hasNonNull(field) ? record.get(field).asText() : null;
+    }
+
+    /**
+     * Rebuilds a throwable and its causes from the err field. The class of the
+     * original exception can't be restored, so its name is kept in the message
+     * of the replayed throwable.
+     */
+    static Throwable throwable(final JsonNode err) {
+        final String name = err.path("name").asText(RuntimeException.class.getName());
+        final String message = err.hasNonNull("message") ? err.get("message").asText() : null;
+        final String stack = err.path("stack").isTextual() ? err.get("stack").asText() : "";
+
+        final List<ReplayedThrowable> chain = new ArrayList<>();
+        chain.add(new ReplayedThrowable(name, message));
+        final List<List<StackTraceElement>> frames = new ArrayList<>();
+        frames.add(new ArrayList<>());
+
+        for (String line : stack.split("\\R")) {
+            final Matcher frame = FRAME.matcher(line);
+            if (frame.matches()) {
+                frames.get(frames.size() - 1).add(frame(frame.group(1), frame.group(2), frame.group(3)));
+                continue;
+            }
+            final Matcher cause = CAUSE.matcher(line);
+            if (cause.matches()) {
+                chain.add(new ReplayedThrowable(cause.group(1), cause.group(2)));
+                frames.add(new ArrayList<>());
+                continue;
+            }
+            // Frames in common with the enclosing throwable are elided from causes
+            final Matcher common = COMMON_FRAMES.matcher(line);
+            if (common.matches() && frames.size() > 1) {
+                final List<StackTraceElement> enclosing = frames.get(frames.size() - 2);
+                final int count = Math.min(enclosing.size(), Integer.parseInt(common.group(1)));
+                frames.get(frames.size() - 1).addAll(enclosing.subList(enclosing.size() - count, enclosing.size()));
+            }
+        }
+
+        for (int i = chain.size() - 1; i >= 0; i--) {
+            chain.get(i).setStackTrace(frames.get(i).toArray(new StackTraceElement[0]));
+            if (i > 0) {
+                chain.get(i - 1).initCause(chain.get(i));
+            }
+        }
+        return chain.get(0);
+    }
+
+    static StackTraceElement frame(final String className, final String method, final String location) {
+        final int colon = location.lastIndexOf(':');
+        if (colon < 0) {
+            final String file = location.equals("Native Method") || location.equals("Unknown Source")
+                    ? null : location;
+            return new StackTraceElement(className, method, file, location.equals("Native Method") ? -2 : -1);
+        }
+        int line;
+        try {
+            line = Integer.parseInt(location.substring(colon + 1));
+        } catch (NumberFormatException e) {
+            line = -1;
+        }
+        return new StackTraceElement(className, method, location.substring(0, colon), line);
+    }
+
+    /**
+     * Throwable that renders like the exception it was reconstructed from.
+     */
+    static final class ReplayedThrowable extends RuntimeException {
+        private static final long serialVersionUID = 4925164383364155471L;
+
+        private final String name;
+
+        ReplayedThrowable(final String name, final String message) {
+            super(message);
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            final String message = getLocalizedMessage();
+            return message == null ? name : name + ": " + message;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package log4j.layout.bunyan.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import log4j.layout.bunyan.BunyanJsonLayout;
+import org.apache.logging.log4j.core.config.NullConfiguration;
+import org.apache.logging.log4j.core.impl.MutableLogEvent;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Replays Bunyan log files written by the layout through a new layout, so
+ * that changes to the layout can be measured against the real mix of message
+ * lengths, context data and exceptions of a production workload instead of
+ * synthetic events.
+ *
+ * <p>Each record is reconstructed into an equivalent event with
+ * {@link RecordedEvent}. Events are replayed either as fast as possible for a
+ * fixed duration, or once at the rate at which they were recorded (optionally
+ * sped up) based on their <code>time</code> field. Throughput and the heap
+ * allocated per event are reported.</p>
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=log4j.layout.bunyan.benchmark.ReplayBenchmark \
+ *     -Dexec.args="files [mode] [seconds] [speed]"
+ * </pre>
+ */
+public class ReplayBenchmark {
+    static final String MAX_RATE = "max";
+    static final String RECORDED_RATE = "recorded";
+
+    public static void main(final String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: ReplayBenchmark <files> [max|recorded] [seconds] [speed]");
+            System.exit(1);
+        }
+
+        final String mode = args.length > 1 ? args[1] : MAX_RATE;
+        final int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        final double speed = args.length > 3 ? Double.parseDouble(args[3]) : 1.0;
+        if (!MAX_RATE.equals(mode) && !RECORDED_RATE.equals(mode)) {
+            String msg = String.format("Unknown replay mode: %s", mode);
+            throw new IllegalArgumentException(msg);
+        }
+
+        final List<RecordedEvent> events = new ArrayList<>();
+        int skipped = 0;
+        for (String file : args[0].split(",")) {
+            skipped += read(Paths.get(file.trim()), events);
+        }
+        if (events.isEmpty()) {
+            throw new IllegalArgumentException("No records could be read from: " + args[0]);
+        }
+        describe(events, skipped);
+
+        final BunyanJsonLayout layout = BunyanJsonLayout.newBuilder()
+                .setAppName("replay")
+                .setIncludeAllContextProperties(true)
+                .setConfiguration(new NullConfiguration())
+                .build();
+        final DiscardingByteBufferDestination destination = new DiscardingByteBufferDestination();
+
+        final Result result;
+        if (MAX_RATE.equals(mode)) {
+            // Warm up with a fifth of the measured duration before measuring
+            replayAtMaxRate(layout, destination, events, TimeUnit.SECONDS.toNanos(Math.max(1, seconds / 5)));
+            result = replayAtMaxRate(layout, destination, events, TimeUnit.SECONDS.toNanos(seconds));
+        } else {
+            result = replayAtRecordedRate(layout, destination, events, speed);
+        }
+
+        System.out.printf("%-10s %12s %14s %12s %16s%n", "mode", "events", "events/s", "MB/s", "bytes/event");
+        System.out.printf("%-10s %12d %14.0f %12.1f %16s%n", mode, result.events,
+                result.events / (result.nanos / 1e9),
+                result.bytes / (result.nanos / 1e9) / (1024 * 1024),
+                result.allocatedBytes < 0 ? "n/a" : Long.toString(result.allocatedBytes / result.events));
+    }
+
+    /**
+     * @return number of lines that could not be reconstructed
+     */
+    static int read(final Path file, final List<RecordedEvent> events) throws IOException {
+        final ObjectMapper mapper = new ObjectMapper();
+        int skipped = 0;
+
+        try (InputStream in = open(file);
+             BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                try {
+                    events.add(RecordedEvent.fromRecord(mapper.readValue(line, JsonNode.class)));
+                } catch (IOException | RuntimeException e) {
+                    skipped++;
+                }
+            }
+        }
+
+        return skipped;
+    }
+
+    static InputStream open(final Path file) throws IOException {
+        final InputStream in = Files.newInputStream(file);
+        return file.getFileName().toString().endsWith(".gz") ? new GZIPInputStream(in) : in;
+    }
+
+    static void describe(final List<RecordedEvent> events, final int skipped) {
+        long messageChars = 0;
+        long contextEntries = 0;
+        int thrown = 0;
+        for (RecordedEvent event : events) {
+            messageChars += event.getFormattedMessage().length();
+            contextEntries += event.getContextDataSize();
+            thrown += event.hasThrown() ? 1 : 0;
+        }
+        System.out.printf("Records: %d (skipped %d), mean message length: %.1f, mean context entries: %.1f, "
+                        + "with exceptions: %.2f%%%n", events.size(), skipped,
+                messageChars / (double) events.size(), contextEntries / (double) events.size(),
+                100.0 * thrown / events.size());
+    }
+
+    static Result replayAtMaxRate(final BunyanJsonLayout layout, final DiscardingByteBufferDestination destination,
+                                  final List<RecordedEvent> events, final long durationNanos) {
+        final MutableLogEvent event = new MutableLogEvent();
+        final long startBytes = destination.getBytesWritten();
+        final long startAllocated = allocatedBytes();
+        final long start = System.nanoTime();
+        final long end = start + durationNanos;
+        long count = 0;
+
+        while (System.nanoTime() < end) {
+            for (int i = 0; i < events.size(); i++) {
+                events.get(i).populate(event);
+                layout.encode(event, destination);
+            }
+            count += events.size();
+        }
+
+        return new Result(count, System.nanoTime() - start, destination.getBytesWritten() - startBytes,
+                allocatedSince(startAllocated));
+    }
+
+    /**
+     * Replays the events once, waiting between events for the time that
+     * passed between them when they were recorded divided by the speed.
+     */
+    static Result replayAtRecordedRate(final BunyanJsonLayout layout,
+                                       final DiscardingByteBufferDestination destination,
+                                       final List<RecordedEvent> events, final double speed) {
+        final MutableLogEvent event = new MutableLogEvent();
+        final long firstMillis = events.get(0).getTimeMillis();
+        final long startBytes = destination.getBytesWritten();
+        final long startAllocated = allocatedBytes();
+        final long start = System.nanoTime();
+
+        for (RecordedEvent recorded : events) {
+            final long offsetNanos = (long) (TimeUnit.MILLISECONDS.toNanos(recorded.getTimeMillis() - firstMillis)
+                    / speed);
+            long waitNanos;
+            while ((waitNanos = start + offsetNanos - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(waitNanos);
+            }
+            recorded.populate(event);
+            layout.encode(event, destination);
+        }
+
+        return new Result(events.size(), System.nanoTime() - start, destination.getBytesWritten() - startBytes,
+                allocatedSince(startAllocated));
+    }
+
+    static long allocatedBytes() {
+        final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (!(threadMXBean instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        final com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadMXBean;
+        if (!allocationBean.isThreadAllocatedMemorySupported()) {
+            return -1;
+        }
+        allocationBean.setThreadAllocatedMemoryEnabled(true);
+        return allocationBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    static long allocatedSince(final long start) {
+        return start < 0 ? -1 : allocatedBytes() - start;
+    }
+
+    static final class Result {
+        final long events;
+        final long nanos;
+        final long bytes;
+        final long allocatedBytes;
+
+        Result(final long events, final long nanos, final long bytes, final long allocatedBytes) {
+            this.events = events;
+            this.nanos = nanos;
+            this.bytes = bytes;
+            this.allocatedBytes = allocatedBytes;
+        }
+    }
+}
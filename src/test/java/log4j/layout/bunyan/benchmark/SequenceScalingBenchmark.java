@@ -0,0 +1,116 @@
+package log4j.layout.bunyan.benchmark;
+
+import log4j.layout.bunyan.BunyanJsonLayout;
+import log4j.layout.bunyan.EventSequencer;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.config.NullConfiguration;
+import org.apache.logging.log4j.core.impl.MutableLogEvent;
+import org.apache.logging.log4j.message.SimpleMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures how the throughput of the layout scales with the number of threads
+ * logging concurrently when events are numbered with the <code>seq</code> and
+ * <code>thread_seq</code> fields. Events without sequence numbers are the
+ * baseline, a sequence block size of one increments a single shared counter
+ * for every event and the default block size reserves blocks of numbers per
+ * thread.
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=log4j.layout.bunyan.benchmark.SequenceScalingBenchmark \
+ *     -Dexec.args="[maxThreads] [seconds]"
+ * </pre>
+ */
+public class SequenceScalingBenchmark {
+    private static final String FIELDS = "level,time,msg,component";
+
+    public static void main(final String[] args) throws Exception {
+        final int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        final double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 1.0;
+        final long runNanos = (long) (seconds * 1_000_000_000L);
+
+        System.out.printf("Java %s, %d processors, %.1f seconds per run%n", System.getProperty("java.version"),
+                Runtime.getRuntime().availableProcessors(), seconds);
+        System.out.printf("%8s %16s %16s %16s%n", "threads", "no seq", "block size 1",
+                "block size " + EventSequencer.DEFAULT_BLOCK_SIZE);
+        final BunyanJsonLayout[] layouts = {
+                layout(FIELDS, 1),
+                layout("seq,thread_seq," + FIELDS, 1),
+                layout("seq,thread_seq," + FIELDS, EventSequencer.DEFAULT_BLOCK_SIZE)
+        };
+        for (BunyanJsonLayout layout : layouts) {
+            run(layout, 1, runNanos);
+        }
+
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            final double[] eventsPerSecond = new double[layouts.length];
+            for (int i = 0; i < layouts.length; i++) {
+                // Run each layout twice and report the second run so that the JIT has warmed up
+                run(layouts[i], threads, runNanos / 2);
+                eventsPerSecond[i] = run(layouts[i], threads, runNanos);
+            }
+            System.out.printf("%8d %16.0f %16.0f %16.0f%n", threads,
+                    eventsPerSecond[0], eventsPerSecond[1], eventsPerSecond[2]);
+        }
+    }
+
+    static BunyanJsonLayout layout(final String fields, final int sequenceBlockSize) {
+        return BunyanJsonLayout.newBuilder()
+                .setAppName("benchmark")
+                .setFields(fields)
+                .setSequenceBlockSize(sequenceBlockSize)
+                .setConfiguration(new NullConfiguration())
+                .build();
+    }
+
+    static double run(final BunyanJsonLayout layout, final int threads, final long runNanos) throws Exception {
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final LongAdder encoded = new LongAdder();
+        final CyclicBarrier started = new CyclicBarrier(threads + 1);
+        final List<Thread> workers = new ArrayList<>(threads);
+
+        for (int t = 0; t < threads; t++) {
+            final Thread worker = new Thread(() -> {
+                final DiscardingByteBufferDestination destination = new DiscardingByteBufferDestination();
+                final MutableLogEvent event = new MutableLogEvent();
+                event.setLevel(Level.INFO);
+                event.setLoggerName(SequenceScalingBenchmark.class.getName());
+                event.setThreadName(Thread.currentThread().getName());
+                event.setThreadId(Thread.currentThread().getId());
+                event.setMessage(new SimpleMessage("request completed"));
+                try {
+                    started.await();
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+                long count = 0;
+                while (running.get()) {
+                    for (int i = 0; i < 100; i++) {
+                        event.setTimeMillis(System.currentTimeMillis());
+                        layout.encode(event, destination);
+                    }
+                    count += 100;
+                }
+                encoded.add(count);
+            });
+            worker.start();
+            workers.add(worker);
+        }
+
+        started.await();
+        final long start = System.nanoTime();
+        Thread.sleep(runNanos / 1_000_000L);
+        running.set(false);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        final long elapsed = System.nanoTime() - start;
+        return encoded.sum() / (elapsed / 1_000_000_000.0);
+    }
+}
@@ -0,0 +1,121 @@
+package log4j.layout.bunyan.benchmark;
+
+import log4j.layout.bunyan.BufferPool;
+import log4j.layout.bunyan.BunyanJsonLayout;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.config.NullConfiguration;
+import org.apache.logging.log4j.core.impl.MutableLogEvent;
+import org.apache.logging.log4j.message.SimpleMessage;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares heap footprint and throughput of the {@value BufferPool#THREAD_LOCAL}
+ * and {@value BufferPool#POOLED} writer modes when a large number of threads
+ * log. Virtual threads are used when running on Java 21+.
+ *
+ * <p>Every thread encodes a number of events and then stays alive while the
+ * retained heap is measured, which mirrors long-lived request threads. One in
+ * every hundred threads logs a large message so that its writer grows.</p>
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=log4j.layout.bunyan.benchmark.WriterPoolingBenchmark \
+ *     -Dexec.args="[threads] [eventsPerThread]"
+ * </pre>
+ */
+public class WriterPoolingBenchmark {
+    private static final String SMALL_MESSAGE = repeat("request completed ", 10);
+    private static final String LARGE_MESSAGE = repeat("x", 256 * 1024);
+
+    public static void main(final String[] args) throws Exception {
+        final int threads = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        final int eventsPerThread = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+
+        System.out.printf("Java %s, virtual threads: %s, threads: %d, events per thread: %d%n",
+                System.getProperty("java.version"), VirtualThreads.isSupported(), threads, eventsPerThread);
+        System.out.printf("%-12s %15s %18s%n", "mode", "events/s", "retained heap MB");
+
+        for (String mode : new String[] { BufferPool.THREAD_LOCAL, BufferPool.POOLED }) {
+            // Run each mode twice and report the second run so that the JIT has warmed up
+            run(mode, threads, eventsPerThread);
+            final Result result = run(mode, threads, eventsPerThread);
+            System.out.printf("%-12s %15.0f %18.1f%n", mode, result.eventsPerSecond,
+                    result.retainedBytes / (1024.0 * 1024.0));
+        }
+    }
+
+    static Result run(final String mode, final int threads, final int eventsPerThread) throws Exception {
+        final BunyanJsonLayout layout = BunyanJsonLayout.newBuilder()
+                .setAppName("benchmark")
+                .setWriterPool(mode)
+                .setConfiguration(new NullConfiguration())
+                .build();
+        final DiscardingByteBufferDestination destination = new DiscardingByteBufferDestination();
+        final CountDownLatch logged = new CountDownLatch(threads);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        final long baseline = usedHeap();
+        final ExecutorService executor = VirtualThreads.newThreadPerTaskExecutor();
+        final long start = System.nanoTime();
+
+        for (int t = 0; t < threads; t++) {
+            final boolean large = t % 100 == 0;
+            executor.execute(() -> {
+                final MutableLogEvent event = new MutableLogEvent();
+                event.setLevel(Level.INFO);
+                event.setLoggerName(WriterPoolingBenchmark.class.getName());
+                event.setThreadName(Thread.currentThread().getName());
+                for (int i = 0; i < eventsPerThread; i++) {
+                    event.setTimeMillis(System.currentTimeMillis());
+                    event.setMessage(new SimpleMessage(large && i == 0 ? LARGE_MESSAGE : SMALL_MESSAGE));
+                    layout.encode(event, destination);
+                }
+                logged.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+
+        logged.await();
+        final long elapsed = System.nanoTime() - start;
+        final long retained = usedHeap() - baseline;
+        release.countDown();
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+
+        final double eventsPerSecond = (double) threads * eventsPerThread / (elapsed / 1_000_000_000.0);
+        return new Result(eventsPerSecond, retained);
+    }
+
+    static long usedHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    static String repeat(final String value, final int times) {
+        final StringBuilder builder = new StringBuilder(value.length() * times);
+        for (int i = 0; i < times; i++) {
+            builder.append(value);
+        }
+        return builder.toString();
+    }
+
+    static final class Result {
+        final double eventsPerSecond;
+        final long retainedBytes;
+
+        Result(final double eventsPerSecond, final long retainedBytes) {
+            this.eventsPerSecond = eventsPerSecond;
+            this.retainedBytes = retainedBytes;
+        }
+    }
+}